@@ -0,0 +1,26 @@
+dtmc
+
+// regression model for partial-order reduction (-por):
+// the invisible command of module first enables its second command, which races with the command of module second,
+// so it is not ample and -por must give the same leakage as the full model
+// (with -leakbounds: Prob of Max Leakage 0.375, Min Leakage 0.278 bits)
+
+global secret h : [0..1]; // secret variable
+
+global observable o : [0..2]; // observable (public) variable
+
+module first
+
+    pc : [0..1];
+
+    [] pc=0 -> (pc'=1);
+    [] pc=1 & o=0 -> (o'=1);
+endmodule
+
+module second
+
+    [] o=0 & h=0 -> (o'=2);
+endmodule
+
+// "h" can be anything
+init  pc=0 & o=0 endinit
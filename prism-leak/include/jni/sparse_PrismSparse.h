@@ -330,42 +330,66 @@ JNIEXPORT jlong JNICALL Java_sparse_PrismSparse_PS_1SORInterval
 /*
  * Class:     sparse_PrismSparse
  * Method:    PS_CreateSparseMatrix
- * Signature: (JLjava/lang/String;JIJIJ)I
+ * Signature: (JLjava/lang/String;JIJIJ)J
  */
-JNIEXPORT jint JNICALL Java_sparse_PrismSparse_PS_1CreateSparseMatrix
+JNIEXPORT jlong JNICALL Java_sparse_PrismSparse_PS_1CreateSparseMatrix
   (JNIEnv *, jclass, jlong, jstring, jlong, jint, jlong, jint, jlong);
 
 /*
  * Class:     sparse_PrismSparse
  * Method:    PS_FreeSparseMatrix
- * Signature: (JLjava/lang/String;JIJIJ)I
+ * Signature: (J)V
  */
-JNIEXPORT jint JNICALL Java_sparse_PrismSparse_PS_1FreeSparseMatrix
-  (JNIEnv *, jclass, jlong, jstring, jlong, jint, jlong, jint, jlong);
+JNIEXPORT void JNICALL Java_sparse_PrismSparse_PS_1FreeSparseMatrix
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     sparse_PrismSparse
  * Method:    PS_GetTransitionProb
- * Signature: (IIJLjava/lang/String;JIJIJ)D
+ * Signature: (JII)D
  */
 JNIEXPORT jdouble JNICALL Java_sparse_PrismSparse_PS_1GetTransitionProb
-  (JNIEnv *, jclass, jint, jint, jlong, jstring, jlong, jint, jlong, jint, jlong);
+  (JNIEnv *, jclass, jlong, jint, jint);
 
 /*
  * Class:     sparse_PrismSparse
  * Method:    PS_SuccessorStates
- * Signature: (IJLjava/lang/String;JIJIJ)[I
+ * Signature: (JI)[I
  */
 JNIEXPORT jintArray JNICALL Java_sparse_PrismSparse_PS_1SuccessorStates
-  (JNIEnv *, jclass, jint, jlong, jstring, jlong, jint, jlong, jint, jlong);
+  (JNIEnv *, jclass, jlong, jint);
 
 /*
  * Class:     sparse_PrismSparse
  * Method:    PS_isFinalState
- * Signature: (IJLjava/lang/String;JIJIJ)Z
+ * Signature: (JI)Z
  */
 JNIEXPORT jboolean JNICALL Java_sparse_PrismSparse_PS_1isFinalState
-  (JNIEnv *, jclass, jint, jlong, jstring, jlong, jint, jlong, jint, jlong);
+  (JNIEnv *, jclass, jlong, jint);
+
+/*
+ * Class:     sparse_PrismSparse
+ * Method:    PS_GetNumStates
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_sparse_PrismSparse_PS_1GetNumStates
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     sparse_PrismSparse
+ * Method:    PS_GetNumTransitions
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_sparse_PrismSparse_PS_1GetNumTransitions
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     sparse_PrismSparse
+ * Method:    PS_ExportSparseMatrix
+ * Signature: (J[I[I[D)V
+ */
+JNIEXPORT void JNICALL Java_sparse_PrismSparse_PS_1ExportSparseMatrix
+  (JNIEnv *, jclass, jlong, jintArray, jintArray, jdoubleArray);
 
 #ifdef __cplusplus
 }
@@ -46,6 +46,8 @@ import prism.PrismNotSupportedException;
 import prism.PrismPrintStreamLog;
 import prism.ProgressDisplay;
 import prism.UndefinedConstants;
+import simulator.PartialOrderReduction;
+import simulator.SymmetryReduction;
 
 /**
  * Class to perform explicit-state reachability and model construction.
@@ -69,6 +71,10 @@ public class ConstructModel extends PrismComponent
 	protected boolean distinguishActions = true;
 	/** Should labels be processed and attached to the model? */
 	protected boolean attachLabels = true; 
+	/** Partial-order reduction of DTMCs (null if none) */
+	protected PartialOrderReduction reduction = null;
+	/** Symmetry reduction of DTMCs (null if none) */
+	protected SymmetryReduction symmetry = null;
 
 	// Details of built model:
 
@@ -130,6 +136,24 @@ public class ConstructModel extends PrismComponent
 		this.attachLabels = attachLabels;
 	}
 
+	/**
+	 * Explore only the transitions of an ample command, where there is one, using partial-order reduction
+	 * (null: explore all transitions). Only for DTMCs.
+	 */
+	public void setPartialOrderReduction(PartialOrderReduction reduction)
+	{
+		this.reduction = reduction;
+	}
+
+	/**
+	 * Build each target state up to permutations of symmetric copies of modules, using symmetry reduction
+	 * (null: build all states). Only for DTMCs.
+	 */
+	public void setSymmetryReduction(SymmetryReduction symmetry)
+	{
+		this.symmetry = symmetry;
+	}
+
 	/**
 	 * Build the set of reachable states for a model and return it.
 	 * @param modelGen The ModelGenerator interface providing the model 
@@ -175,6 +199,11 @@ public class ConstructModel extends PrismComponent
 		// Misc
 		int i, j, nc, nt, src, dest;
 		long timer;
+		// Partial-order reduction: first choice explored, scaling of its probabilities, number of reduced states
+		int first, numReduced = 0;
+		double scale;
+		// Symmetry reduction: number of targets replaced by a symmetric state
+		int numPermuted = 0;
 
 		// Get model info
 		modelType = modelGen.getModelType();
@@ -242,7 +271,23 @@ public class ConstructModel extends PrismComponent
 			modelGen.exploreState(state);
 			// Look at each outgoing choice in turn
 			nc = modelGen.getNumChoices();
-			for (i = 0; i < nc; i++) {
+			first = 0;
+			scale = 1.0;
+			// With partial-order reduction, only the choice of an ample command is explored
+			if (reduction != null && nc > 1) {
+				int ample = reduction.getAmpleChoice(state);
+				if (ample >= 0 && onlyNewTargets(modelGen, ample, state, states)) {
+					first = ample;
+					nc = ample + 1;
+					scale = 0.0;
+					for (j = 0; j < modelGen.getNumTransitions(ample); j++) {
+						scale += modelGen.getTransitionProbability(ample, j);
+					}
+					scale = 1.0 / scale;
+					numReduced++;
+				}
+			}
+			for (i = first; i < nc; i++) {
 				// For nondet models, collect transitions in a Distribution
 				if (!justReach && modelType.nondeterministic()) {
 					distr = new Distribution();
@@ -251,6 +296,14 @@ public class ConstructModel extends PrismComponent
 				nt = modelGen.getNumTransitions(i);
 				for (j = 0; j < nt; j++) {
 					stateNew = modelGen.computeTransitionTarget(i, j);
+					// With symmetry reduction, the target is replaced by its canonical state
+					if (symmetry != null) {
+						State canonical = getCanonicalTarget(stateNew, state);
+						if (canonical != stateNew) {
+							stateNew = canonical;
+							numPermuted++;
+						}
+					}
 					// Is this a new state?
 					if (states.add(stateNew)) {
 						// If so, add to the explore list
@@ -266,7 +319,7 @@ public class ConstructModel extends PrismComponent
 					if (!justReach) {
 						switch (modelType) {
 						case DTMC:
-							dtmc.addToProbability(src, dest, modelGen.getTransitionProbability(i, j));
+							dtmc.addToProbability(src, dest, scale * modelGen.getTransitionProbability(i, j));
 							break;
 						case CTMC:
 							ctmc.addToProbability(src, dest, modelGen.getTransitionProbability(i, j));
@@ -311,6 +364,12 @@ public class ConstructModel extends PrismComponent
 		// Reachability complete
 		mainLog.print("Reachable states exploration" + (justReach ? "" : " and model construction"));
 		mainLog.println(" done in " + ((System.currentTimeMillis() - timer) / 1000.0) + " secs.");
+		if (reduction != null) {
+			mainLog.println("Partial-order reduction: only an ample command explored in " + numReduced + " states");
+		}
+		if (symmetry != null) {
+			mainLog.println("Symmetry reduction: " + numPermuted + " transition targets replaced by a symmetric state");
+		}
 		//mainLog.println(states);
 
 		// Find/fix deadlocks (if required)
@@ -405,6 +464,38 @@ public class ConstructModel extends PrismComponent
 		}
 	}
 
+
+	/**
+	 * Cycle condition of partial-order reduction: are all targets of choice i of state (being explored by modelGen)
+	 * new states? Then every cycle of the reduced model has a state where all choices are explored.
+	 */
+	private boolean onlyNewTargets(ModelGenerator modelGen, int i, State state, StateStorage<State> states) throws PrismException
+	{
+		for (int j = 0; j < modelGen.getNumTransitions(i); j++) {
+			State target = modelGen.computeTransitionTarget(i, j);
+			if (symmetry != null) {
+				target = getCanonicalTarget(target, state);
+			}
+			if (target.equals(state) || states.contains(target)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Symmetry reduction of a transition from state to target: the canonical state of target, unless that is
+	 * state itself but target is not, since a self-loop would then replace a step to another state.
+	 */
+	private State getCanonicalTarget(State target, State state)
+	{
+		if (target.equals(state)) {
+			return target;
+		}
+		State canonical = symmetry.getCanonicalState(target);
+		return canonical.equals(state) ? target : canonical;
+	}
+
 	/**
 	 * Test method.
 	 */
@@ -165,6 +165,7 @@ public class Declaration extends ASTElement
 		Declaration ret = new Declaration(getName(), (DeclarationType)getDeclType().deepCopy());
 		if (getStart() != null)
 			ret.setStart(getStart().deepCopy());
+		ret.setObservabilityType(getObservabilityType());
 		ret.setPosition(this);
 		return ret;
 	}
@@ -299,6 +299,7 @@ public class Module extends ASTElement
 		for (i = 0; i < n; i++) {
 			ret.addCommand((Command)getCommand(i).deepCopy());
 		}
+		ret.setBaseModule(baseModule);
 		if (invariant != null)
 			ret.setInvariant(invariant.deepCopy());
 		ret.setPosition(this);
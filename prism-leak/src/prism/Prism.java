@@ -64,18 +64,26 @@ import parser.ast.ModulesFile;
 import parser.ast.PropertiesFile;
 import parser.ast.Property;
 import prismfinalleak.FinalLeakComputerExp;
+import prismfinalleak.FinalLeakComputerSym;
 import pta.DigitalClocks;
 import pta.PTAModelChecker;
 import simulator.GenerateSimulationPath;
 import simulator.ModulesFileModelGenerator;
 import simulator.ModulesFileModelGeneratorSymbolic;
 import simulator.SimulatorEngine;
+import simulator.SymmetryReduction;
 import simulator.method.SimulationMethod;
 import sparse.PrismSparse;
 import strat.Strategy;
 
-import prismintertrace.ExplicitState;
+import prismintertrace.ChannelCapacity;
 import prismintertrace.InterLeakComputerExp;
+import prismintertrace.LeakCache;
+import prismintertrace.LeakChannel;
+import prismintertrace.LeakModel;
+import prismintertrace.LeakSimulator;
+import prismintertrace.LeakStreamExplorer;
+import prismintertrace.LeakageSummary;
 import prismintertrace.ProbModelTraceExplorer;
 import prismod.ODChecker;
 
@@ -1994,6 +2002,12 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 				if (currentModulesFile == null)
 					throw new PrismException("There is no currently loaded PRISM model to build");
 				if (!getExplicit()) {
+					if (partialOrderReduction) {
+						throw new PrismNotSupportedException("Partial-order reduction is only supported by the explicit engine");
+					}
+					if (symmetryReduction) {
+						throw new PrismNotSupportedException("Symmetry reduction is only supported by the explicit engine");
+					}
 					Modules2MTBDD mod2mtbdd = new Modules2MTBDD(this, currentModulesFile);
 					currentModel = mod2mtbdd.translate();
 					currentModelExpl = null;
@@ -2003,6 +2017,18 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 					}
 					ConstructModel constructModel = new ConstructModel(this);
 					constructModel.setFixDeadlocks(getFixDeadlocks());
+					if (partialOrderReduction) {
+						constructModel.setPartialOrderReduction(((ModulesFileModelGenerator) currentModelGenerator).createPartialOrderReduction());
+					}
+					if (symmetryReduction) {
+						SymmetryReduction symmetry = ((ModulesFileModelGenerator) currentModelGenerator).createSymmetryReduction();
+						if (symmetry.getNumGroups() == 0) {
+							mainLog.printWarning("No renamed modules are symmetric for leakage, so symmetry reduction is not used");
+						} else {
+							mainLog.println("\nSymmetry reduction of modules: " + symmetry.getGroupsString());
+							constructModel.setSymmetryReduction(symmetry);
+						}
+					}
 					currentModelExpl = constructModel.constructModel(currentModelGenerator);
 					currentModel = null;
 				}
@@ -4174,12 +4200,118 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 	// PRISM-Leak methods
 	//----------------------------------------------------------------------------------------------
 	
+	// number of worker threads for explicit leakage computation (1: sequential exploration)
+	private int leakThreads = 1;
+	
+	public void setLeakThreads(int leakThreads) throws PrismException
+	{
+		if (leakThreads < 1)
+			throw new PrismException("Number of leakage threads should be positive");
+		this.leakThreads = leakThreads;
+	}
+	
+	public int getLeakThreads()
+	{
+		return leakThreads;
+	}
+	
+	// cutoff of the probability of unexplored paths, for intermediate leakage of models with cycles
+	private double leakCutoff = ProbModelTraceExplorer.DEFAULT_MASS_CUTOFF;
+	// was the cutoff given? Otherwise leakage on the fly is computed exactly
+	private boolean leakCutoffGiven = false;
+	
+	public void setLeakCutoff(double leakCutoff) throws PrismException
+	{
+		if (leakCutoff <= 0 || leakCutoff >= 1)
+			throw new PrismException("Leakage cutoff should be between 0 and 1");
+		this.leakCutoff = leakCutoff;
+		leakCutoffGiven = true;
+	}
+	
+	public double getLeakCutoff()
+	{
+		return leakCutoff;
+	}
+	
+	// heap memory (MB) for trace-secret probabilities of intermediate leakage, beyond which they are spilled to disk (0: no limit)
+	private long leakMemory = 0;
+	
+	public void setLeakMemory(long leakMemory) throws PrismException
+	{
+		if (leakMemory < 0)
+			throw new PrismException("Leakage memory should not be negative");
+		this.leakMemory = leakMemory;
+	}
+	
+	public long getLeakMemory()
+	{
+		return leakMemory;
+	}
+	
+	// directory of the persistent cache of channels (null: no cache)
+	private File leakCacheDir = null;
+	
+	public void setLeakCacheDir(File leakCacheDir)
+	{
+		this.leakCacheDir = leakCacheDir;
+	}
+	
+	public File getLeakCacheDir()
+	{
+		return leakCacheDir;
+	}
+	
+	// partial-order reduction of the explicit model, which preserves stutter-free traces and final states
+	private boolean partialOrderReduction = false;
+	
+	public void setPartialOrderReduction(boolean partialOrderReduction)
+	{
+		this.partialOrderReduction = partialOrderReduction;
+	}
+	
+	public boolean getPartialOrderReduction()
+	{
+		return partialOrderReduction;
+	}
+	
+	// symmetry reduction of the explicit model, which permutes renamed copies of modules with the same secret values
+	private boolean symmetryReduction = false;
+	
+	public void setSymmetryReduction(boolean symmetryReduction)
+	{
+		this.symmetryReduction = symmetryReduction;
+	}
+	
+	public boolean getSymmetryReduction()
+	{
+		return symmetryReduction;
+	}
+	
 	/**
 	 * Compute final leakage using explicit model checking
 	 */
 	public void computeFinalLeakExp(boolean minmax, boolean bounded, int boundedStep,  
 			boolean entropyType, String initDistFileName) throws PrismException {
 		
+		computeFinalLeakExp(FinalLeakComputerExp.PATH_BASED_METHOD, minmax, bounded, boundedStep, entropyType, initDistFileName);
+	}
+	
+	/**
+	 * Compute final leakage using reachability probabilities of outputs, instead of enumerating paths
+	 */
+	public void computeFinalLeakAbsorption(boolean minmax, boolean bounded, int boundedStep,  
+			boolean entropyType, String initDistFileName) throws PrismException {
+		
+		computeFinalLeakExp(FinalLeakComputerExp.ABSORPTION_METHOD, minmax, bounded, boundedStep, entropyType, initDistFileName);
+	}
+	
+	/**
+	 * Compute final leakage using explicit model checking, 
+	 * with method either FinalLeakComputerExp.PATH_BASED_METHOD or FinalLeakComputerExp.ABSORPTION_METHOD
+	 */
+	public void computeFinalLeakExp(int method, boolean minmax, boolean bounded, int boundedStep,  
+			boolean entropyType, String initDistFileName) throws PrismException {
+		
 		if (currentModelType != ModelType.DTMC) {
 			throw new PrismNotSupportedException("Model type not yet supported");
 		}
@@ -4193,59 +4325,63 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 		FinalLeakComputerExp leakComputer;
 		
 		if(!bounded) { // steady state leakage computation
-			leakComputer = new FinalLeakComputerExp((ProbModel) currentModel, 
+			leakComputer = new FinalLeakComputerExp(this, getLeakModel(), method, leakThreads, 
 					false, 0, entropyType, initDistFileName, mainLog);
 		
 			printFinalLeakage(leakComputer, minmax, false, 0);
 		}
-		else { // bounded time leakage computation
+		else { // bounded time leakage computation: all times are computed by a single exploration
+			leakComputer = FinalLeakComputerExp.exploreAllSteps(getLeakModel(), initDistFileName, boundedStep, 
+					entropyType, mainLog);
+			
 			for(int t=0; t < boundedStep; t++) {
 				
-				leakComputer = 
-						new FinalLeakComputerExp((ProbModel) currentModel, true, t, 
-								entropyType, initDistFileName, mainLog);
-				
+				leakComputer.setTime(t);
 				printFinalLeakage(leakComputer, minmax, true, t);
 			}
 		}
 	}
 	
 	/**
-	 * Helper function for printing intermediate leakage variants
+	 * Compute final leakage symbolically: Pr(o,h) is computed as an MTBDD by the numerical solution of the current engine 
+	 * (MTBDD, hybrid or sparse), without enumerating the reachable states
 	 */
-	public void printFinalLeakage(FinalLeakComputerExp leakComputer, boolean minmax, boolean bounded, int t) throws PrismException{
-		
-		double initUncer = leakComputer.initialUncertainty();
+	public void computeFinalLeakSymbolic(boolean minmax, boolean entropyType, String initDistFileName) throws PrismException {
 		
-		if(bounded) {
-			if(t==0) {
-				mainLog.println("\nInitial Uncertainty (secret size): " + initUncer + " bits\n");
-			}
-			mainLog.println("Time " + t + ":");
+		if (currentModelType != ModelType.DTMC) {
+			throw new PrismNotSupportedException("Model type not yet supported");
 		}
-		else
-			mainLog.println("\nInitial Uncertainty (secret size): " + initUncer + " bits\n");
-		
-		if(!minmax) { // expected leakage
-			double expectedLeakage = leakComputer.expectedLeakage();
-			mainLog.println("Expected Leakage: " + expectedLeakage + " bits (" + expectedLeakage*100/initUncer+ " %)\n");
+		if (getExplicit()) {
+			throw new PrismException("Symbolic final leakage needs the MTBDD, hybrid or sparse engine");
 		}
-		else { // leakbounds
 		
-			double maxLeakage = leakComputer.maxLeakage();
-			mainLog.println("Max Leakage: " + maxLeakage + " bits (" + maxLeakage*100/initUncer+ " %)");
-			
-			double probMaxLeakage = leakComputer.probMaxLeakage();
-			mainLog.println("Prob of Max Leakage: " + probMaxLeakage);
-			
-			double minLeakage = leakComputer.minLeakage();
-			mainLog.println("Min Leakage: " + minLeakage + " bits (" + minLeakage*100/initUncer+ " %)");
+		// Build model
+		buildModelIfRequired();
+		
+		mainLog.println();
+		mainLog.println("-----------Computing final leakage symbolically----------------");
+		mainLog.println("\nComputing reachability probabilities of outputs (" + getEngineString(getEngine()) + " engine) ...\n");
+		
+		long timer = System.currentTimeMillis();
+		FinalLeakComputerSym leakComputer = new FinalLeakComputerSym(this, (ProbModel) currentModel, 
+				entropyType, initDistFileName, mainLog);
+		try {
+			LeakageSummary summary = leakComputer.summary();
+			timer = System.currentTimeMillis() - timer;
+			mainLog.println("Time for symbolic computation: " + timer / 1000.0 + " seconds");
 			
-			double probMinLeakage = leakComputer.probMinLeakage();
-			mainLog.println("Prob of Min Leakage: " + probMinLeakage);
+			printLeakage(summary, minmax, false, false, 0);
+		} finally {
+			leakComputer.clear();
 		}
+	}
+	
+	/**
+	 * Helper function for printing final leakage variants
+	 */
+	public void printFinalLeakage(FinalLeakComputerExp leakComputer, boolean minmax, boolean bounded, int t) throws PrismException{
 		
-		return;
+		printLeakage(leakComputer.summary(), minmax, false, bounded, t);
 	}
 	
 	/**
@@ -4254,6 +4390,25 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 	public void computeInterLeakExp(boolean minmax, boolean bounded, int boundedStep,  
 			boolean entropyType, String initDistFileName) throws PrismException {
 		
+		computeInterLeakExp(InterLeakComputerExp.TRACE_BASED_METHOD, minmax, bounded, boundedStep, entropyType, initDistFileName);
+	}
+	
+	/**
+	 * Compute intermediate leakage using the back-bisimulation method
+	 */
+	public void computeInterLeakBackBisim(boolean minmax, boolean bounded, int boundedStep,  
+			boolean entropyType, String initDistFileName) throws PrismException {
+		
+		computeInterLeakExp(InterLeakComputerExp.BACK_BISIMULATION_METHOD, minmax, bounded, boundedStep, entropyType, initDistFileName);
+	}
+	
+	/**
+	 * Compute intermediate leakage using explicit model checking, 
+	 * with method either InterLeakComputerExp.TRACE_BASED_METHOD or InterLeakComputerExp.BACK_BISIMULATION_METHOD
+	 */
+	public void computeInterLeakExp(int method, boolean minmax, boolean bounded, int boundedStep,  
+			boolean entropyType, String initDistFileName) throws PrismException {
+		
 		if (currentModelType != ModelType.DTMC) {
 			throw new PrismNotSupportedException("Model type not yet supported");
 		}
@@ -4262,23 +4417,28 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 		buildModelIfRequired();
 		
 		mainLog.println();
-		mainLog.println("-----------Computing intermediate leakage using trace-based method----------------");
+		if (method == InterLeakComputerExp.BACK_BISIMULATION_METHOD)
+			mainLog.println("-----------Computing intermediate leakage using back-bisimulation method----------------");
+		else
+			mainLog.println("-----------Computing intermediate leakage using trace-based method----------------");
 		
 		InterLeakComputerExp leakageComputer;
 		
 		if(!bounded) { // steady state leakage computation
-			leakageComputer = new InterLeakComputerExp((ProbModel) currentModel, 
-					false, 0, entropyType, initDistFileName, mainLog);
+			ProbModelTraceExplorer traceModel = InterLeakComputerExp.createExplorer(getLeakModel(), method, leakThreads, initDistFileName);
+			traceModel.setMassCutoff(leakCutoff);
+			traceModel.setSpillMemory(leakMemory << 20);
+			leakageComputer = new InterLeakComputerExp(traceModel, false, 0, entropyType, mainLog);
 		
 			printInterLeakage(leakageComputer, minmax, false, 0);
 		}
-		else { // bounded time leakage computation
+		else { // bounded time leakage computation: all times are computed by a single exploration
+			ProbModelTraceExplorer traceModel = InterLeakComputerExp.createExplorer(getLeakModel(), method, leakThreads, initDistFileName);
+			leakageComputer = InterLeakComputerExp.exploreAllSteps(traceModel, boundedStep, entropyType, mainLog);
+			
 			for(int t=0; t < boundedStep; t++) {
 				
-				leakageComputer = 
-						new InterLeakComputerExp((ProbModel) currentModel, true, t, 
-								entropyType, initDistFileName, mainLog);
-				
+				leakageComputer.setTime(t);
 				printInterLeakage(leakageComputer, minmax, true, t);
 			}
 		}
@@ -4289,7 +4449,16 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 	 */
 	public void printInterLeakage(InterLeakComputerExp leakageComputer, boolean minmax, boolean bounded, int t) throws PrismException{
 		
-		double initUncer = leakageComputer.initialUncertainty();
+		printLeakage(leakageComputer.summary(), minmax, true, bounded, t);
+	}
+	
+	/**
+	 * Helper function for printing leakage variants from the leakage metrics of summary, 
+	 * where interleak tells if the observations are traces (intermediate leakage) or outputs (final leakage)
+	 */
+	public void printLeakage(LeakageSummary summary, boolean minmax, boolean interleak, boolean bounded, int t) {
+		
+		double initUncer = summary.getInitialUncertainty();
 		
 		if(bounded) {
 			if(t==0) {
@@ -4301,30 +4470,257 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 			mainLog.println("\nInitial Uncertainty (secret size): " + initUncer + " bits\n");
 		
 		if(!minmax) { // expected leakage
-			double expectedLeakage = leakageComputer.expectedLeakage();
+			double expectedLeakage = summary.getExpectedLeakage();
 			mainLog.println("Expected Leakage: " + expectedLeakage + " bits (" + expectedLeakage*100/initUncer+ " %)\n");
 		}
-		else { // leakbounds
+		else { // leakbounds: all metrics are computed by a single pass over the observations
 		
-			double maxLeakage = leakageComputer.maxLeakage();
+			double maxLeakage = summary.getMaxLeakage();
 			mainLog.println("Max Leakage: " + maxLeakage + " bits (" + maxLeakage*100/initUncer+ " %)");
 			
-			double probMaxLeakage = leakageComputer.probMaxLeakage();
+			double probMaxLeakage = summary.getProbMaxLeakage();
 			mainLog.println("Prob of Max Leakage: " + probMaxLeakage);
 			
-			double minLeakage = leakageComputer.minLeakage();
+			double minLeakage = summary.getMinLeakage();
 			mainLog.println("Min Leakage: " + minLeakage + " bits (" + minLeakage*100/initUncer+ " %)");
 			
-			double probMinLeakage = leakageComputer.probMinLeakage();
+			double probMinLeakage = summary.getProbMinLeakage();
 			mainLog.println("Prob of Min Leakage: " + probMinLeakage);
 			
-			double probCompleteLeakage = leakageComputer.probCompleteLeakage();
-			mainLog.println("Prob of Complete Leakage: " + probCompleteLeakage + "\n");
+			if(interleak) {
+				double probCompleteLeakage = summary.getProbCompleteLeakage();
+				mainLog.println("Prob of Complete Leakage: " + probCompleteLeakage);
+			}
+			
+			printLeakageHistogram(summary);
+			if(interleak)
+				mainLog.println();
 		}
 		
 		return;
 	}
 	
+	/**
+	 * Helper function for printing the probabilities of leakage intervals between min and max leakage
+	 */
+	public void printLeakageHistogram(LeakageSummary summary) {
+		
+		double[] histogram = summary.getHistogram();
+		double width = (summary.getMaxLeakage() - summary.getMinLeakage()) / LeakageSummary.NUM_BINS;
+		
+		mainLog.println("Leakage Histogram:");
+		for(int b=0; b < histogram.length; b++) {
+			if(histogram[b] == 0)
+				continue;
+			double from = summary.getMinLeakage() + b*width;
+			if(width <= 0)
+				mainLog.println("  [" + from + "]: " + histogram[b]);
+			else if(b == histogram.length - 1) // the last bin includes max leakage
+				mainLog.println("  [" + from + ", " + summary.getMaxLeakage() + "]: " + histogram[b]);
+			else
+				mainLog.println("  [" + from + ", " + (from + width) + "): " + histogram[b]);
+		}
+	}
+	
+	/**
+	 * Compute leakage of many priors of the secret, one for each file of initDistFileNames (the uniform prior if there is none).
+	 * The channel Pr(T|h) of traces (interleak) or Pr(o|h) of outputs is computed once, by exploring the model 
+	 * using method of InterLeakComputerExp or FinalLeakComputerExp, or loaded from channelFileName if it is not null.
+	 * If saveChannelFileName is not null, the channel is saved to it.
+	 */
+	public void computeLeakChannel(boolean interleak, int method, boolean minmax, boolean entropyType, 
+			List<String> initDistFileNames, String channelFileName, String saveChannelFileName) throws PrismException {
+		
+		LeakChannel channel = getLeakChannel(interleak, method, entropyType, channelFileName, saveChannelFileName);
+		
+		if (initDistFileNames.isEmpty()) {
+			mainLog.println("\nUniform prior knowledge:");
+			printLeakage(channel.leakage(channel.uniformPrior(), entropyType), minmax, interleak, false, 0);
+		}
+		for (String initDistFileName : initDistFileNames) {
+			mainLog.println("\nPrior knowledge \"" + initDistFileName + "\":");
+			printLeakage(channel.leakage(channel.readPrior(initDistFileName), entropyType), minmax, interleak, false, 0);
+		}
+	}
+	
+	/**
+	 * Compute the maximum leakage over all priors of the secret (channel capacity) of the channel Pr(T|h) of traces (interleak) 
+	 * or Pr(o|h) of outputs, and a prior which attains it. For min-entropy, this is the capacity of multiplicative 
+	 * min-vulnerability leakage, which is an upper bound of the expected leakage of -min. 
+	 * The channel is computed as in computeLeakChannel(). 
+	 * If priorFileName is not null, the prior is saved to it in the format of -initdist files.
+	 */
+	public void computeChannelCapacity(boolean interleak, int method, boolean entropyType, 
+			String channelFileName, String saveChannelFileName, String priorFileName) throws PrismException {
+		
+		LeakChannel channel = getLeakChannel(interleak, method, entropyType, channelFileName, saveChannelFileName);
+		
+		mainLog.println("\n-----------Computing channel capacity----------------");
+		
+		ChannelCapacity capacity = new ChannelCapacity(channel, leakThreads);
+		if (entropyType == InterLeakComputerExp.MIN_ENTROPY) {
+			// the expected leakage of -min averages min-entropies of posteriors, so its maximum is not computed
+			capacity.computeMinEntropy();
+			mainLog.println("\nMultiplicative Min-vulnerability Capacity: " + capacity.getCapacity() + " bits");
+			mainLog.println("(an upper bound of the min-entropy expected leakage of every prior)");
+		}
+		else {
+			capacity.computeShannon(ChannelCapacity.DEFAULT_TOLERANCE, ChannelCapacity.DEFAULT_MAX_ITERATIONS);
+			mainLog.println("\nBlahut-Arimoto: " + capacity.getIterations() + " iterations, capacity is in [" 
+					+ capacity.getCapacity() + ", " + capacity.getUpperBound() + "] bits");
+			mainLog.println("\nShannon Channel Capacity: " + capacity.getCapacity() + " bits");
+		}
+		
+		String priorName = entropyType == InterLeakComputerExp.MIN_ENTROPY ? "Prior attaining the vulnerability capacity" : "Maximising prior";
+		if (priorFileName != null) {
+			capacity.writePrior(priorFileName);
+			mainLog.println(priorName + " saved to \"" + priorFileName + "\"");
+		}
+		else
+			mainLog.println(priorName + ": " + capacity.getPrior());
+	}
+	
+	/**
+	 * Estimate the expected leakage of traces (interleak) or outputs by sampling paths from the model description, 
+	 * without building the model. method is LeakSimulator.CI_METHOD, ACI_METHOD or APMC_METHOD and 1 - confidence is 
+	 * the confidence level. If width > 0, paths are sampled until the confidence interval is at most width wide on each side, 
+	 * otherwise numSamples paths are sampled.
+	 */
+	public void computeLeakSimulation(boolean interleak, boolean entropyType, String initDistFileName, int method, 
+			double confidence, double width, long numSamples, long maxPathLength) throws PrismException {
+		
+		if (currentModelType != ModelType.DTMC) {
+			throw new PrismNotSupportedException("Model type not yet supported");
+		}
+		
+		mainLog.println("\n-----------Estimating " + (interleak ? "intermediate" : "final") + " leakage by simulation----------------");
+		
+		long timer = System.currentTimeMillis();
+		LeakSimulator simulator = new LeakSimulator(currentModulesFile, currentDefinedMFConstants, this, interleak, 
+				entropyType, initDistFileName, leakThreads, maxPathLength);
+		simulator.simulate(method, confidence, width, numSamples);
+		timer = System.currentTimeMillis() - timer;
+		
+		mainLog.println("\nSampled " + simulator.getNumSamples() + " paths in " + timer / 1000.0 + " seconds: " 
+				+ simulator.getNumObservations() + (interleak ? " traces" : " outputs") + ", " 
+				+ simulator.getNumRejected() + " paths not counted (self-loop of a non-final state or maximum path length)");
+		
+		double initUncer = simulator.getInitialUncertainty();
+		double leakage = simulator.getExpectedLeakage();
+		mainLog.println("\nInitial Uncertainty (secret size): " + initUncer + " bits\n");
+		mainLog.println("Expected Leakage: " + leakage + " bits (" + leakage*100/initUncer + " %)");
+		mainLog.println("Confidence interval: " + leakage + " +/- " + simulator.getWidth() + " bits, with confidence " + (1 - confidence));
+	}
+	
+	/**
+	 * Compute leakage of traces (interleak) or outputs on the fly, while the states of the model are generated 
+	 * from its description, without building the model
+	 */
+	public void computeLeakOnTheFly(boolean interleak, boolean minmax, boolean entropyType, String initDistFileName) throws PrismException {
+		
+		if (currentModelType != ModelType.DTMC) {
+			throw new PrismNotSupportedException("Model type not yet supported");
+		}
+		if (currentModelGenerator == null) {
+			throw new PrismException("There is no currently loaded model to explore");
+		}
+		
+		mainLog.println("\n-----------Computing " + (interleak ? "intermediate" : "final") + " leakage on the fly----------------");
+		
+		// the exploration does not know whether the model has cycles, so it only stops at a cutoff which is given
+		double cutoff = leakCutoffGiven ? leakCutoff : 0;
+		long timer = System.currentTimeMillis();
+		LeakStreamExplorer explorer = new LeakStreamExplorer(currentModelGenerator, interleak, initDistFileName);
+		explorer.explore(cutoff, LeakStreamExplorer.DEFAULT_MAX_STEPS);
+		timer = System.currentTimeMillis() - timer;
+		
+		mainLog.println("\n" + explorer.getNumSteps() + " steps explored in " + timer / 1000.0 + " seconds: " 
+				+ explorer.getNumExplored() + " states generated, at most " + explorer.getMaxFrontier() + " frontier entries in a step");
+		if (explorer.getUnexploredMass() > 0)
+			mainLog.println("Exploration stopped at the cutoff: probability of unexplored paths is " + explorer.getUnexploredMass() 
+					+ " (cutoff " + cutoff + ")");
+		mainLog.println(explorer.getNumObservations() + (interleak ? " traces found" : " outputs found"));
+		
+		printLeakage(explorer.summary(entropyType), minmax, interleak, false, 0);
+	}
+	
+	/**
+	 * Helper function for computing the channel by exploring the model with the uniform prior, 
+	 * or loading it from channelFileName if it is not null, or from the leakage cache if the model is in it
+	 */
+	private LeakChannel getLeakChannel(boolean interleak, int method, boolean entropyType, 
+			String channelFileName, String saveChannelFileName) throws PrismException {
+		
+		LeakChannel channel = null;
+		
+		// the channel of the same model, constants, observability and reductions is loaded from the cache
+		LeakCache cache = null;
+		String key = null;
+		if (channelFileName == null && leakCacheDir != null) {
+			if (currentModelSource != ModelSource.PRISM_MODEL) {
+				throw new PrismException("The leakage cache needs a model read from a PRISM model file");
+			}
+			cache = new LeakCache(leakCacheDir);
+			key = LeakCache.key(currentModulesFile, currentDefinedMFConstants, currentModulesFile.createVarList(), interleak, leakCutoff,
+					partialOrderReduction, symmetryReduction);
+			channel = cache.load(key);
+		}
+		
+		mainLog.println();
+		if (channelFileName != null) {
+			mainLog.println("-----------Loading channel from \"" + channelFileName + "\"----------------");
+			channel = LeakChannel.read(channelFileName);
+		}
+		else if (channel != null) {
+			mainLog.println("-----------Loading channel from the cache \"" + cache.getFile(key) + "\"----------------");
+		}
+		else {
+			if (currentModelType != ModelType.DTMC) {
+				throw new PrismNotSupportedException("Model type not yet supported");
+			}
+			
+			// Build model
+			buildModelIfRequired();
+			
+			mainLog.println("-----------Computing channel----------------");
+			
+			// the channel is computed from the uniform prior
+			if (interleak) {
+				ProbModelTraceExplorer traceModel = InterLeakComputerExp.createExplorer(getLeakModel(), method, leakThreads, null);
+				traceModel.setMassCutoff(leakCutoff);
+				channel = new InterLeakComputerExp(traceModel, false, 0, entropyType, mainLog).getChannel();
+			}
+			else
+				channel = new FinalLeakComputerExp(this, getLeakModel(), method, leakThreads, 
+						false, 0, entropyType, null, mainLog).getChannel();
+			
+			if (cache != null) {
+				cache.store(key, channel);
+				mainLog.println("Channel cached in \"" + cache.getFile(key) + "\"");
+			}
+		}
+		mainLog.println("Channel of " + channel.getNumObservations() + " observations and " + channel.getNumSecrets() + " secrets");
+		
+		if (saveChannelFileName != null) {
+			channel.write(saveChannelFileName);
+			mainLog.println("Channel saved to \"" + saveChannelFileName + "\"");
+		}
+		
+		return channel;
+	}
+	
+	/**
+	 * Helper function for getting the explicit form of the current model used by the leak explorers. 
+	 * With the explicit engine, it is read from the explicit DTMC, so no MTBDD is built.
+	 */
+	private LeakModel getLeakModel() throws PrismException {
+		
+		buildModelIfRequired();
+		if (getExplicit())
+			return new LeakModel((explicit.DTMC) currentModelExpl, currentModelInfo.createVarList());
+		return new LeakModel((ProbModel) currentModel);
+	}
+	
 	/**
 	 * Print model info, including traces, secret frequencies and path probabilities
 	 */
@@ -4338,7 +4734,7 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 		
 		InterLeakComputerExp leakageComputer;
 		
-		leakageComputer = new InterLeakComputerExp((ProbModel) currentModel, 
+		leakageComputer = new InterLeakComputerExp(getLeakModel(), 
 					false, 0, InterLeakComputerExp.MIN_ENTROPY, null, mainLog);
 		leakageComputer.printModelInfo(modelFilename);
 	}
@@ -4383,7 +4779,7 @@ public class Prism extends PrismComponent implements PrismSettingsListener
 		mainLog.println();
 		mainLog.println("-----------Verifying observational determinism----------------");
 		
-		new ODChecker((ProbModel) currentModel, mainLog);
+		new ODChecker(getLeakModel(), mainLog);
 	}
 
 }
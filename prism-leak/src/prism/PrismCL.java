@@ -57,7 +57,9 @@ import simulator.method.CIwidth;
 import simulator.method.SPRTMethod;
 import simulator.method.SimulationMethod;
 
+import prismfinalleak.FinalLeakComputerExp;
 import prismintertrace.InterLeakComputerExp;
+import prismintertrace.LeakSimulator;
 
 // prism - command line version
 
@@ -76,6 +78,17 @@ public class PrismCL implements PrismModelListener
 	private boolean OD = false;
 	private boolean interleakbackbisim = false; // back-bisimulation method
 	private boolean interleakbackbisimVerbose = false; // verbose back-bisimulation method
+	private boolean finalleakabsorption = false; // final leakage using reachability probabilities of outputs
+	private boolean finalleaksymbolic = false; // final leakage computed on MTBDDs, without enumerating states
+	private List<String> initDistFileNames = new ArrayList<>(); // priors of the secret evaluated against one channel
+	private String channelFileName = null; // channel loaded instead of exploring the model
+	private String saveChannelFileName = null; // file the channel is saved to
+	private boolean capacity = false; // maximum leakage over all priors of the secret
+	private String capacityPriorFileName = null; // file the prior which attains capacity is saved to
+	private boolean simleak = false; // estimate leakage by sampling paths, without building the model
+	private boolean onthefly = false; // compute leakage while generating states, without building the model
+	private boolean leakcache = false; // channels of models cached on disk, and loaded when a model is analysed again
+	private String leakCacheDirName = null; // directory of the cache (null: next to the model file)
 	
 		
 	// flags
@@ -366,12 +379,93 @@ public class PrismCL implements PrismModelListener
 			// Do steady-state/transient probability computation, if required
 			doSteadyState();
 			
+			// estimate leakage by sampling paths of the model, which is not built
+			if ((finalleak || interleak) && simleak) {
+				
+				try {
+					if (interleakbounded)
+						throw new PrismException("Bounded time leakage is not supported by simulation");
+					// defaults of the simulation options, as for -sim
+					if (!simConfidenceGiven)
+						simConfidence = prism.getSettings().getDouble(PrismSettings.SIMULATOR_DEFAULT_CONFIDENCE);
+					if (!simNumSamplesGiven)
+						simNumSamples = prism.getSettings().getInteger(PrismSettings.SIMULATOR_DEFAULT_NUM_SAMPLES);
+					if (!simMaxPathGiven)
+						simMaxPath = prism.getSettings().getLong(PrismSettings.SIMULATOR_DEFAULT_MAX_PATH);
+					String name = simMethodName == null ? "aci" : simMethodName;
+					int method;
+					double width = 0; // 0: the number of samples is fixed
+					if (name.equals("ci") || name.equals("aci")) {
+						method = name.equals("ci") ? LeakSimulator.CI_METHOD : LeakSimulator.ACI_METHOD;
+						if (simWidthGiven && !simNumSamplesGiven)
+							width = simWidth;
+					}
+					else if (name.equals("apmc")) {
+						method = LeakSimulator.APMC_METHOD;
+						if (simApproxGiven && !simNumSamplesGiven)
+							width = simApprox;
+					}
+					else
+						throw new PrismException("Cannot use SPRT for leakage estimation; try ci, aci or apmc");
+					prism.computeLeakSimulation(interleak, entropyType, initDistFileName, method, simConfidence, width, 
+							simNumSamples, simMaxPath);
+				// in case of error, report it and proceed
+				} catch (PrismException e) {
+					error(e.getMessage());
+				}
+				
+			}
+			// compute leakage while generating the states of the model, which is not built
+			else if ((finalleak || interleak) && onthefly) {
+				
+				try {
+					if (interleakbounded)
+						throw new PrismException("Bounded time leakage is not supported on the fly");
+					prism.computeLeakOnTheFly(interleak, interleakminmax, entropyType, initDistFileName);
+				// in case of error, report it and proceed
+				} catch (PrismException e) {
+					error(e.getMessage());
+				}
+				
+			}
+			// compute leakage of many priors, or channel capacity, from the channel of the model, which is computed (or loaded) once
+			else if ((finalleak || interleak) && (capacity || !initDistFileNames.isEmpty() || channelFileName != null || saveChannelFileName != null || leakcache)) {
+				
+				try {
+					if (interleakbounded)
+						throw new PrismException("Bounded time leakage is not supported with a channel");
+					int method = interleak ? 
+							(interleakbackbisim ? InterLeakComputerExp.BACK_BISIMULATION_METHOD : InterLeakComputerExp.TRACE_BASED_METHOD) :
+							(finalleakabsorption ? FinalLeakComputerExp.ABSORPTION_METHOD : FinalLeakComputerExp.PATH_BASED_METHOD);
+					if (capacity)
+						prism.computeChannelCapacity(interleak, method, entropyType, channelFileName, saveChannelFileName, capacityPriorFileName);
+					else {
+						List<String> priors = new ArrayList<>(initDistFileNames);
+						if (initDistFileName != null)
+							priors.add(0, initDistFileName);
+						prism.computeLeakChannel(interleak, method, interleakminmax, entropyType, priors, channelFileName, saveChannelFileName);
+					}
+				// in case of error, report it and proceed
+				} catch (PrismException e) {
+					error(e.getMessage());
+				}
+				
+			}
 			// compute final leakage using explicit model checking
-			if (finalleak) {
+			else if (finalleak) {
 				
 				try {
-					prism.computeFinalLeakExp(interleakminmax, interleakbounded, interleakboundedstep, 
-			        		entropyType, initDistFileName);
+					if (finalleaksymbolic) { // use MTBDDs of the symbolic engines
+						if (interleakbounded)
+							throw new PrismException("Bounded time leakage is not supported symbolically");
+						prism.computeFinalLeakSymbolic(interleakminmax, entropyType, initDistFileName);
+					}
+					else if (finalleakabsorption) // use reachability probabilities of outputs
+						prism.computeFinalLeakAbsorption(interleakminmax, interleakbounded, interleakboundedstep, 
+				        		entropyType, initDistFileName);
+					else
+						prism.computeFinalLeakExp(interleakminmax, interleakbounded, interleakboundedstep, 
+				        		entropyType, initDistFileName);
 				// in case of error, report it and proceed
 				} catch (PrismException e) {
 					error(e.getMessage());
@@ -380,9 +474,15 @@ public class PrismCL implements PrismModelListener
 			}
 						
 			// compute intermediate leakage using explicit model checking
-			if (interleak) {
+			else if (interleak) {
 				if (interleakbackbisim) { // use back-bisimulation method
-					
+					try {
+						prism.computeInterLeakBackBisim(interleakminmax, interleakbounded, interleakboundedstep, 
+				        		entropyType, initDistFileName);
+					// in case of error, report it and proceed
+					} catch (PrismException e) {
+						error(e.getMessage());
+					}
 				}
 				else { // use trace-bases method 
 					try {
@@ -537,7 +637,7 @@ public class PrismCL implements PrismModelListener
 			}
 
 			// Explicitly request a build if necessary
-			if (propertiesToCheck.size() == 0 && !steadystate && !dotransient && !simpath && !nobuild && prism.modelCanBeBuilt() && !prism.modelIsBuilt()) {
+			if (propertiesToCheck.size() == 0 && !steadystate && !dotransient && !simpath && !simleak && !onthefly && !leakcache && !nobuild && prism.modelCanBeBuilt() && !prism.modelIsBuilt()) {
 				try {
 					prism.buildModel();
 				} catch (PrismException e) {
@@ -1270,14 +1370,32 @@ public class PrismCL implements PrismModelListener
 				}
 				// intermediate leakage computation using trace-based method
 				else if (sw.equals("trace")) {	
+					interleak = true;
 					interleakbackbisim = false;
 					finalleak = false;
 				}
 				// intermediate leakage computation using back-bisimulation method
-				else if (sw.equals("back")) {	
+				else if (sw.equals("back") || sw.equals("backbisim")) {	
+					interleak = true;
 					interleakbackbisim = true;
 					finalleak = false;
 				}
+				// final leakage computation using reachability probabilities of outputs
+				else if (sw.equals("absorb")) {	
+					finalleakabsorption = true;
+				}
+				// final leakage computation on MTBDDs
+				else if (sw.equals("symbolic")) {	
+					finalleaksymbolic = true;
+				}
+				// partial-order reduction of the model, which is built explicitly
+				else if (sw.equals("por")) {	
+					prism.setPartialOrderReduction(true);
+				}
+				// symmetry reduction of the model, which is built explicitly
+				else if (sw.equals("leaksymm")) {	
+					prism.setSymmetryReduction(true);
+				}
 				// min-entropy leakage
 				else if (sw.equals("min")) {
 					entropyType = InterLeakComputerExp.MIN_ENTROPY;			
@@ -1305,6 +1423,54 @@ public class PrismCL implements PrismModelListener
 					}	
 					
 				}
+				// number of worker threads for leakage computation
+				else if (sw.equals("leakthreads")) {
+					if (i < args.length - 1) {
+						try {
+							prism.setLeakThreads(Integer.parseInt(args[++i]));
+						} 
+						catch (NumberFormatException nfe) {
+							errorAndExit("Invalid value for -" + sw + " switch");
+						}
+						catch (PrismException e) {
+							errorAndExit(e.getMessage());
+						}
+					} else {
+						errorAndExit("No value specified for -" + sw + " switch");
+					}
+				}
+				// cutoff of the probability of unexplored paths, for models with cycles
+				else if (sw.equals("leakcutoff")) {
+					if (i < args.length - 1) {
+						try {
+							prism.setLeakCutoff(Double.parseDouble(args[++i]));
+						} 
+						catch (NumberFormatException nfe) {
+							errorAndExit("Invalid value for -" + sw + " switch");
+						}
+						catch (PrismException e) {
+							errorAndExit(e.getMessage());
+						}
+					} else {
+						errorAndExit("No value specified for -" + sw + " switch");
+					}
+				}
+				// heap memory (MB) for trace-secret probabilities, which are spilled to disk beyond it
+				else if (sw.equals("leakmem")) {
+					if (i < args.length - 1) {
+						try {
+							prism.setLeakMemory(Long.parseLong(args[++i]));
+						} 
+						catch (NumberFormatException nfe) {
+							errorAndExit("Invalid value for -" + sw + " switch");
+						}
+						catch (PrismException e) {
+							errorAndExit(e.getMessage());
+						}
+					} else {
+						errorAndExit("No value specified for -" + sw + " switch");
+					}
+				}
 				// import initial distribution of the secret from file initDistFileName
 				else if (sw.equals("initdist")) {	
 					if (i < args.length - 1) {
@@ -1314,6 +1480,64 @@ public class PrismCL implements PrismModelListener
 						errorAndExit("No file specified for -initdist");
 					}	
 				}
+				// import many initial distributions of the secret, which are evaluated against one channel
+				else if (sw.equals("initdists")) {	
+					if (i < args.length - 1) {
+						for (String fileName : args[++i].split(","))
+							initDistFileNames.add(fileName.trim());
+					} else {
+						errorAndExit("No files specified for -initdists");
+					}	
+				}
+				// load the channel of the model from a file, instead of exploring the model
+				else if (sw.equals("loadchannel")) {	
+					if (i < args.length - 1) {
+						channelFileName = args[++i];
+					} else {
+						errorAndExit("No file specified for -loadchannel");
+					}	
+				}
+				// cache the channel of the model on disk, next to the model file
+				else if (sw.equals("leakcache")) {	
+					leakcache = true;
+				}
+				// cache the channel of the model on disk, in a given directory
+				else if (sw.equals("leakcachedir")) {	
+					if (i < args.length - 1) {
+						leakcache = true;
+						leakCacheDirName = args[++i];
+					} else {
+						errorAndExit("No directory specified for -leakcachedir");
+					}	
+				}
+				// save the channel of the model to a file
+				else if (sw.equals("savechannel")) {	
+					if (i < args.length - 1) {
+						saveChannelFileName = args[++i];
+					} else {
+						errorAndExit("No file specified for -savechannel");
+					}	
+				}
+				// channel capacity: maximum leakage over all priors of the secret
+				else if (sw.equals("capacity")) {	
+					capacity = true;
+				}
+				// save the prior which attains channel capacity to a file
+				else if (sw.equals("saveprior")) {	
+					if (i < args.length - 1) {
+						capacityPriorFileName = args[++i];
+					} else {
+						errorAndExit("No file specified for -saveprior");
+					}	
+				}
+				// estimate leakage by simulation, with the options of -sim
+				else if (sw.equals("simleak")) {	
+					simleak = true;
+				}
+				// compute leakage on the fly, without building the model
+				else if (sw.equals("onthefly")) {	
+					onthefly = true;
+				}
 				// print PRISM-Leak help
 				else if (sw.equals("help") || sw.equals("h") || sw.equals("?")) {
 					if (i < args.length - 1) {
@@ -2294,6 +2518,16 @@ public class PrismCL implements PrismModelListener
 			}
 		}
 
+		// partial-order reduction changes the number of steps of paths, which intermediate leakage counts
+		if (prism.getPartialOrderReduction() && interleak) {
+			errorAndExit("Partial-order reduction preserves stutter-free traces only, so it cannot be used for intermediate leakage");
+		}
+
+		// the leakage cache is next to the model file, unless a directory is given
+		if (leakcache) {
+			prism.setLeakCacheDir(new File(leakCacheDirName != null ? leakCacheDirName : modelFilename + ".leakcache"));
+		}
+
 		// explicit overrides explicit build
 		if (prism.getExplicit()) {
 			explicitbuild = false;
@@ -2754,11 +2988,29 @@ public class PrismCL implements PrismModelListener
 		mainLog.println("Options:");
 		mainLog.println("========");
 		mainLog.println();
+		mainLog.println("-interleak ..................... Compute intermediate leakage using the trace-based method. The default is final leakage");
+		mainLog.println("-back | -backbisim ............. Compute intermediate leakage using the back-bisimulation method");
+		mainLog.println("-absorb ........................ Compute final leakage from reachability probabilities of outputs, instead of enumerating paths");
+		mainLog.println("-symbolic ...................... Compute final leakage on MTBDDs with the MTBDD, hybrid or sparse engine, without enumerating the states of the model");
+		mainLog.println("-por ........................... Build the model with partial-order reduction of invisible interleavings (explicit engine), for final leakage and OD");
+		mainLog.println("-leaksymm ...................... Build the model with symmetry reduction of renamed copies of modules (explicit engine)");
 		mainLog.println("-shannon ....................... Compute the expected leakage using Shannon entropy. The default is Shannon entropy");
 		mainLog.println("-min ........................... Compute the expected leakage using min-entropy");
 		mainLog.println("-leakbounds .................... Compute maximum and minimum leakages, which are upper and lower leakage bounds");
 		mainLog.println("-bounded <n> ................... Compute bounded time leakage, which is the amount of expected leakage at a given time (step)");
+		mainLog.println("-leakthreads <n> ............... Use n worker threads for exploring traces and outputs. The default is 1");
+		mainLog.println("-leakcutoff <p> ................ Stop exploring traces of a model with cycles when unexplored paths have probability at most p. The default is 1e-6, except with -onthefly, which explores all paths unless p is given");
+		mainLog.println("-leakmem <mb> .................. Keep at most mb megabytes of trace probabilities in memory, and spill the others to disk (trace-based intermediate leakage)");
 		mainLog.println("-initdist <file> ........... Specify the initial probability distribution of the secret input. If not specified, the uniform distribution is assumed");
+		mainLog.println("-initdists <files> ............. Compute leakage of each initial distribution of a comma-separated list of files, exploring the model once");
+		mainLog.println("-savechannel <file> ............ Save the channel Pr(o|h) of the model, which does not depend on the initial distribution, to a file");
+		mainLog.println("-loadchannel <file> ............ Compute leakage from a channel saved by -savechannel, instead of exploring the model");
+		mainLog.println("-leakcache ..................... Cache the channel of the model in a directory next to the model file, and load it when the model is analysed again with the same constants");
+		mainLog.println("-leakcachedir <dir> ............ Cache the channel of the model in directory dir, as for -leakcache");
+		mainLog.println("-capacity ...................... Compute channel capacity, which is the maximum leakage over all initial distributions of the secret (with -min: multiplicative min-vulnerability capacity, an upper bound of -min leakage)");
+		mainLog.println("-saveprior <file> .............. Save the initial distribution which attains the capacity of -capacity to a file, in the format of -initdist");
+		mainLog.println("-simleak ....................... Estimate the expected leakage by sampling paths, without building the model. Uses -simmethod (ci, aci, apmc), -simsamples, -simconf, -simwidth, -simapprox and -simpathlen");
+		mainLog.println("-onthefly ...................... Compute leakage while generating the states of the model, without building it. Memory depends on the width of the model, not its size. Exact, unless -leakcutoff is given");
 		mainLog.println("-help | -h | -? ................ Display this help message");
 		mainLog.println("-prismhelp ..................... Display PRISM help message");
 		mainLog.println("-version ....................... Display PRISM-InterLeak and PRISM version info");
@@ -0,0 +1,371 @@
+package prism;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import explicit.ConstructModel;
+import explicit.DTMC;
+import parser.Values;
+import parser.VarList;
+import parser.ast.ModulesFile;
+import prismfinalleak.FinalLeakComputerExp;
+import prismintertrace.InterLeakComputerExp;
+import prismintertrace.LeakCache;
+import prismintertrace.LeakModel;
+import prismintertrace.LeakageSummary;
+import prismintertrace.ProbModelTraceExplorer;
+import prismod.ODChecker;
+import simulator.ModulesFileModelGenerator;
+
+/**
+*
+*	A resident server for leakage analysis, so that the start-up of the JVM and of PRISM is paid once for many models.
+*	Clients connect to a local TCP port and send requests, one per line, in the syntax of the command line:
+*	a model file and the options -interleak, -back, -absorb, -od, -min, -shannon, -leakbounds, -initdist <file>,
+*	-const <vals> and -leakcutoff <p>. The answer to each request is one line of JSON with all leakage metrics
+*	(or the results of OD), and an empty line closes the connection. Relative file names are resolved against the
+*	working directory of the server.
+*	Models are built with the explicit engine, so requests use no MTBDDs and are served concurrently by a pool of
+*	worker threads, one connection per worker. The explicit forms of the most recently used models are kept, keyed by
+*	the model description, constants and observability declarations as in LeakCache, so a model analysed again with
+*	other options or priors is not built again.
+*
+* @author Ali A. Noroozi
+*/
+
+public class PrismLeakServer {
+
+	public static final int DEFAULT_PORT = 7790;
+	public static final int DEFAULT_NUM_MODELS = 32; // models kept by the server
+
+	private final Prism prism; // settings of model construction and numerical solution, shared by all requests
+	private final PrismLog mainLog; // log of the server, one line per request
+
+	// explicit forms of the most recently used models, in access order; a model is built by the first request for it
+	private final Map<String, Future<LeakModel>> models;
+
+	public PrismLeakServer(Prism prism, int numModels, PrismLog mainLog) {
+
+		this.prism = prism;
+		this.mainLog = mainLog;
+		this.models = new LinkedHashMap<String, Future<LeakModel>>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Future<LeakModel>> eldest) {
+				return size() > numModels;
+			}
+		};
+	}
+
+	/**
+	 * Accept connections on port of the loopback interface, and serve them with numThreads worker threads
+	 *
+	 */
+	public void serve(int port, int numThreads) throws IOException {
+
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			log("Leakage server listening on port " + server.getLocalPort() + " with " + numThreads + " worker threads");
+			while (true) {
+				Socket socket = server.accept();
+				pool.execute(() -> serveConnection(socket));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Answer the requests of a connection until it sends an empty line or is closed
+	 *
+	 */
+	private void serveConnection(Socket socket) {
+
+		try (Socket s = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+				PrintWriter out = new PrintWriter(s.getOutputStream(), true)) {
+			String line;
+			while ((line = in.readLine()) != null && !line.trim().isEmpty())
+				out.println(answer(line));
+		} catch (IOException e) {
+			// the client has closed the connection
+		}
+	}
+
+	/**
+	 *
+	 * @return answer to request, as one line of JSON
+	 */
+	public String answer(String request) {
+
+		long timer = System.currentTimeMillis();
+		Json json = new Json();
+		try {
+			Request r = new Request(request.trim().split("\\s+"));
+			json.add("status", "ok").add("model", r.modelFileName);
+
+			ModulesFile modulesFile = prism.parseModelFile(new File(r.modelFileName));
+			if (modulesFile.getModelType() != ModelType.DTMC)
+				throw new PrismNotSupportedException("Model type not yet supported");
+			UndefinedConstants undefinedConstants = new UndefinedConstants(modulesFile, null);
+			undefinedConstants.defineUsingConstSwitch(r.constSwitch);
+			if (undefinedConstants.getNumModelIterations() > 1)
+				throw new PrismException("Ranges of constants are not supported by the leakage server");
+			Values constants = undefinedConstants.getMFConstantValues();
+			ModulesFileModelGenerator generator = new ModulesFileModelGenerator(modulesFile, prism);
+			generator.setSomeUndefinedConstants(constants);
+			VarList varList = generator.createVarList();
+
+			LeakModel leakModel = getLeakModel(LeakCache.modelKey(modulesFile, constants, varList), generator, varList, json);
+			json.add("states", leakModel.getStates().getNumStates());
+
+			PrismLog log = new PrismDevNullLog();
+			if (r.od) {
+				ODChecker checker = new ODChecker(leakModel, log);
+				json.add("condition2", checker.getCondition2()).add("condition1", checker.getCondition1());
+			}
+			else {
+				LeakageSummary summary;
+				if (r.interleak) {
+					int method = r.back ? InterLeakComputerExp.BACK_BISIMULATION_METHOD : InterLeakComputerExp.TRACE_BASED_METHOD;
+					ProbModelTraceExplorer traceModel = InterLeakComputerExp.createExplorer(leakModel, method, 1, r.initDistFileName);
+					traceModel.setMassCutoff(r.massCutoff);
+					summary = new InterLeakComputerExp(traceModel, false, 0, r.entropyType, log).summary();
+				}
+				else
+					summary = new FinalLeakComputerExp(prism, leakModel, r.absorb ? FinalLeakComputerExp.ABSORPTION_METHOD
+							: FinalLeakComputerExp.PATH_BASED_METHOD, 1, false, 0, r.entropyType,
+							r.initDistFileName, log).summary();
+				json.add("entropy", r.entropyType == InterLeakComputerExp.MIN_ENTROPY ? "min" : "shannon");
+				json.add("observations", summary.getNumObservations());
+				json.add("initialUncertainty", summary.getInitialUncertainty());
+				json.add("expectedLeakage", summary.getExpectedLeakage());
+				json.add("maxLeakage", summary.getMaxLeakage()).add("probMaxLeakage", summary.getProbMaxLeakage());
+				json.add("minLeakage", summary.getMinLeakage()).add("probMinLeakage", summary.getProbMinLeakage());
+				if (r.interleak)
+					json.add("probCompleteLeakage", summary.getProbCompleteLeakage());
+			}
+		} catch (PrismException | FileNotFoundException e) {
+			json = new Json().add("status", "error").add("message", e.getMessage());
+		} catch (RuntimeException e) {
+			// an error of one request does not stop the server
+			json = new Json().add("status", "error").add("message", e.toString());
+		}
+		timer = System.currentTimeMillis() - timer;
+		json.add("time", timer / 1000.0);
+		log(request.trim() + ": " + timer / 1000.0 + " seconds");
+		return json.toString();
+	}
+
+	/**
+	 * Get the model of key from the models kept, or build it with generator if it is not there.
+	 * Concurrent requests of a model which is not there wait for a single build.
+	 *
+	 */
+	private LeakModel getLeakModel(String key, ModulesFileModelGenerator generator, VarList varList, Json json) throws PrismException {
+
+		FutureTask<LeakModel> build = null;
+		Future<LeakModel> model;
+		synchronized (models) {
+			model = models.get(key);
+			if (model == null) {
+				build = new FutureTask<>(() -> {
+					ConstructModel constructModel = new ConstructModel(prism);
+					constructModel.setFixDeadlocks(prism.getFixDeadlocks());
+					return new LeakModel((DTMC) constructModel.constructModel(generator), varList);
+				});
+				models.put(key, build);
+				model = build;
+			}
+		}
+		json.add("reused", build == null);
+		if (build != null)
+			build.run();
+
+		try {
+			return model.get();
+		} catch (InterruptedException e) {
+			throw new PrismException("Interrupted while building the model");
+		} catch (ExecutionException e) {
+			// a model which cannot be built is not kept
+			synchronized (models) {
+				models.remove(key, model);
+			}
+			if (e.getCause() instanceof PrismException)
+				throw (PrismException) e.getCause();
+			throw new PrismException(e.getCause().toString());
+		}
+	}
+
+	private void log(String message) {
+
+		synchronized (mainLog) {
+			mainLog.println(message);
+			mainLog.flush();
+		}
+	}
+
+	/**
+	 * Options of a request, in the syntax of the command line
+	 */
+	private final class Request {
+
+		String modelFileName = null;
+		String constSwitch = "";
+		String initDistFileName = null;
+		boolean interleak = false, back = false, absorb = false, od = false;
+		boolean entropyType = InterLeakComputerExp.SHANNON_ENTROPY;
+		double massCutoff = prism.getLeakCutoff();
+
+		Request(String[] args) throws PrismException {
+
+			for (int i = 0; i < args.length; i++) {
+				String sw = args[i];
+				if (!sw.startsWith("-")) {
+					if (modelFileName != null)
+						throw new PrismException("More than one model file in the request");
+					modelFileName = sw;
+					continue;
+				}
+				sw = sw.substring(1);
+				if (sw.equals("interleak"))
+					interleak = true;
+				else if (sw.equals("back") || sw.equals("backbisim"))
+					interleak = back = true;
+				else if (sw.equals("absorb"))
+					absorb = true;
+				else if (sw.equals("od"))
+					od = true;
+				else if (sw.equals("min"))
+					entropyType = InterLeakComputerExp.MIN_ENTROPY;
+				else if (sw.equals("shannon"))
+					entropyType = InterLeakComputerExp.SHANNON_ENTROPY;
+				else if (sw.equals("leakbounds")) {
+					// all metrics are answered
+				}
+				else if (sw.equals("initdist") || sw.equals("const") || sw.equals("leakcutoff")) {
+					if (i == args.length - 1)
+						throw new PrismException("No value specified for -" + sw + " switch");
+					String value = args[++i];
+					if (sw.equals("initdist"))
+						initDistFileName = value;
+					else if (sw.equals("const"))
+						constSwitch = value;
+					else {
+						try {
+							massCutoff = Double.parseDouble(value);
+						} catch (NumberFormatException e) {
+							throw new PrismException("Invalid value for -" + sw + " switch");
+						}
+						if (massCutoff <= 0 || massCutoff >= 1)
+							throw new PrismException("Leakage cutoff should be between 0 and 1");
+					}
+				}
+				else
+					throw new PrismException("Invalid switch -" + sw + " for the leakage server");
+			}
+			if (modelFileName == null)
+				throw new PrismException("No model file in the request");
+		}
+	}
+
+	/**
+	 * A JSON object, built field by field
+	 */
+	private static final class Json {
+
+		private final StringBuilder fields = new StringBuilder();
+
+		Json add(String name, Object value) {
+
+			if (fields.length() > 0)
+				fields.append(',');
+			fields.append('"').append(name).append("\":");
+			if (value == null || value instanceof Boolean || value instanceof Integer || value instanceof Long)
+				fields.append(value);
+			else if (value instanceof Double)
+				// JSON has no infinity or NaN
+				fields.append(Double.isFinite((Double) value) ? value.toString() : "null");
+			else {
+				fields.append('"');
+				for (char c : value.toString().toCharArray()) {
+					if (c == '"' || c == '\\')
+						fields.append('\\').append(c);
+					else if (c < ' ')
+						fields.append(String.format("\\u%04x", (int) c));
+					else
+						fields.append(c);
+				}
+				fields.append('"');
+			}
+			return this;
+		}
+
+		@Override
+		public String toString() {
+
+			return "{" + fields + "}";
+		}
+	}
+
+	/**
+	 * Start a server: PrismLeakServer [-port n] [-threads n] [-models n]
+	 *
+	 */
+	public static void main(String[] args) {
+
+		PrismLog mainLog = new PrismFileLog("stdout");
+		int port = DEFAULT_PORT;
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		int numModels = DEFAULT_NUM_MODELS;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (i == args.length - 1 || !(args[i].equals("-port") || args[i].equals("-threads") || args[i].equals("-models")))
+					throw new PrismException("Usage: PrismLeakServer [-port <n>] [-threads <n>] [-models <n>]");
+				int value;
+				try {
+					value = Integer.parseInt(args[i + 1]);
+				} catch (NumberFormatException e) {
+					throw new PrismException("Invalid value for " + args[i] + " switch");
+				}
+				if (value < (args[i].equals("-port") ? 0 : 1))
+					throw new PrismException("Invalid value for " + args[i] + " switch");
+				if (args[i].equals("-port"))
+					port = value;
+				else if (args[i].equals("-threads"))
+					numThreads = value;
+				else
+					numModels = value;
+				i++;
+			}
+
+			// models are built with the explicit engine, and the output of PRISM is not shown
+			Prism prism = new Prism(new PrismDevNullLog());
+			prism.setEngine(Prism.EXPLICIT);
+			prism.initialise();
+			new PrismLeakServer(prism, numModels, mainLog).serve(port, numThreads);
+		} catch (PrismException | IOException e) {
+			mainLog.println("Error: " + e.getMessage());
+			mainLog.flush();
+			System.exit(1);
+		}
+	}
+
+}
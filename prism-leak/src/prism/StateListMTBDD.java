@@ -35,8 +35,7 @@ import parser.Values;
 import parser.VarList;
 import parser.type.*;
 
-import parser.ast.Declaration;
-import prismintertrace.ExplicitState;
+import prismintertrace.StateTable;
 
 /**
  * Stores a list of states as a BDD (or as a 0-1 MTBDD).
@@ -431,86 +430,56 @@ public class StateListMTBDD implements StateList
 	// PRISM-Leak methods
 	//----------------------------------------------------------------------------------------------
 	
-	public List<ExplicitState> getExplicitStates(){
-		
-		int i;
-		for (i = 0; i < varList.getNumVars(); i++) {
+	/**
+	 * Build a columnar table of the states of this list, indexed by state number (ODD index).
+	 * This should be the list of all reachable states, so that state numbers are 0, ..., size-1.
+	 */
+	public StateTable getStateTable()
+	{
+		StateTable table = new StateTable(varList, (int) size);
+		visitStates((n, values) -> table.setState(n, values));
+		return table;
+	}
+	
+	/**
+	 * Get the numbers (ODD indices) of the states of this list, in increasing order
+	 */
+	public int[] getStateIndices()
+	{
+		int[] indices = new int[(int) size];
+		int[] count = new int[1];
+		visitStates((n, values) -> indices[count[0]++] = n);
+		return indices;
+	}
+	
+	// called for each state of the list, with its number and the (encoded) values of its variables
+	private interface StateVisitor
+	{
+		void visit(int n, int[] varValues);
+	}
+	
+	private void visitStates(StateVisitor visitor)
+	{
+		for (int i = 0; i < varList.getNumVars(); i++) {
 			varValues[i] = 0;
 		}
 		currentVar = 0;
 		currentVarLevel = 0;
-
-		List<ExplicitState> stateList = new ArrayList<>();
-		Map<String, List<ExplicitState>> outputs = new TreeMap<String, List<ExplicitState>>();
-		getExplicitStatesRec(states, 0, odd, 0, stateList, outputs);
 		
-		return stateList;
+		visitStatesRec(states, 0, odd, 0, visitor);
 	}
 	
-	private void getExplicitStatesRec(JDDNode dd, int level, ODDNode o, long n,
-			List<ExplicitState> stateList, Map<String, List<ExplicitState>> outputs)
+	private void visitStatesRec(JDDNode dd, int level, ODDNode o, long n, StateVisitor visitor)
 	{
 		JDDNode e, t;
-		String publicVarsString, secretVarsString;
-		int j, i, observabilityType;
 		
 		// zero constant - bottom out of recursion
 		if (dd.equals(JDD.ZERO)) return;
 		
 		// base case - at bottom (nonzero terminal)
 		if (level == numVars) {
-			
-			// n: state index
-			j = varList.getNumVars();
-			publicVarsString = "";
-			secretVarsString = "";
-			
-			for (i = 0; i < j; i++) {
-				
-				observabilityType = varList.getDeclaration(i).getObservabilityType();
-				
-				if(observabilityType == Declaration.OBSERVABILITY_OBSERVABLE) {
-					// integer variable
-					if (varList.getType(i) instanceof TypeInt) {
-						publicVarsString += varValues[i]+varList.getLow(i);
-					}
-					// boolean variable
-					else {
-						publicVarsString += (varValues[i] == 1);
-					}
-					publicVarsString += "-";
-				}
-				
-				if(observabilityType == Declaration.OBSERVABILITY_SECERT) {
-					// integer variable
-					if (varList.getType(i) instanceof TypeInt) {
-						secretVarsString += varValues[i]+varList.getLow(i);
-					}
-					// boolean variable
-					else {
-						secretVarsString += (varValues[i] == 1);
-					}
-					secretVarsString += "-";
-				}
-			}
-			
-			// remove "-" from end of publicVarsString and secretVarsString
-			publicVarsString = publicVarsString.substring(0, publicVarsString.length()-1);
-			secretVarsString = secretVarsString.substring(0, secretVarsString.length()-1);
-			
-			ExplicitState state = new ExplicitState(n, publicVarsString, secretVarsString);
-            stateList.add(state);
-            if(!outputs.containsKey(publicVarsString)) {
-            	List<ExplicitState> l = new ArrayList<ExplicitState>();
-            	l.add(state);
-            	outputs.put(publicVarsString, l);
-            }
-            else {
-            	List<ExplicitState> l = outputs.get(publicVarsString);
-            	l.add(state);
-            }
-            
-            return;
+			visitor.visit((int) n, varValues);
+			return;
 		}
 		// select else and then branches
 		else if (dd.getIndex() > vars.getVarIndex(level)) {
@@ -523,11 +492,11 @@ public class StateListMTBDD implements StateList
 			
 		// then recurse...
 		currentVarLevel++; if (currentVarLevel == varSizes[currentVar]) { currentVar++; currentVarLevel=0; }
-		getExplicitStatesRec(e, level+1, o.getElse(), n, stateList, outputs);
+		visitStatesRec(e, level+1, o.getElse(), n, visitor);
 		currentVarLevel--; if (currentVarLevel == -1) { currentVar--; currentVarLevel=varSizes[currentVar]-1; }
 		varValues[currentVar] += (1 << (varSizes[currentVar]-1-currentVarLevel));
 		currentVarLevel++; if (currentVarLevel == varSizes[currentVar]) { currentVar++; currentVarLevel=0; }
-		getExplicitStatesRec(t, level+1, o.getThen(), n+o.getEOff(), stateList, outputs);
+		visitStatesRec(t, level+1, o.getThen(), n+o.getEOff(), visitor);
 		currentVarLevel--; if (currentVarLevel == -1) { currentVar--; currentVarLevel=varSizes[currentVar]-1; }
 		varValues[currentVar] -= (1 << (varSizes[currentVar]-1-currentVarLevel));
 	}
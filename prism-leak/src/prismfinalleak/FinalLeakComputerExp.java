@@ -7,10 +7,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import prism.PrismComponent;
 import prism.PrismException;
 import prism.PrismLog;
-import prism.ProbModel;
 import prismintertrace.InterLeakComputerExp;
+import prismintertrace.LeakModel;
+import prismintertrace.LeakChannel;
+import prismintertrace.LeakageSummary;
 
 /**
  * A class for computing final leakage
@@ -20,7 +23,7 @@ import prismintertrace.InterLeakComputerExp;
 
 public class FinalLeakComputerExp {
 	ProbModelOutputExplorer expModel;
-	ProbModel probModel;
+	LeakModel leakModel;
 	
 	// logs
 	private PrismLog mainLog = null;
@@ -28,21 +31,52 @@ public class FinalLeakComputerExp {
 	public static boolean MIN_ENTROPY = false;
 	public static boolean SHANNON_ENTROPY = true;
 	private boolean entropyType = SHANNON_ENTROPY; 
+	
+	public static int PATH_BASED_METHOD = 0; // enumerate the paths of the model
+	public static int ABSORPTION_METHOD = 1; // compute reachability probabilities of final states
 		
 	private Map<String, Map<String, Double>> secretOutCondProbs; // the distribution Pr(h|o) 
     private Map<String, Double> outProbs; // output probabilities Pr(o)
+    private LeakageSummary summary; // leakage metrics of the outputs, null until computed
+    
     
+    public FinalLeakComputerExp(LeakModel leakModel, boolean bounded, int boundedStep, 
+            boolean entropyType, String initDistFileName, PrismLog mainLog) throws PrismException {
+        
+        this(leakModel, 1, bounded, boundedStep, entropyType, initDistFileName, mainLog);
+    }
     
-    public FinalLeakComputerExp(ProbModel probModel, boolean bounded, int boundedStep, 
+    /**
+     * numThreads is the number of worker threads exploring outputs (1: sequential exploration)
+     */
+    public FinalLeakComputerExp(LeakModel leakModel, int numThreads, boolean bounded, int boundedStep, 
+            boolean entropyType, String initDistFileName, PrismLog mainLog) throws PrismException {
+        
+        this(null, leakModel, PATH_BASED_METHOD, numThreads, bounded, boundedStep, entropyType, initDistFileName, mainLog);
+    }
+    
+    /**
+     * method is either PATH_BASED_METHOD or ABSORPTION_METHOD. 
+     * parent provides the settings of the numerical solution of ABSORPTION_METHOD.
+     */
+    public FinalLeakComputerExp(PrismComponent parent, LeakModel leakModel, int method, int numThreads, boolean bounded, int boundedStep, 
             boolean entropyType, String initDistFileName, PrismLog mainLog) throws PrismException {
         
         this.entropyType = entropyType;
         this.mainLog = mainLog;
         
-        if(!bounded)
-            mainLog.println("\nExploring outputs ...\n");
-        // explore outputs and compute output-secret probabilities 
-        expModel = new ProbModelOutputExplorer(probModel, initDistFileName);
+        if (method == ABSORPTION_METHOD) {
+            if(!bounded)
+                mainLog.println("\nComputing reachability probabilities of outputs ...\n");
+            // compute output-secret probabilities from reachability probabilities of final states
+            expModel = new ProbModelAbsorptionExplorer(parent, leakModel, initDistFileName);
+        }
+        else {
+            if(!bounded)
+                mainLog.println("\nExploring outputs ...\n");
+            // explore outputs and compute output-secret probabilities 
+            expModel = new ProbModelOutputExplorer(leakModel, initDistFileName, numThreads);
+        }
         expModel.exploreModel(bounded, boundedStep);
         
         computeSecretOutCondProbs();
@@ -52,17 +86,62 @@ public class FinalLeakComputerExp {
         
     }
     
+    private FinalLeakComputerExp(boolean entropyType, PrismLog mainLog) {
+        
+        this.entropyType = entropyType;
+        this.mainLog = mainLog;
+    }
+    
     /**
+     * Compute bounded leakage of all times t = 0, ..., numSteps-1 in a single pass, 
+     * which extends the distribution of time t to time t+1. Leakage of time t is computed after setTime(t).
+     * The pass is sequential and does not enumerate paths, so it is the same for all methods and numbers of threads.
+     * 
+     * @return the leakage computer of the outputs of all times
+     */
+    public static FinalLeakComputerExp exploreAllSteps(LeakModel leakModel, String initDistFileName, int numSteps, 
+            boolean entropyType, PrismLog mainLog) throws PrismException {
+        
+        FinalLeakComputerExp computer = new FinalLeakComputerExp(entropyType, mainLog);
+        computer.expModel = new ProbModelOutputExplorer(leakModel, initDistFileName);
+        computer.expModel.exploreModelSteps(numSteps);
+        return computer;
+    }
+    
+    /**
+     * Compute leakage of time t, after the constructor for all times
+     * 
+     */
+    public void setTime(int t) {
+        
+        // copy Pr(o,h) of time t, since computeSecretOutCondProbs() turns it into Pr(h|o) in place
+        Map<String, Map<String, Double>> outSecretDist = new HashMap<>();
+        for(Map.Entry<String, Map<String, Double>> entry: expModel.getOutSecretDist(t).entrySet())
+            outSecretDist.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        
+        computeSecretOutCondProbs(outSecretDist);
+    }
+    
+    /**
+     * Compute Pr(h|o) and Pr(o) from the output-secret probabilities of the explorer
      * 
-     * @param outSecretDist contains output-secret probabilities: Pr(o=\bar{o}, h=\bar{h})
      */
     public void computeSecretOutCondProbs(){
         
+        computeSecretOutCondProbs(expModel.getOutSecretDist());
+    }
+    
+    /**
+     * 
+     * @param outSecretDists contains output-secret probabilities: Pr(o=\bar{o}, h=\bar{h})
+     */
+    private void computeSecretOutCondProbs(Map<String, Map<String, Double>> outSecretDists){
+        
         String out;
         Map<String, Double> outSecretDist;
         outProbs = new HashMap<>(); // Pr(o)
         
-        secretOutCondProbs = expModel.getOutSecretDist(); // Pr(h,o)
+        secretOutCondProbs = outSecretDists; // Pr(h,o)
         for(Map.Entry<String, Map<String, Double>> entry: secretOutCondProbs.entrySet()){
             
             out = entry.getKey();
@@ -73,6 +152,50 @@ public class FinalLeakComputerExp {
             
             outProbs.put(out, outProb);
         }
+        summary = null;
+    }
+    
+    /**
+     * All leakage metrics are computed by a single pass over the outputs, on the first call
+     * 
+     * @return leakage metrics of the outputs
+     */
+    public LeakageSummary summary() {
+        
+        if(summary == null) {
+            summary = new LeakageSummary(entropyType, expModel.getPriorKnowledge());
+            for(Map.Entry<String, Double> entry: outProbs.entrySet())
+                summary.add(entry.getValue(), secretOutCondProbs.get(entry.getKey())); // Pr(o=out), Pr(h|o=out)
+            summary.finish();
+        }
+        return summary;
+    }
+    
+    /**
+     * The channel is computed from Pr(o,h) of the prior knowledge of the exploration, 
+     * which should give a positive probability to each secret
+     * 
+     * @return the channel Pr(o|h) of the outputs
+     */
+    public LeakChannel getChannel() throws PrismException {
+        
+        String[] secrets = expModel.getInitialSecrets();
+        Map<String, Double> prior = expModel.getPriorKnowledge();
+        int n = secrets.length;
+        
+        double[] matrix = new double[outProbs.size() * n];
+        for(int h=0; h < n; h++) {
+            double mu = prior.get(secrets[h]); // Pr(h)
+            if(mu <= 0)
+                throw new PrismException("The channel cannot be computed, since secret " + secrets[h] + " has probability 0");
+            int o = 0;
+            for(Map.Entry<String, Double> entry: outProbs.entrySet()) { // Pr(o|h) = Pr(o) * Pr(h|o) / Pr(h)
+                matrix[o*n + h] = entry.getValue() * secretOutCondProbs.get(entry.getKey()).getOrDefault(secrets[h], 0.0) / mu;
+                o++;
+            }
+        }
+        
+        return new LeakChannel(secrets, outProbs.size(), matrix);
     }
     
     /**
@@ -82,10 +205,7 @@ public class FinalLeakComputerExp {
      */
     public double expectedLeakage() throws PrismException {
 
-        double initialUncertainty = initialUncertainty();
-        double remainingUncertainty = remainingUncertainty();
-        double leakage = initialUncertainty - remainingUncertainty;
-        return leakage;
+        return summary().getExpectedLeakage();
     }
     
     /**
@@ -95,22 +215,7 @@ public class FinalLeakComputerExp {
      */
     public double remainingUncertainty() throws PrismException {
         
-        String out;
-        Map<String, Double> outSecretDist;
-        double outProb, outFinalEntropy;
-        
-        double remaining_uncertainty = 0; // H(h|o)
-        for(Map.Entry<String, Double> entry: outProbs.entrySet()){
-            
-        	out = entry.getKey();
-        	outProb = entry.getValue(); // Pr(o=out)
-        	outSecretDist = secretOutCondProbs.get(out); // Pr(h|o=out)
-        	outFinalEntropy = entropy(outSecretDist); // H(h|o=out)
-            
-            remaining_uncertainty += outProb * outFinalEntropy;     
-        }
-        
-        return remaining_uncertainty;
+        return summary().getRemainingUncertainty();
     }
     
     /**
@@ -132,11 +237,7 @@ public class FinalLeakComputerExp {
      */
     public double maxLeakage(){
         
-        // compute minimum posterior entropy: min(H(h|o=out)) for all outputs out
-        double minimumEntropy = minimumEntropy();
-        double initialUncertainty = initialUncertainty();
-        double maxLeakage = initialUncertainty - minimumEntropy;
-        return maxLeakage;
+        return summary().getMaxLeakage();
     }
     
     /**
@@ -146,69 +247,29 @@ public class FinalLeakComputerExp {
      */
     public double minLeakage(){
         
-        // compute maximum posterior entropy: max(H(h|o=out)) for all outputs out
-        double maximumEntropy = maximumEntropy();
-        double initialUncertainty = initialUncertainty();
-        double leakage = initialUncertainty - maximumEntropy;
-        return leakage;
+        return summary().getMinLeakage();
     }
     
     /**
      * Compute probability of maximum leakage of state_machine. 
+     * Posterior entropies closer than LeakageSummary.ENTROPY_EPSILON are considered equal.
      * 
      * @return probability of maximum leakage
      */
     public double probMaxLeakage(){
         
-        // compute minimum posterior entropy 
-        double minimumEntropy = minimumEntropy();
-        
-        // compute probability of maximum leakage
-        String out;
-        Map<String, Double> outSecretDistribution;
-        double outFinalEntropy;
-        
-        double probMaxLeakage = 0;
-        for(Map.Entry<String, Double> entry: outProbs.entrySet()){
-            
-        	out = entry.getKey();
-        	outSecretDistribution = secretOutCondProbs.get(out);
-            
-        	outFinalEntropy = entropy(outSecretDistribution);
-            if(minimumEntropy == outFinalEntropy)
-                probMaxLeakage += outProbs.get(out);
-        }
-
-        return probMaxLeakage;
+        return summary().getProbMaxLeakage();
     }
     
     /**
      * Compute probability of minimum leakage of state_machine. 
+     * Posterior entropies closer than LeakageSummary.ENTROPY_EPSILON are considered equal.
      * 
      * @return probability of minimum leakage
      */
     public double probMinLeakage(){
         
-        // compute maximum posterior entropy of outputs
-        double maximumEntropy = maximumEntropy();
-        
-        // compute probability of minimum leakage
-        String out;
-        Map<String, Double> outSecretDistribution;
-        double outFinalEntropy;
-        
-        double probMinLeakage = 0;
-        for(Map.Entry<String, Double> entry: outProbs.entrySet()){
-            
-        	out = entry.getKey();
-        	outSecretDistribution = secretOutCondProbs.get(out);
-            
-        	outFinalEntropy = entropy(outSecretDistribution);
-            if(maximumEntropy == outFinalEntropy)
-                probMinLeakage += outProbs.get(out);
-        }
-
-        return probMinLeakage;
+        return summary().getProbMinLeakage();
     }
     
     /**
@@ -217,22 +278,7 @@ public class FinalLeakComputerExp {
      */
     public double maximumEntropy() {
         
-        String out;
-        Map<String, Double> outSecretDistribution;
-        double outFinalEntropy;
-        
-        double maximumEntropy = -1;
-        for(Map.Entry<String, Double> entry: outProbs.entrySet()){
-            
-        	out = entry.getKey();
-        	outSecretDistribution = secretOutCondProbs.get(out);
-        
-        	outFinalEntropy = entropy(outSecretDistribution);
-            if(maximumEntropy < outFinalEntropy)
-                maximumEntropy = outFinalEntropy;
-        }
-        
-        return maximumEntropy;
+        return summary().getMaximumEntropy();
     }
     
     /**
@@ -241,22 +287,7 @@ public class FinalLeakComputerExp {
      */
     public double minimumEntropy() {
         
-        // compute minimum posterior entropy
-        String out;
-        Map<String, Double> outSecretDistribution;
-        double outFinalEntropy;
-        
-        double minimumEntropy = Double.MAX_VALUE;
-        for(Map.Entry<String, Double> entry: outProbs.entrySet()){
-            
-        	out = entry.getKey();
-            outSecretDistribution = secretOutCondProbs.get(out);
-        
-            outFinalEntropy = entropy(outSecretDistribution);
-            if(minimumEntropy > outFinalEntropy)
-                minimumEntropy = outFinalEntropy;
-        }
-        return minimumEntropy;
+        return summary().getMinimumEntropy();
     }
     
     /**
@@ -0,0 +1,359 @@
+package prismfinalleak;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import dv.DoubleVector;
+import hybrid.PrismHybrid;
+import jdd.JDD;
+import jdd.JDDNode;
+import jdd.JDDVars;
+import mtbdd.PrismMTBDD;
+import parser.State;
+import parser.VarList;
+import parser.ast.Declaration;
+import prism.Prism;
+import prism.PrismException;
+import prism.PrismLog;
+import prism.PrismNative;
+import prism.ProbModel;
+import prismintertrace.LeakChannel;
+import prismintertrace.LeakageSummary;
+import prismintertrace.StateData;
+import sparse.PrismSparse;
+
+/**
+*
+*	A class for computing final leakage of a symbolic ProbModel without leaving MTBDDs, for models whose states
+*	are too many to be enumerated by the explicit explorers.
+*	As in ProbModelAbsorptionExplorer, Pr(o, h) is computed from the probabilities of reaching the final states
+*	of each output o, by one numerical solution per output, here by the MTBDD, hybrid or sparse engine of PRISM.
+*	The probabilities of the initial states are multiplied by the prior knowledge of their secret, and the variables
+*	other than the secret ones are summed away, so that Pr(o, h) of all outputs is an MTBDD over the observable and
+*	secret variables only. Its size depends on the number of outputs and secrets, not on the number of states.
+*	Only this MTBDD, the outputs and the initial states are enumerated.
+*	As for the other explorers, self-loops of non-final states are ignored.
+*
+* @author Ali A. Noroozi
+*/
+
+public class FinalLeakComputerSym {
+
+	private final ProbModel model;
+	private final int engine; // Prism.MTBDD, Prism.HYBRID or Prism.SPARSE
+	private final boolean entropyType;
+	private final PrismLog mainLog;
+
+	private final VarList varList;
+	private final StateData data;
+	private final int[] publicVarIndices, secretVarIndices; // observable (secret) variables, as indices in the VarList
+	private final JDDVars publicVars = new JDDVars(); // DD row variables of the observable variables
+	private final JDDVars secretVars = new JDDVars(); // DD row variables of the secret variables
+	private final JDDVars otherVars = new JDDVars(); // DD row variables of the other variables
+	// DD variable index -> {variable, weight of the DD variable in the value of the variable}
+	private final Map<Integer, int[]> ddVarBits = new HashMap<>();
+
+	private final String[] secrets; // secret data of the initial states, in the order of probabilities in initDist files
+	private final Map<String, Double> priorKnowledge; // probability distribution of the secret variable
+
+	private JDDNode outSecretDist; // Pr(o, h), over the DD variables of observable and secret variables
+	private int numOutputs;
+	private LeakageSummary summary; // leakage metrics of the outputs, null until computed
+
+	/**
+	 * The engine and the settings of the numerical solution are taken from prism, as in ProbModelChecker.
+	 * initDistFileName is the prior knowledge, as for -initdist (null: uniform)
+	 */
+	public FinalLeakComputerSym(Prism prism, ProbModel model, boolean entropyType, String initDistFileName,
+			PrismLog mainLog) throws PrismException {
+
+		this.model = model;
+		this.engine = prism.getEngine();
+		this.entropyType = entropyType;
+		this.mainLog = mainLog;
+		this.varList = model.getVarList();
+		this.data = new StateData(varList);
+
+		PrismNative.setCompact(prism.getCompact());
+		PrismNative.setLinEqMethod(prism.getLinEqMethod());
+		PrismNative.setLinEqMethodParam(prism.getLinEqMethodParam());
+		PrismNative.setTermCrit(prism.getTermCrit());
+		PrismNative.setTermCritParam(prism.getTermCritParam());
+		PrismNative.setMaxIters(prism.getMaxIters());
+		PrismNative.setSBMaxMem(prism.getSBMaxMem());
+		PrismNative.setNumSBLevels(prism.getNumSBLevels());
+		PrismNative.setSORMaxMem(prism.getSORMaxMem());
+		PrismNative.setNumSORLevels(prism.getNumSORLevels());
+
+		// the DD variables are copied first, so reading the prior (e.g. a bad -initdist file) must clear them
+		try {
+			List<Integer> pub = new ArrayList<>();
+			List<Integer> sec = new ArrayList<>();
+			for (int v = 0; v < model.getNumVars(); v++) {
+				JDDVars vars = model.getVarDDRowVars(v);
+				int observabilityType = varList.getDeclaration(v).getObservabilityType();
+				if (observabilityType == Declaration.OBSERVABILITY_OBSERVABLE) {
+					pub.add(v);
+					publicVars.copyVarsFrom(vars);
+				}
+				else if (observabilityType == Declaration.OBSERVABILITY_SECERT) {
+					sec.add(v);
+					secretVars.copyVarsFrom(vars);
+				}
+				else
+					otherVars.copyVarsFrom(vars);
+				for (int j = 0; j < vars.n(); j++)
+					ddVarBits.put(vars.getVarIndex(j), new int[] { v, 1 << (vars.n() - 1 - j) });
+			}
+			publicVarIndices = pub.stream().mapToInt(Integer::intValue).toArray();
+			secretVarIndices = sec.stream().mapToInt(Integer::intValue).toArray();
+			// minterms are enumerated in the order of the DD variables
+			publicVars.sortByIndex();
+			secretVars.sortByIndex();
+			otherVars.sortByIndex();
+
+			// initial states, in increasing order as in the ODD
+			List<int[]> startValues = new ArrayList<>();
+			enumerate(model.getStart(), model.getAllDDRowVars(), (values, p) -> startValues.add(values.clone()));
+			secrets = new String[startValues.size()];
+			for (int i = 0; i < secrets.length; i++)
+				secrets[i] = data.getSecretData(state(startValues.get(i)));
+
+			if (initDistFileName == null) {
+				priorKnowledge = new HashMap<>();
+				for (String h : secrets)
+					priorKnowledge.put(h, 1.0 / secrets.length);
+			}
+			else
+				priorKnowledge = LeakChannel.readPrior(initDistFileName, secrets);
+
+			// prior knowledge over secret variables: an initial state has the probability of its secret
+			JDDNode prior = JDD.Constant(0);
+			Set<String> done = new HashSet<>();
+			for (int i = 0; i < secrets.length; i++)
+				if (done.add(secrets[i]))
+					prior = JDD.Apply(JDD.PLUS, prior,
+							JDD.Apply(JDD.TIMES, cube(secretVarIndices, startValues.get(i)), JDD.Constant(priorKnowledge.get(secrets[i]))));
+			JDDNode initDist = JDD.Apply(JDD.TIMES, model.getStart().copy(), prior);
+
+			try {
+				computeOutSecretDist(initDist);
+			} finally {
+				JDD.Deref(initDist);
+			}
+		} catch (PrismException e) {
+			clear();
+			throw e;
+		}
+	}
+
+	/**
+	 * Compute the MTBDD of Pr(o, h) from the initial distribution initDist:
+	 * for each output, Pr(o, h) = sum of initDist(s) * Pr(s reaches a final state of o) over initial states s of secret h
+	 *
+	 */
+	private void computeOutSecretDist(JDDNode initDist) throws PrismException {
+
+		JDDVars rows = model.getAllDDRowVars();
+		JDDVars cols = model.getAllDDColVars();
+		JDDNode reach = model.getReach();
+
+		// self-loops of non-final states are ignored: the mass of their rows is lost
+		JDDNode identity = JDD.Identity(rows, cols);
+		JDDNode trans01 = JDD.And(model.getTrans01().copy(), JDD.Not(identity.copy()));
+		JDDNode trans = JDD.Apply(JDD.TIMES, model.getTrans().copy(), JDD.Not(identity));
+		// final states have no successors but themselves
+		JDDNode finalStates = JDD.And(reach.copy(), JDD.Not(JDD.ThereExists(trans01.copy(), cols)));
+
+		JDDVars nonPublicVars = new JDDVars();
+		nonPublicVars.copyVarsFrom(secretVars);
+		nonPublicVars.copyVarsFrom(otherVars);
+		JDDVars nonSecretVars = new JDDVars();
+		nonSecretVars.copyVarsFrom(publicVars);
+		nonSecretVars.copyVarsFrom(otherVars);
+
+		try {
+			// outputs: valuations of observable variables of final states
+			List<int[]> outputs = new ArrayList<>();
+			JDDNode outputStates = JDD.ThereExists(finalStates.copy(), nonPublicVars);
+			enumerate(outputStates, publicVars, (values, p) -> outputs.add(values.clone()));
+			JDD.Deref(outputStates);
+			numOutputs = outputs.size();
+
+			outSecretDist = JDD.Constant(0);
+			for (int[] values : outputs) {
+				JDDNode output = cube(publicVarIndices, values);
+				JDDNode probs = reachProbs(trans, trans01, JDD.And(finalStates.copy(), output.copy()));
+				// Pr(o, h), over secret variables
+				JDDNode secretDist = JDD.SumAbstract(JDD.Apply(JDD.TIMES, probs, initDist.copy()), nonSecretVars);
+				outSecretDist = JDD.Apply(JDD.PLUS, outSecretDist, JDD.Apply(JDD.TIMES, output, secretDist));
+			}
+		} finally {
+			JDD.Deref(trans01);
+			JDD.Deref(trans);
+			JDD.Deref(finalStates);
+			nonPublicVars.derefAll();
+			nonSecretVars.derefAll();
+		}
+
+		mainLog.println(numOutputs + " outputs found, Pr(o,h) has " + JDD.GetNumNodes(outSecretDist) + " nodes");
+	}
+
+	/**
+	 * Probabilities of reaching yes, which is dereferenced, by the numerical solution of the engine
+	 *
+	 * @return MTBDD of the probabilities of all states
+	 */
+	private JDDNode reachProbs(JDDNode trans, JDDNode trans01, JDDNode yes) throws PrismException {
+
+		JDDVars rows = model.getAllDDRowVars();
+		JDDVars cols = model.getAllDDColVars();
+		JDDNode reach = model.getReach();
+
+		// the rows of maybe states are not stochastic, so Prob1 does not apply: only no states are precomputed
+		JDDNode no = PrismMTBDD.Prob0(trans01, reach, rows, cols, reach, yes);
+		JDDNode maybe = JDD.And(reach.copy(), JDD.Not(JDD.Or(yes.copy(), no)));
+
+		JDDNode probs;
+		try {
+			if (maybe.equals(JDD.ZERO))
+				probs = yes.copy();
+			else if (engine == Prism.MTBDD)
+				probs = PrismMTBDD.ProbUntil(trans, model.getODD(), rows, cols, yes, maybe);
+			else {
+				DoubleVector dv = engine == Prism.SPARSE ? PrismSparse.ProbUntil(trans, model.getODD(), rows, cols, yes, maybe)
+						: PrismHybrid.ProbUntil(trans, model.getODD(), rows, cols, yes, maybe);
+				probs = dv.convertToMTBDD(rows, model.getODD());
+				dv.clear();
+			}
+		} finally {
+			JDD.Deref(yes);
+			JDD.Deref(maybe);
+		}
+		return probs;
+	}
+
+	/**
+	 *
+	 * @return BDD of the valuation values of variables vars (indices in the VarList), over their DD row variables
+	 */
+	private JDDNode cube(int[] vars, int[] values) {
+
+		JDDNode cube = JDD.Constant(1);
+		for (int v : vars)
+			cube = JDD.And(cube, JDD.SetVectorElement(JDD.Constant(0), model.getVarDDRowVars(v), values[v], 1));
+		return cube;
+	}
+
+	/**
+	 *
+	 * @return state of (encoded) variable values values
+	 */
+	private State state(int[] values) {
+
+		State s = new State(values.length);
+		for (int v = 0; v < values.length; v++)
+			s.setValue(v, varList.decodeFromInt(v, values[v]));
+		return s;
+	}
+
+	/**
+	 * Visitor of the minterms of an MTBDD
+	 */
+	private interface MintermVisitor {
+
+		/**
+		 * values are the (encoded) values of the variables, of which only those of the enumerated DD variables are set
+		 */
+		void visit(int[] values, double value);
+	}
+
+	/**
+	 * Visit the minterms of dd with a non-zero value, in increasing order, where vars are the DD row variables
+	 * dd depends on, sorted by index
+	 *
+	 */
+	private void enumerate(JDDNode dd, JDDVars vars, MintermVisitor visitor) {
+
+		enumerate(dd, vars, 0, new int[model.getNumVars()], visitor);
+	}
+
+	private void enumerate(JDDNode dd, JDDVars vars, int i, int[] values, MintermVisitor visitor) {
+
+		if (dd.equals(JDD.ZERO))
+			return;
+		if (i == vars.n()) {
+			visitor.visit(values, dd.getValue());
+			return;
+		}
+
+		int index = vars.getVarIndex(i);
+		int[] bit = ddVarBits.get(index);
+		// a DD variable which is skipped takes both values
+		boolean skipped = dd.isConstant() || dd.getIndex() > index;
+		enumerate(skipped ? dd : dd.getElse(), vars, i + 1, values, visitor);
+		values[bit[0]] += bit[1];
+		enumerate(skipped ? dd : dd.getThen(), vars, i + 1, values, visitor);
+		values[bit[0]] -= bit[1];
+	}
+
+	/**
+	 * All leakage metrics are computed by a single pass over the minterms of Pr(o, h), on the first call
+	 *
+	 * @return leakage metrics of the outputs
+	 */
+	public LeakageSummary summary() {
+
+		if (summary == null) {
+			JDDVars vars = new JDDVars();
+			vars.copyVarsFrom(publicVars);
+			vars.copyVarsFrom(secretVars);
+			vars.sortByIndex();
+
+			Map<String, Map<String, Double>> secretOutCondProbs = new HashMap<>(); // Pr(h, o), then Pr(h|o)
+			enumerate(outSecretDist, vars, (values, p) -> {
+				State s = state(values);
+				secretOutCondProbs.computeIfAbsent(data.getPublicData(s), k -> new HashMap<>())
+					.merge(data.getSecretData(s), p, Double::sum);
+			});
+			vars.derefAll();
+
+			summary = new LeakageSummary(entropyType, priorKnowledge);
+			for (Map<String, Double> dist : secretOutCondProbs.values()) {
+				double outProb = dist.values().stream().mapToDouble(d -> d).sum(); // Pr(o)
+				dist.replaceAll((k, v) -> v / outProb);
+				summary.add(outProb, dist);
+			}
+			summary.finish();
+		}
+		return summary;
+	}
+
+	/**
+	 *
+	 * @return number of outputs, i.e. valuations of observable variables of final states
+	 */
+	public int getNumOutputs() {
+
+		return numOutputs;
+	}
+
+	/**
+	 * Dereference the MTBDDs of the computation
+	 *
+	 */
+	public void clear() {
+
+		if (outSecretDist != null)
+			JDD.Deref(outSecretDist);
+		outSecretDist = null;
+		publicVars.derefAll();
+		secretVars.derefAll();
+		otherVars.derefAll();
+	}
+
+}
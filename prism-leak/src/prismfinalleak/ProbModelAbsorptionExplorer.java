@@ -0,0 +1,95 @@
+package prismfinalleak;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import explicit.DTMCModelChecker;
+import explicit.DTMCSimple;
+import explicit.ModelCheckerResult;
+import prism.PrismComponent;
+import prism.PrismDevNullLog;
+import prism.PrismException;
+import prismintertrace.LeakModel;
+
+/**
+*
+*	A class for computing output-secret probabilities of ProbModel without enumerating paths.
+*	Pr(o, h) only depends on the initial state (the secret) and the final state (the output) of paths,
+*	so it is computed from the probabilities of reaching the final states of each output,
+*	which are obtained by one numerical solution (explicit engine) per output.
+*	As in the path-based explorer, self-loops of non-final states are ignored: their probability
+*	is moved to an extra sink state, which reaches no output. Models with cycles are supported.
+*
+* @author Ali A. Noroozi
+*/
+
+public class ProbModelAbsorptionExplorer extends ProbModelOutputExplorer {
+
+	private PrismComponent parent; // settings of the numerical solution are taken from parent
+
+	public ProbModelAbsorptionExplorer(PrismComponent parent, LeakModel currentModel, String initDistFileName) throws PrismException {
+
+		super(currentModel, initDistFileName);
+		this.parent = parent;
+	}
+
+	/**
+	 * Compute output-secret probabilities from reachability probabilities of final states.
+	 * Bounded leakage is computed by the path-based explorer.
+	 *
+	 */
+	@Override
+	public void exploreModel(boolean bounded, int boundedStep) throws PrismException {
+
+		if (bounded) {
+			super.exploreModel(bounded, boundedStep);
+			return;
+		}
+
+		createSparseMatrix();
+
+		int numStates = reachStates.getNumStates();
+		int sink = numStates;
+		DTMCSimple dtmc = new DTMCSimple(numStates + 1);
+
+		// final states of each output (public class)
+		Map<Integer, BitSet> outputFinalStates = new HashMap<>();
+
+		for (int s = 0; s < numStates; s++) {
+			if (isFinalState(s)) {
+				dtmc.setProbability(s, s, 1.0);
+				outputFinalStates.computeIfAbsent(reachStates.getPublicClass(s), k -> new BitSet()).set(s);
+				continue;
+			}
+			for (int k = transitions.rowStart(s); k < transitions.rowEnd(s); k++) {
+				int ps = transitions.getColumn(k);
+				// self-loops of non-final states are ignored, as in explorePathsNonRecur()
+				dtmc.addToProbability(s, ps == s ? sink : ps, transitions.getProbability(k));
+			}
+		}
+		dtmc.setProbability(sink, sink, 1.0);
+		for (int s : startStates)
+			dtmc.addInitialState(s);
+
+		DTMCModelChecker mc = new DTMCModelChecker(parent);
+		mc.setLog(new PrismDevNullLog());
+
+		Map<String, Map<String, Double>> outSecretDist = getOutSecretDist();
+		for (Map.Entry<Integer, BitSet> e : outputFinalStates.entrySet()) {
+
+			ModelCheckerResult res = mc.computeReachProbs(dtmc, e.getValue());
+			String output = reachStates.getPublicClassData(e.getKey());
+
+			for (int s : startStates) {
+				double prob = res.soln[s];
+				if (prob > 0)
+					outSecretDist.computeIfAbsent(output, k -> new HashMap<>())
+						.merge(reachStates.getSecretData(s), initialProb(s) * prob, Double::sum);
+			}
+		}
+
+		return;
+	}
+
+}
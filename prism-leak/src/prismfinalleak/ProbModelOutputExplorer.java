@@ -3,51 +3,62 @@ package prismfinalleak;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import jdd.JDDNode;
-import jdd.JDDVars;
-import odd.ODDNode;
 import prism.PrismException;
-import prism.ProbModel;
-import prism.StateListMTBDD;
-import prismintertrace.ExplicitState;
-import sparse.PrismSparse;
+import prismintertrace.StateTable;
+import prismintertrace.LeakModel;
+import prismintertrace.LeakTransitionMatrix;
 
 /**
 *
-*	A class for explicit representation and output exploration of ProbModel
+*	A class for explicit representation and output exploration of ProbModel.
+*	With more than one thread, paths are explored by ForkJoin tasks, one per initial state,
+*	and subtrees are split into new tasks while there are idle workers.
+*	Bounded leakage of all times up to a bound is computed in a single pass (exploreModelSteps()).
 *
 * @author Ali A. Noroozi
 */
 
 public class ProbModelOutputExplorer {
 	
-	private ProbModel currentModel = null;
-	List<ExplicitState> reachStates; // set of reachable states
-	List<ExplicitState> startStates; // set of initial states
+	private LeakModel currentModel = null;
+	StateTable reachStates; // table of reachable states
+	int[] startStates; // numbers of initial states
 	
 	private Map<String, Map<String, Double>> outSecretDist; // the distribution Pr(o, h), containing output-secret probabilities: Pr(o=\bar{o}, h=\bar{h}) 
+	private List<Map<String, Map<String, Double>>> stepOutSecretDists; // Pr(o, h) of each time, after exploreModelSteps()
 	
 	public static int UNIFORM_PRIOR_KNOWLEDGE = 0; // probability distribution of the secret variable not specified by the user -> uniform distribution assumed
 	public static int INIT_DIST_FILE_PRIOR_KNOWLEDGE = 1; // probability distribution of the secret variable is imported from a file specified by the user
 	private int priorKnowledgeType = UNIFORM_PRIOR_KNOWLEDGE; 
 	Map<String, Double> priorKnowledge; // probability distribution of the secret variable
 	
-	JDDNode matrix;
-	String name;
-	JDDVars rows;
-	JDDVars cols;
-	ODDNode odd;
+	LeakTransitionMatrix transitions; // transition matrix of the model
+	
+	private int numThreads = 1; // number of worker threads (1: sequential exploration)
+	private static final int SURPLUS_THRESHOLD = 2; // a subtree is forked only if the worker has fewer queued tasks than this
+	private ThreadLocal<Map<String, Map<String, Double>>> workerOutSecretDist; // Pr(o, h) of each worker
 		
-	public ProbModelOutputExplorer(ProbModel currentModel, String initDistFileName) throws PrismException {
+	public ProbModelOutputExplorer(LeakModel currentModel, String initDistFileName) throws PrismException {
+		
+		this(currentModel, initDistFileName, 1);
+	}
+	
+	public ProbModelOutputExplorer(LeakModel currentModel, String initDistFileName, int numThreads) throws PrismException {
 		
 		this.currentModel = currentModel;
+		this.numThreads = numThreads;
 		this.reachStates = getStates();
 		this.startStates = getInitialStates();
 //		this.savePathProbs = savePathProbs;
@@ -63,12 +74,6 @@ public class ProbModelOutputExplorer {
 			
 		outSecretDist = new HashMap<>();
 		
-		matrix = currentModel.getTrans();
-		name = currentModel.getTransSymbol();
-		rows = currentModel.getAllDDRowVars();
-		cols = currentModel.getAllDDColVars();
-		odd = currentModel.getODD();
-		
 	}
 	
 	/**
@@ -77,27 +82,198 @@ public class ProbModelOutputExplorer {
 	 */
 	public void exploreModel(boolean bounded, int boundedStep) throws PrismException {
 		
-		double res = PrismSparse.PS_CreateSparseMatrix(matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
-		if (res == -2) {
-			throw new PrismException("Out of memory building transition matrix");
-		}
+		createSparseMatrix();
+		
+		// paths of a cycle are enumerated forever, while ProbModelAbsorptionExplorer supports cycles
+		if (!bounded && transitions.hasCycles())
+			throw new PrismException("The model has cycles, so its paths cannot be enumerated (use -absorb for final leakage)");
 		
+		if (numThreads > 1) {
+			exploreModelParallel(bounded, boundedStep);
+			return;
+		}
          
     	if(bounded) { // bounded
     		
     		long path[] = new long[boundedStep+2];
-    		for (ExplicitState s : startStates)
-    			explorePathsRecur(s.getStateNumber(), path, 0, bounded, boundedStep);
+    		for (int s : startStates)
+    			explorePathsRecur(s, path, 0, bounded, boundedStep);
     	}
     	else // explore whole paths (till final states) 
-    		for (ExplicitState s : startStates)
-    			explorePathsNonRecur(s.getStateNumber());
+    		for (int s : startStates)
+    			explorePathsNonRecur(s);
         
-//        PrismSparse.PS_FreeSparseMatrix(matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
     	
     	return;
     }
 	
+	/**
+	 * Build the sparse transition matrix used by post() and getTransitionProb(), if not already built
+	 * 
+	 */
+	protected void createSparseMatrix() throws PrismException {
+		
+		if (transitions == null)
+			transitions = currentModel.getTransitions();
+	}
+	
+	/**
+	 * Compute output-secret probabilities of paths of exactly t transitions, for each time t = 0, ..., numSteps-1.
+	 * Instead of enumerating paths of each time, the probabilities of (state, secret value) pairs at time t 
+	 * are propagated one transition to time t+1, so all times are computed in a single pass.
+	 * 
+	 */
+	public void exploreModelSteps(int numSteps) throws PrismException {
+		
+		createSparseMatrix();
+		
+		List<String> secrets = new ArrayList<>(priorKnowledge.keySet());
+		Map<String, Integer> secretIndex = new HashMap<>();
+		for (int h = 0; h < secrets.size(); h++)
+			secretIndex.put(secrets.get(h), h);
+		int numSecrets = secrets.size();
+		
+		// distribution of time t: state * numSecrets + secret value -> probability
+		Map<Long, Double> dist = new HashMap<>();
+		for (int s : startStates) {
+			dist.merge((long) s * numSecrets + secretIndex.get(reachStates.getSecretData(s)), initialProb(s), Double::sum);
+		}
+		
+		stepOutSecretDists = new ArrayList<>();
+		for (int t = 0; t < numSteps; t++) {
+			
+			Map<String, Map<String, Double>> stepDist = new HashMap<>();
+			for (Map.Entry<Long, Double> e : dist.entrySet()) {
+				int s = (int) (e.getKey() / numSecrets);
+				String secret = secrets.get((int) (e.getKey() % numSecrets));
+				stepDist.computeIfAbsent(reachStates.getPublicData(s), k -> new HashMap<>()).merge(secret, e.getValue(), Double::sum);
+			}
+			stepOutSecretDists.add(stepDist);
+			
+			if (t == numSteps - 1)
+				break;
+			
+			Map<Long, Double> nextDist = new HashMap<>();
+			for (Map.Entry<Long, Double> e : dist.entrySet()) {
+				int s = (int) (e.getKey() / numSecrets);
+				long h = e.getKey() % numSecrets;
+				for (int k = transitions.rowStart(s); k < transitions.rowEnd(s); k++)
+					nextDist.merge((long) transitions.getColumn(k) * numSecrets + h, e.getValue() * transitions.getProbability(k), Double::sum);
+			}
+			dist = nextDist;
+		}
+	}
+	
+	/**
+	 * Explore the paths of the model using a ForkJoin pool of numThreads workers. Each worker adds 
+	 * output-secret probabilities to its own distribution, and the distributions are merged at the end.
+	 * 
+	 */
+	private void exploreModelParallel(boolean bounded, int boundedStep) {
+		
+		List<Map<String, Map<String, Double>>> workerDists = Collections.synchronizedList(new ArrayList<>());
+		workerOutSecretDist = ThreadLocal.withInitial(() -> {
+			Map<String, Map<String, Double>> dist = new HashMap<>();
+			workerDists.add(dist);
+			return dist;
+		});
+		
+		List<PathTask> tasks = new ArrayList<>();
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (int startSt : startStates) {
+				PathTask task = new PathTask(startSt, startSt, 1, 1.0, bounded, boundedStep);
+				tasks.add(task);
+				pool.execute(task);
+			}
+			for (PathTask task : tasks)
+				task.join();
+		}
+		finally {
+			pool.shutdown();
+			workerOutSecretDist = null;
+		}
+		
+		for (Map<String, Map<String, Double>> dist : workerDists)
+			for (Map.Entry<String, Map<String, Double>> e : dist.entrySet()) {
+				Map<String, Double> probs = outSecretDist.computeIfAbsent(e.getKey(), k -> new HashMap<>());
+				for (Map.Entry<String, Double> p : e.getValue().entrySet())
+					probs.merge(p.getKey(), p.getValue(), Double::sum);
+			}
+	}
+	
+	/**
+	 * A task exploring the paths from state, where the path from the initial state startSt to state has
+	 * pathLength states and probability prob (without the probability of the initial state)
+	 */
+	private final class PathTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int state, startSt, pathLength;
+		private final double prob;
+		private final boolean bounded;
+		private final int boundedStep;
+		
+		PathTask(int state, int startSt, int pathLength, double prob, boolean bounded, int boundedStep) {
+			this.state = state;
+			this.startSt = startSt;
+			this.pathLength = pathLength;
+			this.prob = prob;
+			this.bounded = bounded;
+			this.boundedStep = boundedStep;
+		}
+		
+		@Override
+		protected void compute() {
+			
+			// subtrees which are not forked are explored by this task, using an explicit stack
+			Deque<PathTask> stack = new ArrayDeque<>();
+			List<PathTask> forked = new ArrayList<>();
+			stack.push(this);
+			
+			while (!stack.isEmpty()) {
+				PathTask t = stack.pop();
+				
+				if ((!bounded && isFinalState(t.state)) || (bounded && t.pathLength == boundedStep + 1)) {
+					handleOutput(t.startSt, t.state, t.prob);
+					continue;
+				}
+				
+				for (int k = transitions.rowStart(t.state); k < transitions.rowEnd(t.state); k++) {
+					int ps = transitions.getColumn(k);
+					// self-loops of non-final states are ignored, as in explorePathsNonRecur()
+					if (!bounded && ps == t.state)
+						continue;
+					
+					PathTask sub = new PathTask(ps, t.startSt, t.pathLength + 1, t.prob * transitions.getProbability(k), bounded, boundedStep);
+					if (getSurplusQueuedTaskCount() < SURPLUS_THRESHOLD) {
+						sub.fork();
+						forked.add(sub);
+					}
+					else
+						stack.push(sub);
+				}
+			}
+			
+			for (PathTask sub : forked)
+				sub.join();
+		}
+	}
+	
+	/**
+	 * Add probability of a path from startSt to finalState to the output-secret probabilities of the current worker
+	 * 
+	 */
+	private void handleOutput(int startSt, int finalState, double pathProb) {
+		
+		String output = reachStates.getPublicData(finalState);
+		String secretStartSt = reachStates.getSecretData(startSt);
+		
+		Map<String, Double> probs = workerOutSecretDist.get().computeIfAbsent(output, k -> new HashMap<>());
+		probs.merge(secretStartSt, initialProb(startSt) * pathProb, Double::sum);
+	}
+	
 	/**
      * Recursive helper function for explorePaths().
      * Given a state, and an array containing the path from the initial state 
@@ -204,11 +380,11 @@ public class ProbModelOutputExplorer {
 		 
 		 double prob_pa = prob(pa);
 		 long finalState = pa.get(pa.size()-1);
-		 String output = reachStates.get((int) finalState).getPublicData(-1);
+		 String output = reachStates.getPublicData((int) finalState);
 		 
 		 Map<String, Double> probs = outSecretDist.getOrDefault(output, new HashMap<>());
 		 long startSt = pa.get(0);
-		 String secretStartSt = reachStates.get((int)startSt).getSecretData();
+		 String secretStartSt = reachStates.getSecretData((int)startSt);
 	     probs.put(secretStartSt, probs.getOrDefault(secretStartSt, 0.0) + prob_pa);
 	     outSecretDist.put(output, probs);
     	 
@@ -219,20 +395,18 @@ public class ProbModelOutputExplorer {
 	  * 
 	  * @return the explicit set of reachable states 
 	  */
-	 public List<ExplicitState> getStates() {
+	 public StateTable getStates() {
 		 
-		 StateListMTBDD states = (StateListMTBDD) currentModel.getReachableStates();
-		 return states.getExplicitStates();
+		 return currentModel.getStates();
 	 }
 
 	 /**
 	  * 
 	  * @return the explicit set of initial states 
 	  */
-	 public List<ExplicitState> getInitialStates() {
+	 public int[] getInitialStates() {
 		 
-		 StateListMTBDD start = (StateListMTBDD) currentModel.getStartStates();
-		 return start.getExplicitStates();
+		 return currentModel.getInitialStates();
 	 }
 	 
 	 /**
@@ -241,7 +415,7 @@ public class ProbModelOutputExplorer {
 	  */
 	 public int[] post(long s) {
 		 
-		 return PrismSparse.PS_SuccessorStates((int) s, matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
+		 return transitions.post((int) s);
 	 }
 	 
 	 /**
@@ -250,7 +424,7 @@ public class ProbModelOutputExplorer {
 	  */
 	 public boolean isFinalState(long s) {
 		 
-		 return PrismSparse.isFinalState((int) s, matrix, name, rows, cols, odd);
+		 return transitions.isFinalState((int) s);
 	 }
 	 
 	 /**
@@ -259,7 +433,7 @@ public class ProbModelOutputExplorer {
 	  */
 	 public double getTransitionProb(long i, long j) {
 		 
-		 return PrismSparse.PS_GetTransitionProb((int) i, (int) j, matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
+		 return transitions.getTransitionProb((int) i, (int) j);
 	 }
 	 
 	 /**
@@ -272,14 +446,19 @@ public class ProbModelOutputExplorer {
         for(int i=0; i < path.size()-1; i++)
             prob = prob *  getTransitionProb(path.get(i), path.get(i+1));
         
-        double muInit;
+        return initialProb(path.get(0))*prob;
+	 }
+	 
+	 /**
+	  * 
+	  * @return probability of the initial state startSt, i.e. prior probability of its secret value
+	  */
+	 public double initialProb(long startSt) {
+		 
 	    if (priorKnowledgeType == UNIFORM_PRIOR_KNOWLEDGE) // uniform prior knowledge
-	    	 muInit = 1.0 / startStates.size();
-	    else { // prior knowledge determined by the user (It may be uniform or not)
-		    long startSt = path.get(0);
-		    muInit = priorKnowledge.get(reachStates.get((int)startSt).getSecretData());
-	    }
-        return muInit*prob;
+	    	 return 1.0 / startStates.length;
+	    else // prior knowledge determined by the user (It may be uniform or not)
+		    return priorKnowledge.get(reachStates.getSecretData((int)startSt));
 	 }
 	 
 	 /**
@@ -313,7 +492,7 @@ public class ProbModelOutputExplorer {
 			 // Close file
 			 in.close();
 
-			 int startSize = startStates.size();
+			 int startSize = startStates.length;
 			 if(initDist.size() != startSize)
 				 throw new PrismException("initDist file should contain " + startSize + " probabilities");
 			 
@@ -321,8 +500,8 @@ public class ProbModelOutputExplorer {
 				 throw new PrismException("Sume of probabilities in \"" + initDistFileName + "\" should be equal to 1.0");
 			 
 			 int i=0;
-			 for(ExplicitState s: startStates) {
-				 priorKnowledge.put(s.getSecretData(), initDist.get(i));
+			 for (int s : startStates) {
+				 priorKnowledge.put(reachStates.getSecretData(s), initDist.get(i));
 				 i++;
 			 }
 			 
@@ -336,6 +515,18 @@ public class ProbModelOutputExplorer {
 		 return priorKnowledge;
 	 }
 	 
+	 /**
+	  * 
+	  * @return secret data of the initial states, in the order of probabilities in initDist files
+	  */
+	 public String[] getInitialSecrets() {
+		 
+		 String[] secrets = new String[startStates.length];
+		 for (int i = 0; i < startStates.length; i++)
+			 secrets[i] = reachStates.getSecretData(startStates[i]);
+		 return secrets;
+	 }
+	 
 	 /**
 	  * 
 	  * @return uniform probability distribution for the secret values of initial states
@@ -344,8 +535,8 @@ public class ProbModelOutputExplorer {
 	    
 		 Map<String, Double> uniformPriorKnowledge = new TreeMap<>();
 		 
-		 for(ExplicitState s: startStates) {
-			 uniformPriorKnowledge.put(s.getSecretData(), 1.0/startStates.size());
+		 for (int s : startStates) {
+			 uniformPriorKnowledge.put(reachStates.getSecretData(s), 1.0/startStates.length);
 		 }
 		
 		return uniformPriorKnowledge;
@@ -360,6 +551,15 @@ public class ProbModelOutputExplorer {
 		 return outSecretDist;
 	 }
 	 	 
+	 /**
+	  * 
+	  * @return the distribution Pr(o,h) of time t, after exploreModelSteps()
+	  */
+	 public Map<String, Map<String, Double>> getOutSecretDist(int t) {
+		 
+		 return stepOutSecretDists.get(t);
+	 }
+	 
 	 /**
 	  * 
 	  * @return prior knowledge Pr(h), which is the probability distribution of the secret values
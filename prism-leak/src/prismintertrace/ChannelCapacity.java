@@ -0,0 +1,218 @@
+package prismintertrace;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import prism.PrismException;
+
+/**
+*
+*	Channel capacity: the maximum leakage of a channel over all priors of the secret, and a prior which attains it.
+*	For Shannon entropy, capacity is computed by the Blahut-Arimoto iteration, which stops when the lower and upper
+*	bounds of capacity are closer than a tolerance. Each iteration is one pass over the channel, which is split between
+*	worker threads by observations. For min-entropy, capacity is log2 of the sum of the maximum probability of
+*	each observation (over secrets), which is attained by the uniform prior. This is the capacity of multiplicative
+*	min-vulnerability leakage, defined by the expected vulnerability of the posteriors. It is not the maximum of the
+*	expected leakage of -min, which averages min-entropies of the posteriors, but an upper bound of it for every prior
+*	(Jensen's inequality), and the uniform prior need not maximise the leakage of -min.
+*
+* @author Ali A. Noroozi
+*/
+
+public class ChannelCapacity {
+
+	public static final double DEFAULT_TOLERANCE = 1e-9; // bits
+	public static final int DEFAULT_MAX_ITERATIONS = 100000;
+	private static final int SPLIT_THRESHOLD = 1024; // observations of a task not split between workers
+
+	private final LeakChannel channel;
+	private final int numThreads;
+
+	private double[] prior; // prior which attains capacity, in the order of the secrets of the channel
+	private double lowerBound, upperBound; // bounds of capacity
+	private int iterations;
+
+	/**
+	 * numThreads is the number of worker threads of the Blahut-Arimoto iteration (1: sequential)
+	 */
+	public ChannelCapacity(LeakChannel channel, int numThreads) {
+
+		this.channel = channel;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Compute Shannon capacity by the Blahut-Arimoto iteration, starting from the uniform prior.
+	 * If the bounds are not closer than tolerance after maxIterations, the bounds reached are kept.
+	 *
+	 */
+	public void computeShannon(double tolerance, int maxIterations) {
+
+		int n = channel.secrets.length;
+		prior = new double[n];
+		Arrays.fill(prior, 1.0 / n);
+
+		ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+		try {
+			for (iterations = 1; iterations <= maxIterations; iterations++) {
+
+				// d[h]: relative entropy (bits) of Pr(o|h) from Pr(o) of the prior
+				DivergenceTask task = new DivergenceTask(0, channel.numObservations);
+				double[] d = pool != null ? pool.invoke(task) : task.compute();
+
+				// I(prior) <= lowerBound <= capacity <= upperBound
+				double[] weights = new double[n];
+				double sum = 0;
+				upperBound = Double.NEGATIVE_INFINITY;
+				for (int h = 0; h < n; h++) {
+					weights[h] = prior[h] * Math.pow(2, d[h]);
+					sum += weights[h];
+					if (prior[h] > 0)
+						upperBound = Math.max(upperBound, d[h]);
+				}
+				lowerBound = Math.log(sum) / Math.log(2);
+
+				// next prior
+				for (int h = 0; h < n; h++)
+					prior[h] = weights[h] / sum;
+
+				if (upperBound - lowerBound < tolerance)
+					break;
+			}
+			iterations = Math.min(iterations, maxIterations);
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+	}
+
+	/**
+	 * Compute multiplicative min-vulnerability capacity, which is attained by the uniform prior
+	 *
+	 */
+	public void computeMinEntropy() {
+
+		int n = channel.secrets.length;
+		double sum = 0;
+		for (int o = 0; o < channel.numObservations; o++) {
+			double max = 0;
+			for (int h = 0; h < n; h++)
+				max = Math.max(max, channel.matrix[o * n + h]);
+			sum += max;
+		}
+
+		prior = new double[n];
+		Arrays.fill(prior, 1.0 / n);
+		lowerBound = upperBound = Math.log(sum) / Math.log(2);
+		iterations = 0;
+	}
+
+	/**
+	 *
+	 * @return channel capacity (bits), i.e. the lower bound of the Blahut-Arimoto iteration, which getPrior() attains
+	 */
+	public double getCapacity() {
+
+		return lowerBound;
+	}
+
+	/**
+	 *
+	 * @return upper bound of channel capacity (bits)
+	 */
+	public double getUpperBound() {
+
+		return upperBound;
+	}
+
+	/**
+	 *
+	 * @return number of Blahut-Arimoto iterations
+	 */
+	public int getIterations() {
+
+		return iterations;
+	}
+
+	/**
+	 *
+	 * @return prior of the secrets which attains capacity
+	 */
+	public Map<String, Double> getPrior() {
+
+		Map<String, Double> dist = new LinkedHashMap<>();
+		for (int h = 0; h < prior.length; h++)
+			dist.put(channel.secrets[h], prior[h]);
+		return dist;
+	}
+
+	/**
+	 * Save the prior which attains capacity to fileName, in the format of -initdist files
+	 *
+	 */
+	public void writePrior(String fileName) throws PrismException {
+
+		try (PrintWriter out = new PrintWriter(fileName)) {
+			for (double p : prior)
+				out.println(p);
+		} catch (FileNotFoundException e) {
+			throw new PrismException("File I/O error writing to \"" + fileName + "\"");
+		}
+	}
+
+	/**
+	 * A task computing the sums over observations [from, to) of the relative entropies of each secret.
+	 * Large ranges are split into two subtasks.
+	 */
+	private final class DivergenceTask extends RecursiveTask<double[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from, to;
+
+		DivergenceTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected double[] compute() {
+
+			if (to - from > SPLIT_THRESHOLD && numThreads > 1) {
+				int mid = (from + to) >>> 1;
+				DivergenceTask left = new DivergenceTask(from, mid);
+				DivergenceTask right = new DivergenceTask(mid, to);
+				left.fork();
+				double[] d = right.compute();
+				double[] other = left.join();
+				for (int h = 0; h < d.length; h++)
+					d[h] += other[h];
+				return d;
+			}
+
+			int n = channel.secrets.length;
+			double[] matrix = channel.matrix;
+			double[] d = new double[n];
+			for (int o = from; o < to; o++) {
+				int base = o * n;
+				double q = 0; // Pr(o) of the prior
+				for (int h = 0; h < n; h++)
+					q += prior[h] * matrix[base + h];
+				if (q == 0)
+					continue;
+				for (int h = 0; h < n; h++) {
+					double w = matrix[base + h];
+					if (w > 0)
+						d[h] += w * Math.log(w / q) / Math.log(2);
+				}
+			}
+			return d;
+		}
+	}
+
+}
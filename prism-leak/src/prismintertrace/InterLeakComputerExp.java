@@ -5,12 +5,9 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
-import java.util.Set;
 
 import prism.PrismException;
 import prism.PrismLog;
-import prism.ProbModel;
 
 /**
  * A class for computing intermediate leakage
@@ -21,7 +18,7 @@ import prism.ProbModel;
 public class InterLeakComputerExp {
 	
 	ProbModelExplicitExplorer expModel;
-	ProbModel probModel;
+	LeakModel leakModel;
 	
 	// logs
 	private PrismLog mainLog = null;
@@ -29,51 +26,238 @@ public class InterLeakComputerExp {
 	public static boolean MIN_ENTROPY = false;
 	public static boolean SHANNON_ENTROPY = true;
 	private boolean entropyType = SHANNON_ENTROPY; 
-		
-	private Map<List<String>, Map<String, Double>> secretTraceCondProbs; // the distribution Pr(h|T) 
-    private Map<List<String>, Double> traceProbs; // trace probabilities Pr(T)
+	
+	public static int TRACE_BASED_METHOD = 0; // explore traces of the model
+	public static int BACK_BISIMULATION_METHOD = 1; // explore traces of the back-bisimulation quotient of the model
+	
+	private TraceStore traces; // traces, with rows Pr(h|T) after computeSecretTraceCondProbs()
+    private double[] traceProbs; // trace probabilities Pr(T), indexed by traces of the store
+    private int firstTrace, endTrace; // leakage is computed over traces firstTrace, ..., endTrace-1 of the store
+    private LeakageSummary summary; // leakage metrics of the traces, null until computed
+    private TraceSpillStore spillStore; // trace-secret probabilities spilled to disk, or null
+    private long numTraces; // number of traces of spillStore
+    
     
+    public InterLeakComputerExp(LeakModel leakModel, boolean bounded, int boundedStep, 
+            boolean entropyType, String initDistFileName, PrismLog mainLog) throws PrismException {
+        
+        this(leakModel, TRACE_BASED_METHOD, bounded, boundedStep, entropyType, initDistFileName, mainLog);
+    }
+    
+    public InterLeakComputerExp(LeakModel leakModel, int method, boolean bounded, int boundedStep, 
+            boolean entropyType, String initDistFileName, PrismLog mainLog) throws PrismException {
+        
+        this(leakModel, method, 1, bounded, boundedStep, entropyType, initDistFileName, mainLog);
+    }
     
-    public InterLeakComputerExp(ProbModel probModel, boolean bounded, int boundedStep, 
+    /**
+     * numThreads is the number of worker threads of the trace-based method (1: sequential exploration)
+     */
+    public InterLeakComputerExp(LeakModel leakModel, int method, int numThreads, boolean bounded, int boundedStep, 
             boolean entropyType, String initDistFileName, PrismLog mainLog) throws PrismException {
         
+        this(createExplorer(leakModel, method, numThreads, initDistFileName), bounded, boundedStep, entropyType, mainLog);
+    }
+    
+    /**
+     * Traces are explored by traceModel, which is created by createExplorer() and configured by its setters, 
+     * e.g. setMassCutoff() and setSpillMemory()
+     */
+    public InterLeakComputerExp(ProbModelTraceExplorer traceModel, boolean bounded, int boundedStep, 
+            boolean entropyType, PrismLog mainLog) throws PrismException {
+        
         this.entropyType = entropyType;
         this.mainLog = mainLog;
         
-        if(!bounded)
-            mainLog.println("\nExploring traces ...\n");
-        // explore traces and compute trace-secret probabilities 
-        expModel = new ProbModelExplicitExplorer(probModel, initDistFileName);
-        expModel.exploreModel(bounded, boundedStep);
+        if (traceModel instanceof ProbModelBackBisimExplorer) {
+            if(!bounded)
+                mainLog.println("\nComputing back-bisimulation quotient ...\n");
+            // compute trace-secret probabilities on the back-bisimulation quotient
+            ProbModelBackBisimExplorer backBisimModel = (ProbModelBackBisimExplorer) traceModel;
+            backBisimModel.exploreModel(bounded, boundedStep);
+            if(!bounded)
+                mainLog.println(backBisimModel.getNumClasses() + " back-bisimulation classes (" + 
+                        backBisimModel.getNumAnnotatedStates() + " states)");
+        }
+        else {
+            if(!bounded)
+                mainLog.println("\nExploring traces ...\n");
+            // explore traces and compute trace-secret probabilities 
+            traceModel.exploreModel(bounded, boundedStep);
+        }
+        expModel = traceModel;
+        
+        if(traceModel.hasCycles())
+            mainLog.println("The model has cycles: probability of unexplored paths is " + traceModel.getUnexploredMass() + 
+                    " (cutoff " + traceModel.getMassCutoff() + ")");
+        
+        spillStore = traceModel.getSpillStore();
+        if(spillStore != null) {
+            mainLog.println(spillStore.getNumSpilled() + " trace-secret probabilities spilled to disk in " + 
+                    spillStore.getNumRuns() + " runs");
+            try {
+                summary = spilledSummary();
+            } finally {
+                spillStore.close();
+            }
+            mainLog.println(numTraces + " traces found");
+            return;
+        }
         
         computeSecretTraceCondProbs();
         
         if(!bounded)
-            mainLog.println(traceProbs.size() + " traces found");
+            mainLog.println(traceProbs.length + " traces found");
+        
+    }
+    
+    private InterLeakComputerExp(boolean entropyType, PrismLog mainLog) {
+        
+        this.entropyType = entropyType;
+        this.mainLog = mainLog;
+    }
+    
+    /**
+     * Compute bounded leakage of all times t = 0, ..., numSteps-1 by a single exploration of traceModel, 
+     * which extends the paths of time t to time t+1. Leakage of time t is computed after setTime(t).
+     * 
+     * @return the leakage computer of the traces of all times
+     */
+    public static InterLeakComputerExp exploreAllSteps(ProbModelTraceExplorer traceModel, int numSteps, 
+            boolean entropyType, PrismLog mainLog) throws PrismException {
+        
+        InterLeakComputerExp computer = new InterLeakComputerExp(entropyType, mainLog);
+        computer.expModel = traceModel;
+        traceModel.exploreModelSteps(numSteps);
+        computer.computeSecretTraceCondProbs();
+        return computer;
+    }
+    
+    /**
+     * The explorer of the traces of method, with numThreads worker threads for the trace-based method 
+     * (1: sequential exploration) and the prior knowledge of initDistFileName (null: uniform)
+     * 
+     * @return an explorer of leakModel, which is not explored yet
+     */
+    public static ProbModelTraceExplorer createExplorer(LeakModel leakModel, int method, int numThreads, 
+            String initDistFileName) throws PrismException {
         
+        if (method == BACK_BISIMULATION_METHOD)
+            return new ProbModelBackBisimExplorer(leakModel, initDistFileName);
+        return new ProbModelTraceExplorer(leakModel, initDistFileName, numThreads);
     }
     
     /**
+     * Compute leakage of time t only, after the constructor for all times
+     * 
+     */
+    public void setTime(int t) {
+        
+        firstTrace = expModel.getStepStart(t);
+        endTrace = expModel.getStepStart(t + 1);
+        summary = null;
+    }
+    
+    /**
+     * Turn the rows Pr(T, h) of the trace store into Pr(h|T) and compute Pr(T)
      * 
-     * @param traceSecretDist contains trace-secret probabilities: Pr(T=\bar{T}, h=\bar{h})
      */
     public void computeSecretTraceCondProbs(){
         
-        List<String> tr;
-        Map<String, Double> trSecretDist;
-        traceProbs = new HashMap<>(); // Pr(T)
+        traces = expModel.getTraceStore(); // Pr(h,T)
+        traceProbs = new double[traces.getNumTraces()]; // Pr(T)
         
-        secretTraceCondProbs = expModel.getTraceSecretDist(); // Pr(h,T)
-        for(Map.Entry<List<String>, Map<String, Double>> entry: secretTraceCondProbs.entrySet()){
+        for(int t=0; t < traces.getNumTraces(); t++){
             
-            tr = entry.getKey();
-            trSecretDist = entry.getValue(); // pr(h|T=tr)
+            double[] trSecretDist = traces.getRow(t);
             
-            double trProb = trSecretDist.values().stream().mapToDouble(d->d).sum(); // Pr(T=tr)
-            trSecretDist.replaceAll((k, v) -> v/trProb);
+            double trProb = 0; // Pr(T=t)
+            for(double p: trSecretDist)
+                trProb += p;
+            for(int h=0; h < trSecretDist.length; h++) // pr(h|T=t)
+                trSecretDist[h] /= trProb;
             
-            traceProbs.put(tr, trProb);
+            traceProbs[t] = trProb;
+        }
+        
+        firstTrace = 0;
+        endTrace = traceProbs.length;
+        summary = null;
+    }
+    
+    /**
+     * All leakage metrics are computed by a single pass over the traces, on the first call
+     * 
+     * @return leakage metrics of the traces
+     */
+    public LeakageSummary summary() {
+        
+        if(summary == null) {
+            summary = new LeakageSummary(entropyType, expModel.getPriorKnowledge());
+            for(int t=firstTrace; t < endTrace; t++)
+                summary.add(traceProbs[t], traces.getRow(t)); // Pr(T=t), Pr(h|T=t)
+            summary.finish();
+        }
+        return summary;
+    }
+    
+    /**
+     * Leakage metrics of the traces spilled to disk, by two streaming passes over the merged runs of spillStore: 
+     * the first one for expected, min and max leakage, the second one for their probabilities and the histogram
+     * 
+     * @return leakage metrics of the traces
+     */
+    private LeakageSummary spilledSummary() throws PrismException {
+        
+        LeakageSummary spilled = new LeakageSummary(entropyType, expModel.getPriorKnowledge(), false);
+        double[] posterior = new double[expModel.getTraceStore().getNumSecrets()];
+        numTraces = spillStore.visitRows(row -> spilled.add(posterior(row, posterior), posterior));
+        spillStore.visitRows(row -> spilled.addAgain(posterior(row, posterior), posterior));
+        return spilled.finish();
+    }
+    
+    /**
+     * Compute posterior Pr(h|T) from row Pr(T, h)
+     * 
+     * @return Pr(T)
+     */
+    private static double posterior(double[] row, double[] posterior) {
+        
+        double trProb = 0; // Pr(T)
+        for(double p: row)
+            trProb += p;
+        for(int h=0; h < row.length; h++) // pr(h|T)
+            posterior[h] = row[h] / trProb;
+        return trProb;
+    }
+    
+    /**
+     * The channel is computed from Pr(T,h) of the prior knowledge of the exploration, 
+     * which should give a positive probability to each secret
+     * 
+     * @return the channel Pr(T|h) of the traces
+     */
+    public LeakChannel getChannel() throws PrismException {
+        
+        if(spillStore != null)
+            throw new PrismException("The channel cannot be computed from traces spilled to disk");
+        
+        String[] secrets = expModel.getInitialSecrets();
+        Map<String, Double> prior = expModel.getPriorKnowledge();
+        int n = secrets.length;
+        int numTraces = endTrace - firstTrace;
+        
+        double[] matrix = new double[numTraces * n];
+        for(int h=0; h < n; h++) {
+            double mu = prior.get(secrets[h]); // Pr(h)
+            if(mu <= 0)
+                throw new PrismException("The channel cannot be computed, since secret " + secrets[h] + " has probability 0");
+            int col = traces.getSecretIndex(secrets[h]);
+            for(int t=firstTrace; t < endTrace; t++) // Pr(T=t|h) = Pr(T=t) * Pr(h|T=t) / Pr(h)
+                matrix[(t-firstTrace)*n + h] = traceProbs[t] * traces.getRow(t)[col] / mu;
         }
+        
+        return new LeakChannel(secrets, numTraces, matrix);
     }
     
     /**
@@ -83,10 +267,7 @@ public class InterLeakComputerExp {
      */
     public double expectedLeakage() throws PrismException {
 
-        double initialUncertainty = initialUncertainty();
-        double remainingUncertainty = remainingUncertainty();
-        double leakage = initialUncertainty - remainingUncertainty;
-        return leakage;
+        return summary().getExpectedLeakage();
     }
     
     /**
@@ -96,22 +277,7 @@ public class InterLeakComputerExp {
      */
     public double remainingUncertainty() throws PrismException {
         
-        List<String> tr;
-        Map<String, Double> trSecretDist;
-        double trProb, trFinalEntropy;
-        
-        double remaining_uncertainty = 0; // H(h|T)
-        for(Map.Entry<List<String>, Double> entry: traceProbs.entrySet()){
-            
-            tr = entry.getKey();
-            trProb = entry.getValue(); // Pr(T=tr)
-            trSecretDist = secretTraceCondProbs.get(tr); // Pr(h|T=tr)
-            trFinalEntropy = entropy(trSecretDist); // H(h|T=tr)
-            
-            remaining_uncertainty += trProb * trFinalEntropy;     
-        }
-        
-        return remaining_uncertainty;
+        return summary().getRemainingUncertainty();
     }
     
     /**
@@ -133,11 +299,7 @@ public class InterLeakComputerExp {
      */
     public double maxLeakage(){
         
-        // compute minimum posterior entropy: min(H(h|T=tr)) for all traces tr
-        double minimumEntropy = minimumEntropy();
-        double initialUncertainty = initialUncertainty();
-        double maxLeakage = initialUncertainty - minimumEntropy;
-        return maxLeakage;
+        return summary().getMaxLeakage();
     }
     
     /**
@@ -147,11 +309,7 @@ public class InterLeakComputerExp {
      */
     public double minLeakage(){
         
-        // compute maximum posterior entropy: max(H(h|T=tr)) for all traces tr
-        double maximumEntropy = maximumEntropy();
-        double initialUncertainty = initialUncertainty();
-        double leakage = initialUncertainty - maximumEntropy;
-        return leakage;
+        return summary().getMinLeakage();
     }
     
     /**
@@ -161,26 +319,7 @@ public class InterLeakComputerExp {
      */
     public double probMaxLeakage(){
         
-        // compute minimum posterior entropy 
-        double minimumEntropy = minimumEntropy();
-        
-        // compute probability of maximum leakage
-        List<String> tr;
-        Map<String, Double> trSecretDistribution;
-        double trFinalEntropy;
-        
-        double probMaxLeakage = 0;
-        for(Map.Entry<List<String>, Double> entry: traceProbs.entrySet()){
-            
-            tr = entry.getKey();
-            trSecretDistribution = secretTraceCondProbs.get(tr);
-            
-            trFinalEntropy = entropy(trSecretDistribution);
-            if(minimumEntropy == trFinalEntropy)
-                probMaxLeakage += traceProbs.get(tr);
-        }
-
-        return probMaxLeakage;
+        return summary().getProbMaxLeakage();
     }
     
     /**
@@ -190,26 +329,7 @@ public class InterLeakComputerExp {
      */
     public double probMinLeakage(){
         
-        // compute maximum posterior entropy of traces
-        double maximumEntropy = maximumEntropy();
-        
-        // compute probability of minimum leakage
-        List<String> tr;
-        Map<String, Double> trSecretDistribution;
-        double trFinalEntropy;
-        
-        double probMinLeakage = 0;
-        for(Map.Entry<List<String>, Double> entry: traceProbs.entrySet()){
-            
-            tr = entry.getKey();
-            trSecretDistribution = secretTraceCondProbs.get(tr);
-            
-            trFinalEntropy = entropy(trSecretDistribution);
-            if(maximumEntropy == trFinalEntropy)
-                probMinLeakage += traceProbs.get(tr);
-        }
-
-        return probMinLeakage;
+        return summary().getProbMinLeakage();
     }
     
     /**
@@ -218,22 +338,7 @@ public class InterLeakComputerExp {
      */
     public double maximumEntropy() {
         
-        List<String> tr;
-        Map<String, Double> trSecretDistribution;
-        double trFinalEntropy;
-        
-        double maximumEntropy = -1;
-        for(Map.Entry<List<String>, Double> entry: traceProbs.entrySet()){
-            
-            tr = entry.getKey();
-            trSecretDistribution = secretTraceCondProbs.get(tr);
-        
-            trFinalEntropy = entropy(trSecretDistribution);
-            if(maximumEntropy < trFinalEntropy)
-                maximumEntropy = trFinalEntropy;
-        }
-        
-        return maximumEntropy;
+        return summary().getMaximumEntropy();
     }
     
     /**
@@ -242,22 +347,7 @@ public class InterLeakComputerExp {
      */
     public double minimumEntropy() {
         
-        // compute minimum posterior entropy
-        List<String> tr;
-        Map<String, Double> trSecretDistribution;
-        double trFinalEntropy;
-        
-        double minimumEntropy = Double.MAX_VALUE;
-        for(Map.Entry<List<String>, Double> entry: traceProbs.entrySet()){
-            
-            tr = entry.getKey();
-            trSecretDistribution = secretTraceCondProbs.get(tr);
-        
-            trFinalEntropy = entropy(trSecretDistribution);
-            if(minimumEntropy > trFinalEntropy)
-                minimumEntropy = trFinalEntropy;
-        }
-        return minimumEntropy;
+        return summary().getMinimumEntropy();
     }
     
     
@@ -268,29 +358,16 @@ public class InterLeakComputerExp {
     public List<List<String>> tracesMaxProbability(){
         
         // compute max probability of all trace probabilities
-        List<String> tr;
-        double trProb;
-        
         double maxTraceProb = -1;
-        for(Map.Entry<List<String>, Double> entry: traceProbs.entrySet()){
-            
-            tr = entry.getKey();
-            trProb = entry.getValue();
-            
-            if(trProb > maxTraceProb)
-                maxTraceProb = trProb;
-        }
+        for(int t=firstTrace; t < endTrace; t++)
+            maxTraceProb = Math.max(maxTraceProb, traceProbs[t]);
+        
         // find traces with maximum probability
         List<List<String>> tracesMaxProb = new ArrayList<>();
+        for(int t=firstTrace; t < endTrace; t++)
+            if(traceProbs[t] == maxTraceProb)
+                tracesMaxProb.add(traces.getTrace(traces.getTraceNode(t)));
         
-        for(Map.Entry<List<String>, Double> entry: traceProbs.entrySet()){
-            
-            tr = entry.getKey();
-            trProb = entry.getValue();
-            
-            if(trProb == maxTraceProb)
-                tracesMaxProb.add(tr);
-        }
         return tracesMaxProb;
     }
     
@@ -303,23 +380,7 @@ public class InterLeakComputerExp {
      */
     public double probCompleteLeakage() {
         
-        List<String> tr;
-        Map<String, Double> trSecretDistribution;
-        double trFinalEntropy, trProb;
-        
-        double probCompleteLeakage = 0;
-        for(Map.Entry<List<String>, Double> entry: traceProbs.entrySet()){
-            
-            tr = entry.getKey();
-            trSecretDistribution = secretTraceCondProbs.get(tr);
-        
-            trFinalEntropy = entropy(trSecretDistribution);
-            if(trFinalEntropy == 0.0) { // complete leakage
-                trProb = traceProbs.get(tr);
-                probCompleteLeakage += trProb;
-            }
-        }
-        return probCompleteLeakage;
+        return summary().getProbCompleteLeakage();
     }
     
     /**
@@ -334,13 +395,25 @@ public class InterLeakComputerExp {
             return shannonEntropy(distribution);
     }
     
+    /**
+     * 
+     * @return Shannon or min-entropy of distribution, given as an array of probabilities
+     */
+    public double entropy(double[] distribution) {
+        
+        if(entropyType == MIN_ENTROPY)
+            return minEntropy(distribution);
+        else // SHANNON_ENTROPY
+            return shannonEntropy(distribution);
+    }
+    
     /**
      * 
      * @param distribution contains elements as String and their probabilities as Double
      * @return min-entropy of the distribution
      * 
      */
-    public double minEntropy(Map<String, Double> distribution){
+    public static double minEntropy(Map<String, Double> distribution){
         double max_prob = -1.0;
         for(Map.Entry<String, Double> entry: distribution.entrySet()){
             double prob = entry.getValue();
@@ -350,13 +423,27 @@ public class InterLeakComputerExp {
         return d;
     }
     
+    /**
+     * 
+     * @param distribution contains probabilities of elements
+     * @return min-entropy of the distribution
+     * 
+     */
+    public static double minEntropy(double[] distribution){
+        double max_prob = -1.0;
+        for(double prob: distribution)
+            max_prob = Math.max(prob, max_prob);
+        double d =  - Logarithm.log2(max_prob);
+        return d;
+    }
+    
     /**
      * 
      * @param distribution contains elements as String and their probabilities as Double
      * @return Shannon entropy of the distribution
      * 
      */
-    public double shannonEntropy(Map<String, Double> distribution){
+    public static double shannonEntropy(Map<String, Double> distribution){
         double shannon = 0;
         for(Map.Entry<String, Double> entry: distribution.entrySet()){
             double p = entry.getValue();
@@ -368,17 +455,32 @@ public class InterLeakComputerExp {
         return -shannon;
     }
     
+    /**
+     * 
+     * @param distribution contains probabilities of elements
+     * @return Shannon entropy of the distribution
+     * 
+     */
+    public static double shannonEntropy(double[] distribution){
+        double shannon = 0;
+        for(double p: distribution){
+            if(p != 0) {
+                double log_p =  Logarithm.log2(p);
+                shannon += p * log_p;
+            }
+        }
+        return -shannon;
+    }
+    
     public void printModelInfo(String modelFilename) {
-        List<String> tr;
-        Map<String, Double> dist;
         String modelInfoFileName = modelFilename.substring(0, modelFilename.lastIndexOf('.'));
 
         try (PrintWriter outFile = new PrintWriter(modelInfoFileName)) {
-            outFile.println(secretTraceCondProbs.size());
-            for(Map.Entry<List<String>, Map<String, Double>> entry: secretTraceCondProbs.entrySet()){
+            outFile.println(traces.getNumTraces());
+            for(int t=0; t < traces.getNumTraces(); t++){
                 
-                tr = entry.getKey();
-                dist = entry.getValue();
+                List<String> tr = traces.getTrace(traces.getTraceNode(t));
+                Map<String, Double> dist = traces.rowToMap(traces.getRow(t));
                 outFile.println(tr + ":" + dist);
       
             }
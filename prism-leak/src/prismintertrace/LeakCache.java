@@ -0,0 +1,139 @@
+package prismintertrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import parser.Values;
+import parser.VarList;
+import parser.ast.ModulesFile;
+import prism.PrismException;
+
+/**
+*
+*	A persistent cache of the channels of models, in a directory. A channel is stored in a file named by a key,
+*	which is a SHA-256 hash of the model description, the values of its constants, the observability declarations of
+*	its variables, the kind of leakage (traces or outputs), the cutoff of the exploration of models with cycles and
+*	the reductions (partial-order or symmetry) of the model it was computed from.
+*	Since the channel does not depend on the prior knowledge or on the entropy used, leakage of a model which is
+*	analysed again with other priors or metrics is computed from the cached channel, without building the model.
+*	A file of an older version of the channel format is not used, and the channel is computed again.
+*
+* @author Ali A. Noroozi
+*/
+
+public class LeakCache {
+
+	private static final int VERSION = 1; // changes when the data of the key or the channel format change
+
+	private final File dir;
+
+	public LeakCache(File dir) {
+
+		this.dir = dir;
+	}
+
+	/**
+	 *
+	 * @return key of the channel of modulesFile, with constants, variables varList, of traces (interleak) or outputs,
+	 * of the model built with partial-order reduction (por) and symmetry reduction (symm) or without
+	 */
+	public static String key(ModulesFile modulesFile, Values constants, VarList varList, boolean interleak,
+			double massCutoff, boolean por, boolean symm) throws PrismException {
+
+		return hash(modelData(modulesFile, constants, varList) + (interleak ? "traces" : "outputs") + ' ' + massCutoff
+				+ (por ? " por" : "") + (symm ? " symm" : ""));
+	}
+
+	/**
+	 *
+	 * @return key of modulesFile, with constants and variables varList, which identifies the built model
+	 */
+	public static String modelKey(ModulesFile modulesFile, Values constants, VarList varList) throws PrismException {
+
+		return hash(modelData(modulesFile, constants, varList));
+	}
+
+	private static String modelData(ModulesFile modulesFile, Values constants, VarList varList) {
+
+		StringBuilder data = new StringBuilder();
+		data.append("version ").append(VERSION).append('\n');
+		data.append(modulesFile).append('\n');
+		data.append("constants ").append(constants).append('\n');
+		// the printed model may not show the observability of variables
+		for (int v = 0; v < varList.getNumVars(); v++)
+			data.append(varList.getName(v)).append(' ').append(varList.getDeclaration(v).getObservabilityType()).append('\n');
+		return data.toString();
+	}
+
+	/**
+	 *
+	 * @return SHA-256 hash of data, in hexadecimal
+	 */
+	private static String hash(String data) throws PrismException {
+
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(data.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for (byte b : hash)
+				key.append(String.format("%02x", b));
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new PrismException("Cannot hash the model for the leakage cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 *
+	 * @return file of the channel of key
+	 */
+	public File getFile(String key) {
+
+		return new File(dir, key + ".lkch");
+	}
+
+	/**
+	 *
+	 * @return the cached channel of key, or null if there is none
+	 */
+	public LeakChannel load(String key) {
+
+		File file = getFile(key);
+		if (!file.isFile())
+			return null;
+		try {
+			return LeakChannel.read(file.getPath());
+		} catch (PrismException e) {
+			// a file of another version, or a damaged file, is replaced
+			return null;
+		}
+	}
+
+	/**
+	 * Store the channel of key. It is written to a temporary file, which is then renamed, so that another run
+	 * never reads a part of a channel.
+	 *
+	 */
+	public void store(String key, LeakChannel channel) throws PrismException {
+
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new PrismException("Cannot create the leakage cache directory \"" + dir + "\"");
+		File file = getFile(key);
+		try {
+			File tmp = File.createTempFile(key, ".tmp", dir);
+			channel.write(tmp.getPath());
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					tmp.delete();
+					throw new PrismException("Cannot write the channel to \"" + file + "\"");
+				}
+			}
+		} catch (IOException e) {
+			throw new PrismException("File I/O error writing to the leakage cache \"" + dir + "\"");
+		}
+	}
+
+}
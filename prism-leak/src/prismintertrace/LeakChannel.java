@@ -0,0 +1,237 @@
+package prismintertrace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import prism.PrismException;
+
+/**
+*
+*	The channel of a model: the probabilities Pr(o|h) of observations (traces or outputs) given each secret,
+*	which do not depend on the prior knowledge Pr(h). The channel is computed by one exploration of the model,
+*	and then leakage of any prior is computed from Pr(o,h) = Pr(h) * Pr(o|h), without exploring the model again.
+*	A channel can be saved to a binary file and loaded again: the file contains the secret data of the initial states
+*	and the matrix of probabilities, but not the observations, since they are not needed for leakage.
+*	The matrix is the last part of the file, as big-endian doubles, so that it is read by memory mapping.
+*
+* @author Ali A. Noroozi
+*/
+
+public class LeakChannel {
+
+	private static final int MAGIC = 0x4c4b4348; // "LKCH"
+	private static final int VERSION = 1;
+	private static final int MAP_DOUBLES = 1 << 27; // doubles of the matrix mapped at once
+
+	final String[] secrets; // secret data of the initial states, in the order of probabilities in initDist files
+	final int numObservations;
+	final double[] matrix; // Pr(o|h) of observation o and secret h is matrix[o * secrets.length + h]
+
+	public LeakChannel(String[] secrets, int numObservations, double[] matrix) {
+
+		this.secrets = secrets;
+		this.numObservations = numObservations;
+		this.matrix = matrix;
+	}
+
+	/**
+	 *
+	 * @return number of secrets
+	 */
+	public int getNumSecrets() {
+
+		return secrets.length;
+	}
+
+	/**
+	 *
+	 * @return number of observations (traces or outputs)
+	 */
+	public int getNumObservations() {
+
+		return numObservations;
+	}
+
+	/**
+	 * Compute all leakage metrics of prior knowledge prior by a single pass over the observations
+	 *
+	 * @return leakage metrics of the channel with prior knowledge prior
+	 */
+	public LeakageSummary leakage(Map<String, Double> prior, boolean entropyType) {
+
+		int n = secrets.length;
+		double[] mu = new double[n]; // Pr(h)
+		for (int h = 0; h < n; h++)
+			mu[h] = prior.getOrDefault(secrets[h], 0.0);
+
+		LeakageSummary summary = new LeakageSummary(entropyType, prior);
+		double[] row = new double[n];
+		for (int o = 0; o < numObservations; o++) {
+			int base = o * n;
+			double prob = 0; // Pr(o)
+			for (int h = 0; h < n; h++) {
+				row[h] = mu[h] * matrix[base + h]; // Pr(o,h)
+				prob += row[h];
+			}
+			if (prob == 0)
+				continue;
+			for (int h = 0; h < n; h++) // Pr(h|o)
+				row[h] /= prob;
+			summary.add(prob, row);
+		}
+		return summary.finish();
+	}
+
+	/**
+	 *
+	 * @return uniform probability distribution of the secrets
+	 */
+	public Map<String, Double> uniformPrior() {
+
+		Map<String, Double> prior = new HashMap<>();
+		for (String h : secrets)
+			prior.put(h, 1.0 / secrets.length);
+		return prior;
+	}
+
+	/**
+	 * Read prior knowledge from initDistFileName, which contains the probabilities of the initial states, as for -initdist
+	 *
+	 * @return probability distribution of the secrets
+	 */
+	public Map<String, Double> readPrior(String initDistFileName) throws PrismException {
+
+		return readPrior(initDistFileName, secrets);
+	}
+
+	/**
+	 * Read prior knowledge from initDistFileName, which contains the probabilities of the initial states, as for -initdist,
+	 * where secrets are the secret data of the initial states
+	 *
+	 * @return probability distribution of the secrets
+	 */
+	public static Map<String, Double> readPrior(String initDistFileName, String[] secrets) throws PrismException {
+
+		List<Double> initDist = new ArrayList<>();
+		double initDistSum = 0.0;
+		int lineNum = 0;
+
+		try (BufferedReader in = new BufferedReader(new FileReader(initDistFileName))) {
+			String l = in.readLine();
+			lineNum++;
+			while (l != null) {
+				l = l.trim();
+				if (!("".equals(l))) {
+					double d = Double.parseDouble(l);
+					initDist.add(d);
+					initDistSum += d;
+				}
+				l = in.readLine();
+				lineNum++;
+			}
+		} catch (IOException e) {
+			throw new PrismException("File I/O error reading from \"" + initDistFileName + "\"");
+		} catch (NumberFormatException e) {
+			throw new PrismException("Error detected at line " + lineNum + " of file \"" + initDistFileName + "\"");
+		}
+
+		if (initDist.size() != secrets.length)
+			throw new PrismException("initDist file should contain " + secrets.length + " probabilities");
+		if (Math.abs(initDistSum - 1.0) > 0.001)
+			throw new PrismException("Sume of probabilities in \"" + initDistFileName + "\" should be equal to 1.0");
+
+		Map<String, Double> prior = new HashMap<>();
+		for (int h = 0; h < secrets.length; h++)
+			prior.put(secrets[h], initDist.get(h));
+		return prior;
+	}
+
+	/**
+	 * Save the channel to binary file fileName
+	 *
+	 */
+	public void write(String fileName) throws PrismException {
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(secrets.length);
+			for (String h : secrets)
+				out.writeUTF(h);
+			out.writeInt(numObservations);
+			for (double p : matrix)
+				out.writeDouble(p);
+		} catch (IOException e) {
+			throw new PrismException("File I/O error writing to \"" + fileName + "\"");
+		}
+	}
+
+	/**
+	 * Load a channel saved by write(). The matrix, at the end of the file, is read from a memory-mapped buffer.
+	 *
+	 * @return the channel of binary file fileName
+	 */
+	public static LeakChannel read(String fileName) throws PrismException {
+
+		try (FileChannel file = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new PrismException("\"" + fileName + "\" is not a channel file");
+			int numSecrets = in.readInt();
+			if (numSecrets < 0)
+				throw new PrismException("\"" + fileName + "\" is not a channel file");
+			String[] secrets = new String[numSecrets];
+			// the header is the magic number, version and number of secrets, the secrets and the number of observations
+			long pos = 3 * Integer.BYTES;
+			for (int h = 0; h < secrets.length; h++) {
+				secrets[h] = in.readUTF();
+				pos += 2 + utfLength(secrets[h]);
+			}
+			int numObservations = in.readInt();
+			pos += Integer.BYTES;
+			long size = (long) numObservations * secrets.length;
+			// a truncated or padded file is not read
+			if (numObservations < 0 || size > Integer.MAX_VALUE || file.size() != pos + size * Double.BYTES)
+				throw new PrismException("\"" + fileName + "\" is not a channel file");
+			double[] matrix = new double[(int) size];
+			for (int k = 0; k < matrix.length; ) {
+				int n = Math.min(matrix.length - k, MAP_DOUBLES);
+				file.map(FileChannel.MapMode.READ_ONLY, pos, (long) n * Double.BYTES).asDoubleBuffer().get(matrix, k, n);
+				pos += (long) n * Double.BYTES;
+				k += n;
+			}
+			return new LeakChannel(secrets, numObservations, matrix);
+		} catch (IOException e) {
+			throw new PrismException("File I/O error reading from \"" + fileName + "\"");
+		}
+	}
+
+	/**
+	 *
+	 * @return number of bytes of s written by writeUTF(), after its length
+	 */
+	private static int utfLength(String s) {
+
+		int n = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			n += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,108 @@
+package prismintertrace;
+
+import java.util.Arrays;
+
+import explicit.DTMC;
+import parser.State;
+import parser.VarList;
+import prism.PrismException;
+import prism.ProbModel;
+import prism.StateListMTBDD;
+
+/**
+*
+*	The explicit form of a DTMC used by the leak explorers: the table of reachable states (with the
+*	public and secret data of each state), the initial states and the transition matrix.
+*	It is obtained from a symbolic ProbModel, by traversing its MTBDDs and native sparse matrix, or from a DTMC of
+*	the explicit engine, whose states and transitions are read directly, so that no MTBDD is built at all.
+*	Both engines number states in the order of their variable values, so the order of initial states
+*	(and of the probabilities of initDist files) is the same.
+*
+* @author Ali A. Noroozi
+*/
+
+public class LeakModel {
+
+	private final VarList varList;
+	private final StateTable reachStates; // table of reachable states
+	private final int[] startStates; // numbers of initial states, in increasing order
+
+	private final ProbModel probModel; // symbolic model, or null
+	private final DTMC dtmc; // explicit model, or null
+	private LeakTransitionMatrix transitions; // built on first use
+
+	public LeakModel(ProbModel probModel) {
+
+		this.probModel = probModel;
+		this.dtmc = null;
+		this.varList = probModel.getVarList();
+		this.reachStates = ((StateListMTBDD) probModel.getReachableStates()).getStateTable();
+		this.startStates = ((StateListMTBDD) probModel.getStartStates()).getStateIndices();
+	}
+
+	/**
+	 * varList is the variable list of the model description dtmc is constructed from
+	 */
+	public LeakModel(DTMC dtmc, VarList varList) throws PrismException {
+
+		this.probModel = null;
+		this.dtmc = dtmc;
+		this.varList = varList;
+
+		// public and secret data are computed from the states list of the construction, in one pass
+		reachStates = new StateTable(varList, dtmc.getNumStates());
+		int[] values = new int[varList.getNumVars()];
+		int s = 0;
+		for (State state : dtmc.getStatesList()) {
+			for (int v = 0; v < values.length; v++)
+				values[v] = varList.encodeToInt(v, state.varValues[v]);
+			reachStates.setState(s++, values);
+		}
+
+		int[] init = new int[dtmc.getNumInitialStates()];
+		int i = 0;
+		for (int t : dtmc.getInitialStates())
+			init[i++] = t;
+		Arrays.sort(init);
+		startStates = init;
+	}
+
+	/**
+	 *
+	 * @return variable list of the model
+	 */
+	public VarList getVarList() {
+
+		return varList;
+	}
+
+	/**
+	 *
+	 * @return the table of reachable states
+	 */
+	public StateTable getStates() {
+
+		return reachStates;
+	}
+
+	/**
+	 *
+	 * @return numbers of initial states, in increasing order
+	 */
+	public int[] getInitialStates() {
+
+		return startStates;
+	}
+
+	/**
+	 *
+	 * @return transition matrix of the model, which is built on the first call
+	 */
+	public synchronized LeakTransitionMatrix getTransitions() throws PrismException {
+
+		if (transitions == null)
+			transitions = dtmc != null ? new LeakTransitionMatrix(dtmc) : new LeakTransitionMatrix(probModel);
+		return transitions;
+	}
+
+}
@@ -0,0 +1,364 @@
+package prismintertrace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import cern.jet.stat.Probability;
+import parser.State;
+import parser.Values;
+import parser.ast.ModulesFile;
+import prism.PrismComponent;
+import prism.PrismException;
+import simulator.ModulesFileModelGenerator;
+
+/**
+*
+*	Statistical estimation of expected leakage, for models too large to build. Paths are sampled from the model
+*	description, starting from an initial state drawn from the prior knowledge, until they reach a final state.
+*	Each path gives a secret h (the secret data of its initial state) and an observation o: its trace (interleak) or
+*	the public data of its final state. Pr(o,h) is estimated by the frequencies of the pairs, and expected leakage by
+*	the mean over the paths of H(h) - H(h|o), where H(h|o) is the entropy of the estimated posterior of o.
+*	The plug-in estimate of Shannon entropy is biased down, so the Miller-Madow correction is added to H(h|o).
+*	As for the exact methods, a path that takes a self-loop of a non-final state has no observation (it is not counted).
+*	Paths are sampled in batches by worker threads, each with its own model generator and an independent random
+*	number stream, and the counts of the batches are merged.
+*
+* @author Ali A. Noroozi
+*/
+
+public class LeakSimulator {
+
+	// methods of the confidence interval, as for the simulator methods of the same name
+	public static final int CI_METHOD = 0; // Student's t-distribution
+	public static final int ACI_METHOD = 1; // normal approximation
+	public static final int APMC_METHOD = 2; // Chernoff-Hoeffding bound
+
+	public static final int BATCH_SIZE = 1000; // paths sampled by a worker before the counts are merged
+
+	private final boolean interleak;
+	private final boolean entropyType;
+	private final long maxPathLength;
+	private final Worker[] workers;
+
+	private final List<State> initStates; // in the order of probabilities in initDist files
+	private final String[] secrets; // secret data of the initial states
+	private final double[] initCdf; // cumulative prior probabilities of the initial states
+	private final Map<String, Double> prior;
+
+	// counts of the paths: observation -> number of paths of each secret
+	private final Map<String, long[]> counts = new HashMap<>();
+	private long numSamples = 0;
+	private long numRejected = 0; // paths with no observation
+
+	private double leakage, width;
+
+	/**
+	 * constants are the values of the undefined constants of modulesFile, initDistFileName is the prior knowledge
+	 * (null: uniform), and paths longer than maxPathLength are not counted
+	 */
+	public LeakSimulator(ModulesFile modulesFile, Values constants, PrismComponent parent, boolean interleak,
+			boolean entropyType, String initDistFileName, int numThreads, long maxPathLength) throws PrismException {
+
+		this.interleak = interleak;
+		this.entropyType = entropyType;
+		this.maxPathLength = maxPathLength;
+
+		SplittableRandom rng = new SplittableRandom();
+		workers = new Worker[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			ModulesFileModelGenerator generator = new ModulesFileModelGenerator(modulesFile, parent);
+			generator.setSomeUndefinedConstants(constants);
+			workers[i] = new Worker(generator, rng.split());
+		}
+
+		// initial states are sorted, as the states of a built model
+		initStates = workers[0].generator.getInitialStates();
+		Collections.sort(initStates);
+		secrets = new String[initStates.size()];
+		for (int i = 0; i < secrets.length; i++)
+			secrets[i] = workers[0].data.getSecretData(initStates.get(i));
+
+		if (initDistFileName != null)
+			prior = LeakChannel.readPrior(initDistFileName, secrets);
+		else {
+			prior = new HashMap<>();
+			for (String h : secrets)
+				prior.put(h, 1.0 / secrets.length);
+		}
+		initCdf = new double[secrets.length];
+		double sum = 0;
+		for (int i = 0; i < secrets.length; i++) {
+			sum += prior.get(secrets[i]);
+			initCdf[i] = sum;
+		}
+	}
+
+	/**
+	 * Sample paths and estimate expected leakage, with a confidence interval of method (CI_METHOD, ACI_METHOD or
+	 * APMC_METHOD) and confidence level 1 - confidence. If width > 0, paths are sampled until the half-width of the
+	 * interval is at most width (for APMC_METHOD, the number of paths is computed from width in advance); otherwise,
+	 * numSamples paths are sampled and the half-width is computed.
+	 *
+	 */
+	public void simulate(int method, double confidence, double width, long numSamples) throws PrismException {
+
+		ForkJoinPool pool = workers.length > 1 ? new ForkJoinPool(workers.length) : null;
+		try {
+			if (method == APMC_METHOD) {
+				double range = maxUncertainty();
+				if (width > 0)
+					numSamples = Math.max(1, (long) Math.ceil(range * range * Math.log(2 / confidence) / (2 * width * width)));
+				sample(pool, numSamples);
+				estimate();
+				this.width = range * Math.sqrt(Math.log(2 / confidence) / (2 * this.numSamples));
+			}
+			else if (width > 0) {
+				// the number of paths needed is estimated from the variance of the paths so far
+				long needed = (long) BATCH_SIZE * workers.length;
+				while (needed > this.numSamples) {
+					sample(pool, needed - this.numSamples);
+					double variance = estimate();
+					double quantile = quantile(method, confidence);
+					this.width = quantile * Math.sqrt(variance / this.numSamples);
+					needed = (long) Math.ceil(quantile * quantile * variance / (width * width));
+				}
+			}
+			else {
+				sample(pool, numSamples);
+				double variance = estimate();
+				this.width = quantile(method, confidence) * Math.sqrt(variance / this.numSamples);
+			}
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+	}
+
+	private double quantile(int method, double confidence) {
+
+		if (method == CI_METHOD)
+			return numSamples > 1 ? Probability.studentTInverse(confidence, (int) Math.min(numSamples - 1, Integer.MAX_VALUE)) : 0;
+		return Probability.normalInverse(1.0 - confidence / 2.0);
+	}
+
+	/**
+	 *
+	 * @return maximum initial uncertainty (of any prior), which bounds the leakage of a path
+	 */
+	private double maxUncertainty() {
+
+		return Math.log(secrets.length) / Math.log(2);
+	}
+
+	/**
+	 * Sample n more paths, divided between the workers, and merge their counts
+	 *
+	 */
+	private void sample(ForkJoinPool pool, long n) throws PrismException {
+
+		List<Callable<Map<String, long[]>>> tasks = new ArrayList<>();
+		for (int i = 0; i < workers.length; i++) {
+			long share = n / workers.length + (i < n % workers.length ? 1 : 0);
+			Worker worker = workers[i];
+			tasks.add(() -> worker.sample(share));
+		}
+
+		List<Map<String, long[]>> results = new ArrayList<>();
+		if (pool == null)
+			results.add(workers[0].sample(n));
+		else {
+			try {
+				for (Future<Map<String, long[]>> f : pool.invokeAll(tasks))
+					results.add(f.get());
+			} catch (InterruptedException e) {
+				throw new PrismException("Leakage simulation interrupted");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof PrismException)
+					throw (PrismException) e.getCause();
+				throw new PrismException(e.getCause().getMessage());
+			}
+		}
+
+		for (Map<String, long[]> result : results)
+			for (Map.Entry<String, long[]> e : result.entrySet()) {
+				long[] row = counts.computeIfAbsent(e.getKey(), o -> new long[secrets.length]);
+				for (int h = 0; h < row.length; h++)
+					row[h] += e.getValue()[h];
+			}
+		numSamples += n;
+		numRejected = numSamples;
+		for (long[] row : counts.values())
+			for (long c : row)
+				numRejected -= c;
+	}
+
+	/**
+	 * Estimate expected leakage from the counts of the paths so far
+	 *
+	 * @return sample variance of the leakage of a path, H(h) - H(h|o) of its observation o
+	 */
+	private double estimate() {
+
+		double initUncer = getInitialUncertainty();
+		double sum = numRejected * initUncer, sumSq = numRejected * initUncer * initUncer;
+		long nonZero = 0; // observation-secret pairs with a path
+		double[] posterior = new double[secrets.length];
+		for (long[] row : counts.values()) {
+			long n = 0;
+			for (long c : row)
+				n += c;
+			for (int h = 0; h < row.length; h++) {
+				posterior[h] = (double) row[h] / n;
+				if (row[h] > 0)
+					nonZero++;
+			}
+			double x = initUncer - (entropyType == InterLeakComputerExp.MIN_ENTROPY
+					? InterLeakComputerExp.minEntropy(posterior) : InterLeakComputerExp.shannonEntropy(posterior));
+			sum += n * x;
+			sumSq += n * x * x;
+		}
+
+		double mean = sum / numSamples;
+		leakage = mean;
+		// Miller-Madow correction of the plug-in estimate of H(h|o)
+		if (entropyType == InterLeakComputerExp.SHANNON_ENTROPY)
+			leakage -= (nonZero - counts.size()) / (2.0 * numSamples * Math.log(2));
+
+		return numSamples > 1 ? Math.max(0, (sumSq - numSamples * mean * mean) / (numSamples - 1)) : 0;
+	}
+
+	/**
+	 *
+	 * @return initial uncertainty H(h) of the prior knowledge
+	 */
+	public double getInitialUncertainty() {
+
+		return entropyType == InterLeakComputerExp.MIN_ENTROPY
+				? InterLeakComputerExp.minEntropy(prior) : InterLeakComputerExp.shannonEntropy(prior);
+	}
+
+	/**
+	 *
+	 * @return estimate of expected leakage
+	 */
+	public double getExpectedLeakage() {
+
+		return leakage;
+	}
+
+	/**
+	 *
+	 * @return half-width of the confidence interval of expected leakage
+	 */
+	public double getWidth() {
+
+		return width;
+	}
+
+	/**
+	 *
+	 * @return number of paths sampled
+	 */
+	public long getNumSamples() {
+
+		return numSamples;
+	}
+
+	/**
+	 *
+	 * @return number of paths with no observation (self-loop of a non-final state, or longer than the maximum length)
+	 */
+	public long getNumRejected() {
+
+		return numRejected;
+	}
+
+	/**
+	 *
+	 * @return number of different observations of the paths
+	 */
+	public int getNumObservations() {
+
+		return counts.size();
+	}
+
+	/**
+	 * Samples paths with its own model generator and random number stream
+	 */
+	private final class Worker {
+
+		final ModulesFileModelGenerator generator;
+		private final SplittableRandom rng;
+		private final StateData data;
+
+		Worker(ModulesFileModelGenerator generator, SplittableRandom rng) throws PrismException {
+
+			this.generator = generator;
+			this.rng = rng;
+			this.data = new StateData(generator.createVarList());
+		}
+
+		/**
+		 *
+		 * @return counts of n paths: observation -> number of paths of each secret
+		 */
+		Map<String, long[]> sample(long n) throws PrismException {
+
+			Map<String, long[]> result = new HashMap<>();
+			for (long k = 0; k < n; k++) {
+				int i = Arrays.binarySearch(initCdf, rng.nextDouble() * initCdf[initCdf.length - 1]);
+				i = Math.min(i < 0 ? -i - 1 : i, initCdf.length - 1);
+				String o = samplePath(initStates.get(i));
+				if (o != null)
+					result.computeIfAbsent(o, x -> new long[secrets.length])[i]++;
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 * @return observation of a path from state s, or null if the path is not counted
+		 */
+		private String samplePath(State s) throws PrismException {
+
+			StringBuilder trace = new StringBuilder(data.getPublicData(s));
+			for (long step = 0; ; step++) {
+				generator.exploreState(s);
+				int num = generator.getNumTransitions();
+				if (num == 0)
+					break;
+				if (step >= maxPathLength)
+					return null;
+
+				// choose a transition by its probability
+				double r = rng.nextDouble();
+				int t = 0;
+				for (double sum = generator.getTransitionProbability(0); r >= sum && t < num - 1; )
+					sum += generator.getTransitionProbability(++t);
+				State next = generator.computeTransitionTarget(t);
+
+				if (next.equals(s)) {
+					// a final state has only self-loops, and the mass of other self-loops is lost
+					for (int u = 0; u < num; u++)
+						if (!generator.computeTransitionTarget(u).equals(s))
+							return null;
+					break;
+				}
+				s = next;
+				if (interleak)
+					trace.append(',').append(data.getPublicData(s));
+			}
+			return interleak ? trace.toString() : data.getPublicData(s);
+		}
+	}
+
+}
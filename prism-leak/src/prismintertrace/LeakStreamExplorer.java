@@ -0,0 +1,265 @@
+package prismintertrace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import parser.State;
+import prism.ModelGenerator;
+import prism.PrismException;
+
+/**
+*
+*	On-the-fly leakage computation: trace-secret (or output-secret) probabilities are accumulated while states
+*	are generated from the model description by a ModelGenerator, without building the model.
+*	The exploration is forward, layer by layer, as in ProbModelTraceExplorer: the frontier of step t holds the
+*	probability mass of (state, trace so far, secret value) entries of the paths of t transitions, and is discarded
+*	once step t+1 is generated. For final leakage the trace is not kept, so entries are (state, secret value).
+*	Only the frontier and the prefix tree of traces are in memory, so peak memory depends on the width of the frontier,
+*	not on the number of states. A state reached at several steps is generated again at each of them.
+*	As for the other explorers, self-loops of non-final states are ignored. The exploration is meant for acyclic
+*	models, and is exact by default: it goes on until no path is left. For a model with cycles, a cutoff can be
+*	given, and it then stops when the mass of the frontier is at most the cutoff.
+*
+* @author Ali A. Noroozi
+*/
+
+public class LeakStreamExplorer {
+
+	public static final long DEFAULT_MAX_STEPS = 100000; // steps explored before the model is considered non-terminating
+
+	private final ModelGenerator generator;
+	private final StateData data;
+	private final boolean interleak; // traces (intermediate leakage) or outputs (final leakage)
+
+	private final List<State> startStates; // in the order of probabilities in initDist files
+	private final Map<String, Double> priorKnowledge; // probability distribution of the secret variable
+	private final boolean uniform;
+
+	private final TraceStore traces; // traces (or outputs) and their probabilities Pr(T, h)
+
+	private int numSteps = 0;
+	private int maxFrontier = 0; // largest number of frontier entries
+	private long numExplored = 0; // number of states generated (a state reached at several steps is counted at each)
+	private double unexploredMass = 0;
+
+	/**
+	 * initDistFileName is the prior knowledge, as for -initdist (null: uniform)
+	 */
+	public LeakStreamExplorer(ModelGenerator generator, boolean interleak, String initDistFileName) throws PrismException {
+
+		this.generator = generator;
+		this.data = new StateData(generator.createVarList());
+		this.interleak = interleak;
+
+		// initial states are sorted, as the states of a built model
+		startStates = new ArrayList<>(generator.getInitialStates());
+		Collections.sort(startStates);
+		String[] secrets = new String[startStates.size()];
+		for (int i = 0; i < secrets.length; i++)
+			secrets[i] = data.getSecretData(startStates.get(i));
+
+		uniform = initDistFileName == null;
+		if (uniform) {
+			priorKnowledge = new HashMap<>();
+			for (String h : secrets)
+				priorKnowledge.put(h, 1.0 / secrets.length);
+		}
+		else
+			priorKnowledge = LeakChannel.readPrior(initDistFileName, secrets);
+
+		traces = new TraceStore(priorKnowledge.keySet());
+	}
+
+	/**
+	 * Generate the model step by step from the initial states, until no path is left, or, if massCutoff > 0, the mass
+	 * of the paths which have not reached a final state is at most massCutoff (0: exact exploration).
+	 * An exception is thrown after maxSteps steps.
+	 *
+	 */
+	public void explore(double massCutoff, long maxSteps) throws PrismException {
+
+		Map<FrontierEntry, Double> frontier = new HashMap<>();
+		for (State s : startStates) {
+			String h = data.getSecretData(s);
+			int trace = interleak ? traces.extend(TraceStore.EMPTY_TRACE, data.getPublicData(s)) : TraceStore.EMPTY_TRACE;
+			double prob = uniform ? 1.0 / startStates.size() : priorKnowledge.get(h);
+			frontier.merge(new FrontierEntry(s, trace, traces.getSecretIndex(h)), prob, Double::sum);
+		}
+
+		while (!frontier.isEmpty()) {
+
+			maxFrontier = Math.max(maxFrontier, frontier.size());
+			double mass = 0;
+			for (double p : frontier.values())
+				mass += p;
+			if (massCutoff > 0 && mass <= massCutoff && numSteps > 0) {
+				unexploredMass = mass;
+				break;
+			}
+			if (numSteps == maxSteps)
+				throw new PrismException("Paths of more than " + maxSteps + " steps have probability " + mass
+						+ ": the model has cycles or very long paths (use -leakcutoff to stop at a cutoff)");
+
+			// transitions of the states of this step, generated once for all their entries
+			Map<State, Successors> successors = new HashMap<>();
+			Map<FrontierEntry, Double> nextFrontier = new HashMap<>();
+			for (Map.Entry<FrontierEntry, Double> e : frontier.entrySet()) {
+				FrontierEntry entry = e.getKey();
+				Successors succ = successors.get(entry.state);
+				if (succ == null) {
+					succ = new Successors(entry.state);
+					successors.put(entry.state, succ);
+					numExplored++;
+				}
+
+				if (succ.isFinal) {
+					int trace = interleak ? entry.trace : traces.extend(TraceStore.EMPTY_TRACE, data.getPublicData(entry.state));
+					traces.addProb(trace, entry.secret, e.getValue());
+					continue;
+				}
+
+				for (int k = 0; k < succ.targets.length; k++) {
+					State t = succ.targets[k];
+					// self-loops of non-final states are ignored
+					if (t.equals(entry.state))
+						continue;
+					int trace = interleak ? traces.extend(entry.trace, data.getPublicData(t)) : TraceStore.EMPTY_TRACE;
+					nextFrontier.merge(new FrontierEntry(t, trace, entry.secret), e.getValue() * succ.probs[k], Double::sum);
+				}
+			}
+			frontier = nextFrontier;
+			numSteps++;
+		}
+	}
+
+	/**
+	 * Transitions of a state, generated by the model generator
+	 */
+	private final class Successors {
+
+		final State[] targets;
+		final double[] probs;
+		final boolean isFinal; // no successor, or only self-loops
+
+		Successors(State s) throws PrismException {
+
+			generator.exploreState(s);
+			int num = generator.getNumTransitions();
+			targets = new State[num];
+			probs = new double[num];
+			int k = 0;
+			for (int i = 0; i < generator.getNumChoices(); i++)
+				for (int j = 0; j < generator.getNumTransitions(i); j++, k++) {
+					targets[k] = generator.computeTransitionTarget(i, j);
+					probs[k] = generator.getTransitionProbability(i, j);
+				}
+
+			boolean onlySelfLoops = true;
+			for (State t : targets)
+				onlySelfLoops &= t.equals(s);
+			isFinal = onlySelfLoops;
+		}
+	}
+
+	/**
+	 *
+	 * @return leakage metrics of the traces (or outputs) found
+	 */
+	public LeakageSummary summary(boolean entropyType) {
+
+		LeakageSummary summary = new LeakageSummary(entropyType, priorKnowledge);
+		for (int t = 0; t < traces.getNumTraces(); t++) {
+			double[] row = traces.getRow(t);
+			double prob = 0;
+			for (double p : row)
+				prob += p;
+			if (prob == 0)
+				continue;
+			double[] posterior = new double[row.length];
+			for (int h = 0; h < row.length; h++)
+				posterior[h] = row[h] / prob;
+			summary.add(prob, posterior);
+		}
+		return summary.finish();
+	}
+
+	/**
+	 *
+	 * @return number of traces (or outputs) found
+	 */
+	public int getNumObservations() {
+
+		return traces.getNumTraces();
+	}
+
+	/**
+	 *
+	 * @return number of steps explored
+	 */
+	public int getNumSteps() {
+
+		return numSteps;
+	}
+
+	/**
+	 *
+	 * @return largest number of entries of the frontier
+	 */
+	public int getMaxFrontier() {
+
+		return maxFrontier;
+	}
+
+	/**
+	 *
+	 * @return number of states generated, counting a state once for each step it is reached at
+	 */
+	public long getNumExplored() {
+
+		return numExplored;
+	}
+
+	/**
+	 *
+	 * @return probability of the paths left when the exploration stopped at the mass cutoff
+	 */
+	public double getUnexploredMass() {
+
+		return unexploredMass;
+	}
+
+	/**
+	 * A frontier entry: current state, node of the trace so far (EMPTY_TRACE for final leakage) and secret value index
+	 */
+	private static final class FrontierEntry {
+
+		final State state;
+		final int trace;
+		final int secret;
+		final int hash;
+
+		FrontierEntry(State state, int trace, int secret) {
+			this.state = state;
+			this.trace = trace;
+			this.secret = secret;
+			this.hash = 31 * (31 * state.hashCode() + trace) + secret;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof FrontierEntry))
+				return false;
+			FrontierEntry e = (FrontierEntry) o;
+			return trace == e.trace && secret == e.secret && state.equals(e.state);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+}
@@ -0,0 +1,238 @@
+package prismintertrace;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import explicit.DTMC;
+import prism.PrismException;
+import prism.ProbModel;
+import sparse.PrismSparse;
+
+/**
+*
+*	Transition matrix of a ProbModel in compressed sparse row format, copied from the native sparse matrix
+*	in a single call, so that leak explorers traverse transitions without crossing JNI. The native matrix
+*	is freed as soon as it is copied, so instances hold no native memory and can be used from several threads.
+*	The matrix of an explicit DTMC (explicit engine) is copied from its transitions directly.
+*	Transitions of state s are stored in positions rowStart(s), ..., rowEnd(s)-1, in increasing order of target.
+*
+* @author Ali A. Noroozi
+*/
+
+public class LeakTransitionMatrix {
+
+	private int numStates;
+	private int[] rowStarts;
+	private int[] cols;
+	private double[] probs;
+
+	public LeakTransitionMatrix(ProbModel model) throws PrismException {
+
+		long sm = PrismSparse.createSparseMatrix(model.getTrans(), model.getTransSymbol(), model.getAllDDRowVars(), model.getAllDDColVars(), model.getODD());
+		try {
+			numStates = PrismSparse.PS_GetNumStates(sm);
+			int numTransitions = PrismSparse.PS_GetNumTransitions(sm);
+
+			rowStarts = new int[numStates + 1];
+			cols = new int[numTransitions];
+			probs = new double[numTransitions];
+			PrismSparse.PS_ExportSparseMatrix(sm, rowStarts, cols, probs);
+		}
+		finally {
+			// all transitions are now stored in java arrays, so the native matrix is released right away
+			PrismSparse.PS_FreeSparseMatrix(sm);
+		}
+	}
+
+	public LeakTransitionMatrix(DTMC dtmc) {
+
+		numStates = dtmc.getNumStates();
+		rowStarts = new int[numStates + 1];
+		cols = new int[dtmc.getNumTransitions()];
+		probs = new double[cols.length];
+
+		int k = 0;
+		for (int s = 0; s < numStates; s++) {
+			rowStarts[s] = k;
+			for (Iterator<Map.Entry<Integer, Double>> it = dtmc.getTransitionsIterator(s); it.hasNext(); k++) {
+				Map.Entry<Integer, Double> e = it.next();
+				// insertion sort by target, as in the native matrix: rows are short
+				int pos = k;
+				while (pos > rowStarts[s] && cols[pos - 1] > e.getKey()) {
+					cols[pos] = cols[pos - 1];
+					probs[pos] = probs[pos - 1];
+					pos--;
+				}
+				cols[pos] = e.getKey();
+				probs[pos] = e.getValue();
+			}
+		}
+		rowStarts[numStates] = k;
+	}
+
+	/**
+	 *
+	 * @return number of states
+	 */
+	public int getNumStates() {
+
+		return numStates;
+	}
+
+	/**
+	 *
+	 * @return number of transitions
+	 */
+	public int getNumTransitions() {
+
+		return rowStarts[numStates];
+	}
+
+	/**
+	 *
+	 * @return position of the first transition of state s
+	 */
+	public int rowStart(int s) {
+
+		return rowStarts[s];
+	}
+
+	/**
+	 *
+	 * @return position after the last transition of state s
+	 */
+	public int rowEnd(int s) {
+
+		return rowStarts[s + 1];
+	}
+
+	/**
+	 *
+	 * @return target state of the transition in position k
+	 */
+	public int getColumn(int k) {
+
+		return cols[k];
+	}
+
+	/**
+	 *
+	 * @return probability of the transition in position k
+	 */
+	public double getProbability(int k) {
+
+		return probs[k];
+	}
+
+	/**
+	 *
+	 * @return successor states of s. If s has a self-loop, it is included in post(s)
+	 */
+	public int[] post(int s) {
+
+		return Arrays.copyOfRange(cols, rowStarts[s], rowStarts[s + 1]);
+	}
+
+	/**
+	 *
+	 * @return true if s has no successor or the only successor is itself
+	 */
+	public boolean isFinalState(int s) {
+
+		int succSize = rowStarts[s + 1] - rowStarts[s];
+		return succSize == 0 || (succSize == 1 && cols[rowStarts[s]] == s);
+	}
+
+	/**
+	 * Self-loops are not considered as cycles, since they are ignored by the (unbounded) leak explorers
+	 *
+	 * @return true if the transition graph has a cycle of two or more states
+	 */
+	public boolean hasCycles() {
+
+		// iterative DFS: a cycle exists iff an edge leads to a state on the DFS stack
+		byte[] color = new byte[numStates]; // 0: not visited, 1: on the DFS stack, 2: finished
+		int[] stack = new int[numStates];
+		int[] next = new int[numStates]; // position of the next transition to visit from each state on the stack
+
+		for (int root = 0; root < numStates; root++) {
+			if (color[root] != 0)
+				continue;
+
+			int top = 0;
+			stack[0] = root;
+			next[root] = rowStarts[root];
+			color[root] = 1;
+
+			while (top >= 0) {
+				int s = stack[top];
+				if (next[s] == rowStarts[s + 1]) {
+					color[s] = 2;
+					top--;
+					continue;
+				}
+				int t = cols[next[s]++];
+				if (t == s || color[t] == 2)
+					continue;
+				if (color[t] == 1)
+					return true;
+				color[t] = 1;
+				next[t] = rowStarts[t];
+				stack[++top] = t;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 *
+	 * @return for each state s, true if a final state is reachable from s
+	 */
+	public boolean[] canReachFinal() {
+
+		// predecessors in compressed sparse row format
+		int[] predStarts = new int[numStates + 1];
+		for (int k = 0; k < getNumTransitions(); k++)
+			predStarts[cols[k] + 1]++;
+		for (int s = 0; s < numStates; s++)
+			predStarts[s + 1] += predStarts[s];
+		int[] preds = new int[getNumTransitions()];
+		int[] fill = Arrays.copyOf(predStarts, numStates);
+		for (int s = 0; s < numStates; s++)
+			for (int k = rowStarts[s]; k < rowStarts[s + 1]; k++)
+				preds[fill[cols[k]]++] = s;
+
+		// backward breadth-first search from final states
+		boolean[] reach = new boolean[numStates];
+		int[] queue = new int[numStates];
+		int head = 0, tail = 0;
+		for (int s = 0; s < numStates; s++)
+			if (isFinalState(s)) {
+				reach[s] = true;
+				queue[tail++] = s;
+			}
+		while (head < tail) {
+			int t = queue[head++];
+			for (int k = predStarts[t]; k < predStarts[t + 1]; k++)
+				if (!reach[preds[k]]) {
+					reach[preds[k]] = true;
+					queue[tail++] = preds[k];
+				}
+		}
+		return reach;
+	}
+
+	/**
+	 *
+	 * @return transition probability between states i and j (-1 if there is no transition)
+	 */
+	public double getTransitionProb(int i, int j) {
+
+		for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++)
+			if (cols[k] == j)
+				return probs[k];
+		return -1;
+	}
+
+}
@@ -0,0 +1,322 @@
+package prismintertrace;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import prism.PrismUtils;
+
+/**
+*
+*	All leakage metrics of a set of observations (traces or outputs), computed from one pass over the
+*	posterior distributions Pr(h|o): each posterior is given once to add(), which computes its Shannon and
+*	min-entropy, and the metrics are read after finish(). Sums of probabilities are compensated (Kahan summation),
+*	since they can have millions of terms.
+*	Entropies of the chosen type (Shannon or min-entropy) closer than ENTROPY_EPSILON are considered equal.
+*	The probabilities and entropies of the observations are kept until finish(), for the probabilities of min and max
+*	leakage and the histogram. For too many observations, they can be given a second time to addAgain() instead.
+*
+* @author Ali A. Noroozi
+*/
+
+public class LeakageSummary {
+
+	public static final double ENTROPY_EPSILON = 1e-10; // posterior entropies closer than this are considered equal
+	public static final int NUM_BINS = 10; // number of bins of the leakage histogram
+
+	private final boolean entropyType;
+	private final double priorShannon, priorMin; // Shannon and min-entropy of the prior H(h)
+
+	// probabilities and entropies (of entropyType) of the observations added
+	private double[] probs = new double[16];
+	private double[] entropies = new double[16];
+	private final boolean keepObservations; // false: the observations are given again to addAgain()
+	private int size = 0;
+
+	private final KahanSum remainingShannon = new KahanSum(); // H(h|o) for Shannon entropy
+	private final KahanSum remainingMin = new KahanSum(); // H(h|o) for min-entropy
+	private final KahanSum probComplete = new KahanSum();
+	private double minEntropy = Double.MAX_VALUE, maxEntropy = -1;
+
+	// sums of the second pass over the observations
+	private final KahanSum probMin = new KahanSum(), probMax = new KahanSum();
+	private final KahanSum[] bins = new KahanSum[NUM_BINS];
+
+	// computed by finish()
+	private double probMinEntropy, probMaxEntropy;
+	private double[] histogram;
+
+	/**
+	 * entropyType is InterLeakComputerExp.SHANNON_ENTROPY or InterLeakComputerExp.MIN_ENTROPY,
+	 * which is used for min and max leakage
+	 */
+	public LeakageSummary(boolean entropyType, Map<String, Double> prior) {
+
+		this(entropyType, prior, true);
+	}
+
+	/**
+	 * If keepObservations is false, add() does not keep the observations, and each of them has to be given again
+	 * to addAgain() before finish(): the metrics need two passes over the observations, but constant memory
+	 */
+	public LeakageSummary(boolean entropyType, Map<String, Double> prior, boolean keepObservations) {
+
+		this.entropyType = entropyType;
+		this.priorShannon = InterLeakComputerExp.shannonEntropy(prior);
+		this.priorMin = InterLeakComputerExp.minEntropy(prior);
+		this.keepObservations = keepObservations;
+		for (int b = 0; b < NUM_BINS; b++)
+			bins[b] = new KahanSum();
+	}
+
+	/**
+	 * Add an observation with probability prob and posterior Pr(h|o)
+	 *
+	 */
+	public void add(double prob, double[] posterior) {
+
+		add(prob, InterLeakComputerExp.shannonEntropy(posterior), InterLeakComputerExp.minEntropy(posterior));
+	}
+
+	/**
+	 * Add an observation with probability prob and posterior Pr(h|o)
+	 *
+	 */
+	public void add(double prob, Map<String, Double> posterior) {
+
+		add(prob, InterLeakComputerExp.shannonEntropy(posterior), InterLeakComputerExp.minEntropy(posterior));
+	}
+
+	private void add(double prob, double shannon, double min) {
+
+		double entropy = entropyType == InterLeakComputerExp.MIN_ENTROPY ? min : shannon;
+
+		remainingShannon.add(prob * shannon);
+		remainingMin.add(prob * min);
+		if (entropy == 0.0) // complete leakage
+			probComplete.add(prob);
+		minEntropy = Math.min(minEntropy, entropy);
+		maxEntropy = Math.max(maxEntropy, entropy);
+
+		if (!keepObservations) {
+			size++;
+			return;
+		}
+		if (size == probs.length) {
+			probs = Arrays.copyOf(probs, 2 * size);
+			entropies = Arrays.copyOf(entropies, 2 * size);
+		}
+		probs[size] = prob;
+		entropies[size] = entropy;
+		size++;
+	}
+
+	/**
+	 * Second pass over the observations, if they are not kept: add an observation given to add() again, 
+	 * with probability prob and posterior Pr(h|o)
+	 *
+	 */
+	public void addAgain(double prob, double[] posterior) {
+
+		count(prob, entropyType == InterLeakComputerExp.MIN_ENTROPY 
+				? InterLeakComputerExp.minEntropy(posterior) : InterLeakComputerExp.shannonEntropy(posterior));
+	}
+
+	/**
+	 * Add an observation to the probabilities of min and max leakage and to the histogram
+	 *
+	 */
+	private void count(double prob, double entropy) {
+
+		if (PrismUtils.doublesAreClose(minEntropy, entropy, ENTROPY_EPSILON, true))
+			probMin.add(prob);
+		if (PrismUtils.doublesAreClose(maxEntropy, entropy, ENTROPY_EPSILON, true))
+			probMax.add(prob);
+		bins[getBin(entropy)].add(prob);
+	}
+
+	/**
+	 * Compute probabilities of min and max leakage and the leakage histogram, after all observations are added
+	 * (and added again, if they are not kept). Only the entropies of the observations are visited, not their posteriors.
+	 *
+	 */
+	public LeakageSummary finish() {
+
+		if (keepObservations)
+			for (int i = 0; i < size; i++)
+				count(probs[i], entropies[i]);
+
+		probMinEntropy = probMin.get();
+		probMaxEntropy = probMax.get();
+		histogram = new double[NUM_BINS];
+		for (int b = 0; b < NUM_BINS; b++)
+			histogram[b] = bins[b].get();
+
+		// only the results are kept
+		probs = null;
+		entropies = null;
+		return this;
+	}
+
+	/**
+	 * Bins divide [getMinLeakage(), getMaxLeakage()] into NUM_BINS intervals of equal width
+	 *
+	 * @return bin of the leakage of an observation with posterior entropy entropy
+	 */
+	private int getBin(double entropy) {
+
+		double width = (maxEntropy - minEntropy) / NUM_BINS;
+		if (width <= 0)
+			return 0;
+		int b = (int) ((maxEntropy - entropy) / width);
+		return Math.min(b, NUM_BINS - 1);
+	}
+
+	/**
+	 *
+	 * @return number of observations added
+	 */
+	public int getNumObservations() {
+
+		return size;
+	}
+
+	/**
+	 *
+	 * @return initial uncertainty H(h) of entropyType
+	 */
+	public double getInitialUncertainty() {
+
+		return entropyType == InterLeakComputerExp.MIN_ENTROPY ? priorMin : priorShannon;
+	}
+
+	/**
+	 *
+	 * @return remaining uncertainty H(h|o) of entropyType
+	 */
+	public double getRemainingUncertainty() {
+
+		return entropyType == InterLeakComputerExp.MIN_ENTROPY ? remainingMin.get() : remainingShannon.get();
+	}
+
+	/**
+	 *
+	 * @return expected leakage of entropyType
+	 */
+	public double getExpectedLeakage() {
+
+		return getInitialUncertainty() - getRemainingUncertainty();
+	}
+
+	/**
+	 *
+	 * @return expected Shannon leakage
+	 */
+	public double getExpectedShannonLeakage() {
+
+		return priorShannon - remainingShannon.get();
+	}
+
+	/**
+	 *
+	 * @return expected min-entropy leakage
+	 */
+	public double getExpectedMinEntropyLeakage() {
+
+		return priorMin - remainingMin.get();
+	}
+
+	/**
+	 *
+	 * @return minimum posterior entropy: min(H(h|o=out)) for all observations out
+	 */
+	public double getMinimumEntropy() {
+
+		return minEntropy;
+	}
+
+	/**
+	 *
+	 * @return maximum posterior entropy: max(H(h|o=out)) for all observations out
+	 */
+	public double getMaximumEntropy() {
+
+		return maxEntropy;
+	}
+
+	/**
+	 *
+	 * @return maximum leakage
+	 */
+	public double getMaxLeakage() {
+
+		return getInitialUncertainty() - minEntropy;
+	}
+
+	/**
+	 *
+	 * @return minimum leakage
+	 */
+	public double getMinLeakage() {
+
+		return getInitialUncertainty() - maxEntropy;
+	}
+
+	/**
+	 *
+	 * @return probability of maximum leakage
+	 */
+	public double getProbMaxLeakage() {
+
+		return probMinEntropy;
+	}
+
+	/**
+	 *
+	 * @return probability of minimum leakage
+	 */
+	public double getProbMinLeakage() {
+
+		return probMaxEntropy;
+	}
+
+	/**
+	 * Complete leakage occurs in observations that result in entropy of 0
+	 *
+	 * @return probability of complete leakage
+	 */
+	public double getProbCompleteLeakage() {
+
+		return probComplete.get();
+	}
+
+	/**
+	 * Bin b has the leakage interval [getMinLeakage() + b * width, getMinLeakage() + (b+1) * width), where
+	 * width = (getMaxLeakage() - getMinLeakage()) / NUM_BINS, and the last bin includes getMaxLeakage()
+	 *
+	 * @return probabilities of the observations in each bin of leakage
+	 */
+	public double[] getHistogram() {
+
+		return histogram;
+	}
+
+	/**
+	 * Compensated (Kahan) summation
+	 */
+	private static final class KahanSum {
+
+		private double sum = 0, c = 0; // c: lost low-order bits
+
+		void add(double x) {
+			double y = x - c;
+			double t = sum + y;
+			c = (t - sum) - y;
+			sum = t;
+		}
+
+		double get() {
+			return sum;
+		}
+	}
+
+}
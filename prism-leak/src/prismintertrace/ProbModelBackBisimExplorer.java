@@ -0,0 +1,463 @@
+package prismintertrace;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import prism.PrismException;
+import prism.PrismUtils;
+
+/**
+*
+*	A class for computing trace-secret probabilities on the back-bisimulation quotient of ProbModel.
+*	Each state is annotated with the secret value of the initial state it is reached from.
+*	Annotated states are partitioned into classes of back-bisimilar states: states of a class
+*	have the same public data, and for each class C, they receive the same probability from the
+*	predecessors in C. Paths (of the same trace) ending in back-bisimilar states are equally probable,
+*	so traces are explored on the quotient, and the secret distribution of a class is determined by
+*	the number of its states with each secret value.
+*
+* @author Ali A. Noroozi
+*/
+
+public class ProbModelBackBisimExplorer extends ProbModelTraceExplorer {
+
+	// relative tolerance for deciding whether two predecessor probabilities are equal
+	private static final double EPSILON = 1e-12;
+
+	// annotated model: annotated state i is state annotState[i], reached from an initial state with secret value traces.getSecret(annotSecret[i])
+	private int numAnnotStates;
+	private int[] annotState;
+	private int[] annotSecret;
+	private boolean[] annotFinal;
+	private int[] succStart; // successors of annotated state i are succ[succStart[i]], ..., succ[succStart[i+1]-1]
+	private int[] succ;
+	private double[] succProb;
+	private TraceStore traces;
+	private boolean[] isStartState;
+
+	// partition: class c contains annotated states elems[classStart[c]], ..., elems[classEnd[c]-1]
+	private int numClasses;
+	private int[] classOf;
+	private int[] elems;
+	private int[] position; // position of each annotated state in elems
+	private int[] classStart;
+	private int[] classEnd;
+
+	public ProbModelBackBisimExplorer(LeakModel currentModel, String initDistFileName) throws PrismException {
+
+		super(currentModel, initDistFileName);
+	}
+
+	/**
+	 * Compute the back-bisimulation quotient of the model and explore its traces to determine trace-secret probabilities
+	 *
+	 */
+	@Override
+	public void exploreModel(boolean bounded, int boundedStep) throws PrismException {
+
+		createSparseMatrix();
+		detectCycles(bounded);
+
+		buildAnnotatedModel(bounded);
+		initialPartition();
+		refinePartition();
+		exploreQuotient(bounded, boundedStep, false);
+
+		return;
+	}
+
+	/**
+	 * Compute the bounded back-bisimulation quotient once and explore its traces for all times t = 0, ..., numSteps-1
+	 *
+	 */
+	@Override
+	public void exploreModelSteps(int numSteps) throws PrismException {
+
+		createSparseMatrix();
+		detectCycles(true);
+		stepStarts = new int[numSteps + 1];
+
+		buildAnnotatedModel(true);
+		initialPartition();
+		refinePartition();
+		exploreQuotient(true, numSteps - 1, true);
+		stepStarts[numSteps] = traces.getNumTraces();
+
+		return;
+	}
+
+	/**
+	 * Build the model annotated with secret values of initial states. If not bounded, final states have
+	 * no successors and self-loops of non-final states are ignored, as in the trace explorers.
+	 * If the model has cycles, states from which no final state is reachable are left out.
+	 *
+	 */
+	private void buildAnnotatedModel(boolean bounded) {
+
+		traces = getTraceStore();
+
+		isStartState = new boolean[reachStates.getNumStates()];
+		for (int s : startStates)
+			isStartState[s] = true;
+
+		int capacity = Math.max(2 * startStates.length, 16);
+		annotState = new int[capacity];
+		annotSecret = new int[capacity];
+		annotFinal = new boolean[capacity];
+		succStart = new int[capacity + 1];
+		succ = new int[capacity];
+		succProb = new double[capacity];
+		numAnnotStates = 0;
+
+		Map<Long, Integer> annotIndex = new HashMap<>();
+		for (int s : startStates)
+			addAnnotState(s, traces.getSecretIndex(reachStates.getSecretData(s)), annotIndex);
+
+		// annotated states are numbered in breadth-first order, so the successors of
+		// annotated state i are stored right after those of annotated state i-1
+		int numEdges = 0;
+		for (int i = 0; i < numAnnotStates; i++) {
+
+			int s = annotState[i];
+			annotFinal[i] = !bounded && isFinalState(s);
+			succStart[i] = numEdges;
+
+			if (annotFinal[i])
+				continue;
+
+			for (int k = transitions.rowStart(s); k < transitions.rowEnd(s); k++) {
+				int ps = transitions.getColumn(k);
+				if (!bounded && ps == s)
+					continue;
+				if (cyclic && !reachFinal[ps])
+					continue;
+
+				int j = addAnnotState(ps, annotSecret[i], annotIndex);
+				if (numEdges == succ.length) {
+					succ = Arrays.copyOf(succ, 2 * numEdges);
+					succProb = Arrays.copyOf(succProb, 2 * numEdges);
+				}
+				succ[numEdges] = j;
+				succProb[numEdges] = transitions.getProbability(k);
+				numEdges++;
+			}
+		}
+		succStart[numAnnotStates] = numEdges;
+	}
+
+	/**
+	 *
+	 * @return index of annotated state (s, secret), which is added to the annotated model if not present
+	 */
+	private int addAnnotState(int s, int secret, Map<Long, Integer> annotIndex) {
+
+		long key = (long) s * traces.getNumSecrets() + secret;
+		Integer i = annotIndex.get(key);
+		if (i != null)
+			return i;
+
+		if (numAnnotStates == annotState.length) {
+			int capacity = 2 * numAnnotStates;
+			annotState = Arrays.copyOf(annotState, capacity);
+			annotSecret = Arrays.copyOf(annotSecret, capacity);
+			annotFinal = Arrays.copyOf(annotFinal, capacity);
+			succStart = Arrays.copyOf(succStart, capacity + 1);
+		}
+		annotState[numAnnotStates] = s;
+		annotSecret[numAnnotStates] = secret;
+		annotIndex.put(key, numAnnotStates);
+		return numAnnotStates++;
+	}
+
+	/**
+	 *
+	 * @return initial probability of annotated state i (zero, if it is not an initial state)
+	 */
+	private double annotInitialProb(int i) {
+
+		int s = annotState[i];
+		if (isStartState[s] && reachStates.getSecretData(s).equals(traces.getSecret(annotSecret[i])))
+			return initialProb(s);
+		return 0;
+	}
+
+	/**
+	 * Initial partition: annotated states with the same public data, initial probability and finality
+	 *
+	 */
+	private void initialPartition() {
+
+		classOf = new int[numAnnotStates];
+		Map<String, Integer> classIndex = new HashMap<>();
+		for (int i = 0; i < numAnnotStates; i++) {
+			String key = reachStates.getPublicClass(annotState[i]) + ":" + annotFinal[i] + ":" + annotInitialProb(i);
+			Integer c = classIndex.get(key);
+			if (c == null) {
+				c = classIndex.size();
+				classIndex.put(key, c);
+			}
+			classOf[i] = c;
+		}
+		numClasses = classIndex.size();
+
+		// there are at most numAnnotStates classes
+		classStart = new int[numAnnotStates];
+		classEnd = new int[numAnnotStates];
+		for (int i = 0; i < numAnnotStates; i++)
+			classEnd[classOf[i]]++;
+		for (int c = 1; c < numClasses; c++)
+			classEnd[c] += classEnd[c - 1];
+		for (int c = 0; c < numClasses; c++)
+			classStart[c] = (c == 0) ? 0 : classEnd[c - 1];
+
+		elems = new int[numAnnotStates];
+		position = new int[numAnnotStates];
+		int[] next = Arrays.copyOf(classStart, numClasses);
+		for (int i = 0; i < numAnnotStates; i++) {
+			position[i] = next[classOf[i]]++;
+			elems[position[i]] = i;
+		}
+	}
+
+	/**
+	 * Refine the partition until, for each class C, states of a class receive the same probability from C.
+	 * When a class is split, only the new sub-classes (not the largest one, which keeps the class index) are
+	 * added as splitters, so each state is in O(log n) splitters and the refinement takes O(m log n) time.
+	 *
+	 */
+	private void refinePartition() {
+
+		double[] weight = new double[numAnnotStates]; // probability received from the current splitter
+		boolean[] touched = new boolean[numAnnotStates];
+		int[] touchedStates = new int[numAnnotStates];
+		int[] touchedClasses = new int[numAnnotStates];
+		int[] markedCount = new int[numAnnotStates]; // number of touched states moved to the end of each class
+
+		Deque<Integer> splitters = new ArrayDeque<>();
+		for (int c = 0; c < numClasses; c++)
+			splitters.add(c);
+
+		while (!splitters.isEmpty()) {
+
+			int splitter = splitters.poll();
+
+			// probabilities received by successors of the splitter
+			int numTouched = 0;
+			for (int k = classStart[splitter]; k < classEnd[splitter]; k++) {
+				int u = elems[k];
+				for (int e = succStart[u]; e < succStart[u + 1]; e++) {
+					int t = succ[e];
+					if (!touched[t]) {
+						touched[t] = true;
+						touchedStates[numTouched++] = t;
+					}
+					weight[t] += succProb[e];
+				}
+			}
+
+			// move touched states to the end of their classes
+			int numTouchedClasses = 0;
+			for (int k = 0; k < numTouched; k++) {
+				int t = touchedStates[k];
+				int c = classOf[t];
+				if (markedCount[c] == 0)
+					touchedClasses[numTouchedClasses++] = c;
+				swap(position[t], classEnd[c] - 1 - markedCount[c]);
+				markedCount[c]++;
+			}
+
+			for (int k = 0; k < numTouchedClasses; k++) {
+				int c = touchedClasses[k];
+				splitClass(c, markedCount[c], weight, splitters);
+				markedCount[c] = 0;
+			}
+
+			for (int k = 0; k < numTouched; k++) {
+				weight[touchedStates[k]] = 0;
+				touched[touchedStates[k]] = false;
+			}
+		}
+	}
+
+	/**
+	 * Split class c by the probabilities its last numMarked states receive from the current splitter
+	 * (the other states of c receive zero probability). New classes are added to splitters.
+	 *
+	 */
+	private void splitClass(int c, int numMarked, double[] weight, Deque<Integer> splitters) {
+
+		int start = classStart[c];
+		int end = classEnd[c];
+		int firstMarked = end - numMarked;
+
+		// sort marked states by weight
+		Integer[] marked = new Integer[numMarked];
+		for (int k = 0; k < numMarked; k++)
+			marked[k] = elems[firstMarked + k];
+		Arrays.sort(marked, (x, y) -> Double.compare(weight[x], weight[y]));
+		for (int k = 0; k < numMarked; k++) {
+			elems[firstMarked + k] = marked[k];
+			position[marked[k]] = firstMarked + k;
+		}
+
+		// sub-classes are consecutive ranges of elems: first range contains unmarked states (if any)
+		List<Integer> rangeStarts = new ArrayList<>();
+		if (firstMarked > start)
+			rangeStarts.add(start);
+		for (int k = firstMarked; k < end; k++)
+			if (k == firstMarked || !PrismUtils.doublesAreClose(weight[elems[k]], weight[elems[rangeStarts.get(rangeStarts.size() - 1)]], EPSILON, false))
+				rangeStarts.add(k);
+		rangeStarts.add(end);
+
+		int numRanges = rangeStarts.size() - 1;
+		if (numRanges == 1)
+			return;
+
+		// the largest sub-class keeps index c
+		int largest = 0;
+		for (int r = 1; r < numRanges; r++)
+			if (rangeStarts.get(r + 1) - rangeStarts.get(r) > rangeStarts.get(largest + 1) - rangeStarts.get(largest))
+				largest = r;
+
+		for (int r = 0; r < numRanges; r++) {
+			if (r == largest) {
+				classStart[c] = rangeStarts.get(r);
+				classEnd[c] = rangeStarts.get(r + 1);
+				continue;
+			}
+			int newClass = numClasses++;
+			classStart[newClass] = rangeStarts.get(r);
+			classEnd[newClass] = rangeStarts.get(r + 1);
+			for (int k = classStart[newClass]; k < classEnd[newClass]; k++)
+				classOf[elems[k]] = newClass;
+			splitters.add(newClass);
+		}
+	}
+
+	/**
+	 * Swap elements in positions i and j of elems
+	 *
+	 */
+	private void swap(int i, int j) {
+
+		int tmp = elems[i];
+		elems[i] = elems[j];
+		elems[j] = tmp;
+		position[elems[i]] = i;
+		position[elems[j]] = j;
+	}
+
+	/**
+	 * Explore traces of the quotient. Frontier entries hold the probability of reaching each single state of a class
+	 * (which is the same for all states of the class) with a trace.
+	 * If allSteps is set, the frontier of each step up to boundedStep is added to the trace store as the traces of that time.
+	 *
+	 */
+	private void exploreQuotient(boolean bounded, int boundedStep, boolean allSteps) {
+
+		// quotient transitions: probability of moving from the states of class c to a single state of class d
+		int[] representative = new int[numClasses];
+		for (int c = 0; c < numClasses; c++)
+			representative[c] = elems[classStart[c]];
+
+		List<Map<Integer, Double>> quotientSucc = new ArrayList<>();
+		for (int c = 0; c < numClasses; c++)
+			quotientSucc.add(new HashMap<>());
+		for (int u = 0; u < numAnnotStates; u++)
+			for (int e = succStart[u]; e < succStart[u + 1]; e++) {
+				int t = succ[e];
+				if (representative[classOf[t]] == t)
+					quotientSucc.get(classOf[u]).merge(classOf[t], succProb[e], Double::sum);
+			}
+
+		int numSecrets = traces.getNumSecrets();
+		int[][] secretCount = new int[numClasses][numSecrets];
+		for (int i = 0; i < numAnnotStates; i++)
+			secretCount[classOf[i]][annotSecret[i]]++;
+
+		int[] classPublicData = new int[numClasses];
+		for (int c = 0; c < numClasses; c++)
+			classPublicData[c] = reachStates.getPublicClass(annotState[representative[c]]);
+
+		// frontier entries: (class, node of trace) -> probability of each state of the class
+		Map<Long, Double> frontier = new HashMap<>();
+		for (int c = 0; c < numClasses; c++) {
+			double mu = annotInitialProb(representative[c]);
+			if (mu > 0)
+				frontier.put(frontierKey(c, traces.extend(TraceStore.EMPTY_TRACE, classPublicData[c])), mu);
+		}
+
+		int step = 0;
+		while (bounded ? step <= boundedStep : !frontier.isEmpty()) {
+
+			Map<Long, Double> nextFrontier = new HashMap<>();
+			if (allSteps)
+				stepStarts[step] = traces.getNumTraces();
+
+			for (Map.Entry<Long, Double> e : frontier.entrySet()) {
+
+				int c = (int) (e.getKey() >>> 32);
+				int trace = (int) (long) e.getKey();
+				double mass = e.getValue();
+
+				boolean complete = (!bounded && annotFinal[representative[c]]) || (bounded && (allSteps || step == boundedStep));
+				if (complete) {
+					for (int h = 0; h < numSecrets; h++)
+						if (secretCount[c][h] > 0)
+							traces.addProb(trace, h, mass * secretCount[c][h]);
+				}
+				if (!complete || (bounded && step < boundedStep))
+					for (Map.Entry<Integer, Double> q : quotientSucc.get(c).entrySet()) {
+						int d = q.getKey();
+						long key = frontierKey(d, traces.extend(trace, classPublicData[d]));
+						nextFrontier.merge(key, mass * q.getValue(), Double::sum);
+					}
+			}
+
+			frontier = nextFrontier;
+			step++;
+
+			// with cycles, stop when the probability of the partial paths (of all states of the classes) is at most the cutoff
+			if (cyclic) {
+				double mass = 0;
+				for (Map.Entry<Long, Double> e : frontier.entrySet()) {
+					int c = (int) (e.getKey() >>> 32);
+					mass += e.getValue() * (classEnd[c] - classStart[c]);
+				}
+				if (mass <= getMassCutoff()) {
+					unexploredMass = mass;
+					break;
+				}
+			}
+		}
+	}
+
+	private static long frontierKey(int c, int trace) {
+
+		return ((long) c << 32) | (trace & 0xffffffffL);
+	}
+
+	/**
+	 *
+	 * @return number of states of the annotated model
+	 */
+	public int getNumAnnotatedStates() {
+
+		return numAnnotStates;
+	}
+
+	/**
+	 *
+	 * @return number of back-bisimulation classes
+	 */
+	public int getNumClasses() {
+
+		return numClasses;
+	}
+
+}
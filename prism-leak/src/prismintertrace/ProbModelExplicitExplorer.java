@@ -12,13 +12,7 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.TreeMap;
 
-import jdd.JDDNode;
-import jdd.JDDVars;
-import odd.ODDNode;
 import prism.PrismException;
-import prism.ProbModel;
-import prism.StateListMTBDD;
-import sparse.PrismSparse;
 
 /**
 *
@@ -29,24 +23,22 @@ import sparse.PrismSparse;
 
 public class ProbModelExplicitExplorer {
 	
-	private ProbModel currentModel = null;
-	List<ExplicitState> reachStates; // set of reachable states
-	List<ExplicitState> startStates; // set of initial states
+	private LeakModel currentModel = null;
+	StateTable reachStates; // table of reachable states
+	int[] startStates; // numbers of initial states
 	
-	private Map<List<String>, Map<String, Double>> traceSecretDist; // the distribution Pr(T, h), containing trace-secret probabilities: Pr(T=\bar{T}, h=\bar{h}) 
+	private TraceStore traceStore; // traces and the distribution Pr(T, h), containing trace-secret probabilities: Pr(T=\bar{T}, h=\bar{h}) 
 	
 	public static int UNIFORM_PRIOR_KNOWLEDGE = 0; // probability distribution of the secret variable not specified by the user -> uniform distribution assumed
 	public static int INIT_DIST_FILE_PRIOR_KNOWLEDGE = 1; // probability distribution of the secret variable is imported from a file specified by the user
 	private int priorKnowledgeType = UNIFORM_PRIOR_KNOWLEDGE; 
 	Map<String, Double> priorKnowledge; // probability distribution of the secret variable
 	
-	JDDNode matrix;
-	String name;
-	JDDVars rows;
-	JDDVars cols;
-	ODDNode odd;
+	LeakTransitionMatrix transitions; // transition matrix of the model
+	
+	int[] stepStarts; // after exploreModelSteps(), traces of time t are traces stepStarts[t], ..., stepStarts[t+1]-1 of the trace store
 		
-	public ProbModelExplicitExplorer(ProbModel currentModel, String initDistFileName) throws PrismException {
+	public ProbModelExplicitExplorer(LeakModel currentModel, String initDistFileName) throws PrismException {
 		
 		this.currentModel = currentModel;
 		this.reachStates = getStates();
@@ -62,13 +54,10 @@ public class ProbModelExplicitExplorer {
 			this.priorKnowledge = readInitDistribution(initDistFileName);
 		}
 			
-		traceSecretDist = new HashMap<>();
-		
-		matrix = currentModel.getTrans();
-		name = currentModel.getTransSymbol();
-		rows = currentModel.getAllDDRowVars();
-		cols = currentModel.getAllDDColVars();
-		odd = currentModel.getODD();
+		traceStore = new TraceStore(priorKnowledge.keySet());
+		// public data indices of the trace store are the public classes of states
+		for (int c = 0; c < reachStates.getNumPublicClasses(); c++)
+			traceStore.internData(reachStates.getPublicClassData(c));
 		
 	}
 	
@@ -78,27 +67,62 @@ public class ProbModelExplicitExplorer {
 	 */
 	public void exploreModel(boolean bounded, int boundedStep) throws PrismException {
 		
-		double res = PrismSparse.PS_CreateSparseMatrix(matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
-		if (res == -2) {
-			throw new PrismException("Out of memory building transition matrix");
-		}
+		createSparseMatrix();
 		
+		// paths of a cycle are enumerated forever, so cycles are handled by ProbModelTraceExplorer only
+		if (!bounded && transitions.hasCycles())
+			throw new PrismException("The model has cycles, so its paths cannot be enumerated");
          
     	if(bounded) { // bounded
     		
     		long path[] = new long[boundedStep+2];
-    		for (ExplicitState s : startStates)
-    			explorePathsRecur(s.getStateNumber(), path, 0, bounded, boundedStep);
+    		for (int s : startStates)
+    			explorePathsRecur(s, path, 0, bounded, boundedStep);
     	}
     	else // explore whole paths (till final states) 
-    		for (ExplicitState s : startStates)
-    			explorePathsNonRecur(s.getStateNumber());
+    		for (int s : startStates)
+    			explorePathsNonRecur(s);
         
-//        PrismSparse.PS_FreeSparseMatrix(matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
     	
     	return;
     }
 	
+	/**
+	 * Explore the model to determine traces and trace-secret probabilities of paths of exactly t transitions,
+	 * for each time t = 0, ..., numSteps-1. All traces are added to the same trace store: traces of time t 
+	 * have t+1 elements, so they are distinct from the traces of other times.
+	 * This explorer enumerates paths of each time separately; subclasses extend the frontier of time t to time t+1.
+	 * 
+	 */
+	public void exploreModelSteps(int numSteps) throws PrismException {
+		
+		stepStarts = new int[numSteps + 1];
+		for (int t = 0; t < numSteps; t++) {
+			stepStarts[t] = traceStore.getNumTraces();
+			exploreModel(true, t);
+		}
+		stepStarts[numSteps] = traceStore.getNumTraces();
+	}
+	
+	/**
+	 * 
+	 * @return index of the first trace of time t in the trace store, after exploreModelSteps()
+	 */
+	public int getStepStart(int t) {
+		
+		return stepStarts[t];
+	}
+	
+	/**
+	 * Build the sparse transition matrix used by post() and getTransitionProb(), if not already built
+	 * 
+	 */
+	protected void createSparseMatrix() throws PrismException {
+		
+		if (transitions == null)
+			transitions = currentModel.getTransitions();
+	}
+	
 	/**
      * Recursive helper function for explorePaths().
      * Given a state, and an array containing the path from the initial state 
@@ -198,19 +222,20 @@ public class ProbModelExplicitExplorer {
 	 }
 	 
 	 /**
-	  * Add probability path pa to traceProbs and final state of path pa to tracesFinalStates
+	  * Add probability of path pa to Pr(T, h), where T is the trace of pa and h the secret value of its initial state
 	  * 
 	  */
 	 public void handlePath(List<Long> pa) {
 		 
 		 double prob_pa = prob(pa);
-		 List<String> tr = trace(pa);    	 
 		 
-		 Map<String, Double> probs = traceSecretDist.getOrDefault(tr, new HashMap<>());
+		 int tr = TraceStore.EMPTY_TRACE;
+		 for(long s: pa)
+			 tr = traceStore.extend(tr, reachStates.getPublicData((int) s));
+		 
 		 long startSt = pa.get(0);
-		 String secretStartSt = reachStates.get((int)startSt).getSecretData();
-	     probs.put(secretStartSt, probs.getOrDefault(secretStartSt, 0.0) + prob_pa);
-	     traceSecretDist.put(tr, probs);
+		 String secretStartSt = reachStates.getSecretData((int)startSt);
+		 traceStore.addProb(tr, traceStore.getSecretIndex(secretStartSt), prob_pa);
     	 
     	 return;
 	 }
@@ -219,20 +244,18 @@ public class ProbModelExplicitExplorer {
 	  * 
 	  * @return the explicit set of reachable states 
 	  */
-	 public List<ExplicitState> getStates() {
+	 public StateTable getStates() {
 		 
-		 StateListMTBDD states = (StateListMTBDD) currentModel.getReachableStates();
-		 return states.getExplicitStates();
+		 return currentModel.getStates();
 	 }
 
 	 /**
 	  * 
 	  * @return the explicit set of initial states 
 	  */
-	 public List<ExplicitState> getInitialStates() {
+	 public int[] getInitialStates() {
 		 
-		 StateListMTBDD start = (StateListMTBDD) currentModel.getStartStates();
-		 return start.getExplicitStates();
+		 return currentModel.getInitialStates();
 	 }
 	 
 	 /**
@@ -241,7 +264,7 @@ public class ProbModelExplicitExplorer {
 	  */
 	 public int[] post(long s) {
 		 
-		 return PrismSparse.PS_SuccessorStates((int) s, matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
+		 return transitions.post((int) s);
 	 }
 	 
 	 /**
@@ -250,7 +273,7 @@ public class ProbModelExplicitExplorer {
 	  */
 	 public boolean isFinalState(long s) {
 		 
-		 return PrismSparse.isFinalState((int) s, matrix, name, rows, cols, odd);
+		 return transitions.isFinalState((int) s);
 	 }
 	 
 	 /**
@@ -259,7 +282,7 @@ public class ProbModelExplicitExplorer {
 	  */
 	 public double getTransitionProb(long i, long j) {
 		 
-		 return PrismSparse.PS_GetTransitionProb((int) i, (int) j, matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
+		 return transitions.getTransitionProb((int) i, (int) j);
 	 }
 	 
 	 /**
@@ -272,14 +295,19 @@ public class ProbModelExplicitExplorer {
         for(int i=0; i < path.size()-1; i++)
             prob = prob *  getTransitionProb(path.get(i), path.get(i+1));
         
-        double muInit;
+        return initialProb(path.get(0))*prob;
+	 }
+	 
+	 /**
+	  * 
+	  * @return probability of the initial state startSt, i.e. prior probability of its secret value
+	  */
+	 public double initialProb(long startSt) {
+		 
 	    if (priorKnowledgeType == UNIFORM_PRIOR_KNOWLEDGE) // uniform prior knowledge
-	    	 muInit = 1.0 / startStates.size();
-	    else { // prior knowledge determined by the user (It may be uniform or not)
-		    long startSt = path.get(0);
-		    muInit = priorKnowledge.get(reachStates.get((int)startSt).getSecretData());
-	    }
-        return muInit*prob;
+	    	 return 1.0 / startStates.length;
+	    else // prior knowledge determined by the user (It may be uniform or not)
+		    return priorKnowledge.get(reachStates.getSecretData((int)startSt));
 	 }
 	 
 	 /**
@@ -290,7 +318,7 @@ public class ProbModelExplicitExplorer {
 		 
         List<String> trace = new ArrayList<>();
         for(long s: path)
-            trace.add(reachStates.get((int) s).getPublicData(-1));
+            trace.add(reachStates.getPublicData((int) s));
         
         return trace;
 	 }
@@ -326,7 +354,7 @@ public class ProbModelExplicitExplorer {
 			 // Close file
 			 in.close();
 
-			 int startSize = startStates.size();
+			 int startSize = startStates.length;
 			 if(initDist.size() != startSize)
 				 throw new PrismException("initDist file should contain " + startSize + " probabilities");
 			 
@@ -334,8 +362,8 @@ public class ProbModelExplicitExplorer {
 				 throw new PrismException("Sume of probabilities in \"" + initDistFileName + "\" should be equal to 1.0");
 			 
 			 int i=0;
-			 for(ExplicitState s: startStates) {
-				 priorKnowledge.put(s.getSecretData(), initDist.get(i));
+			 for (int s : startStates) {
+				 priorKnowledge.put(reachStates.getSecretData(s), initDist.get(i));
 				 i++;
 			 }
 			 
@@ -349,6 +377,18 @@ public class ProbModelExplicitExplorer {
 		 return priorKnowledge;
 	 }
 	 
+	 /**
+	  * 
+	  * @return secret data of the initial states, in the order of probabilities in initDist files
+	  */
+	 public String[] getInitialSecrets() {
+		 
+		 String[] secrets = new String[startStates.length];
+		 for (int i = 0; i < startStates.length; i++)
+			 secrets[i] = reachStates.getSecretData(startStates[i]);
+		 return secrets;
+	 }
+	 
 	 /**
 	  * 
 	  * @return uniform probability distribution for the secret values of initial states
@@ -357,8 +397,8 @@ public class ProbModelExplicitExplorer {
 	    
 		 Map<String, Double> uniformPriorKnowledge = new TreeMap<>();
 		 
-		 for(ExplicitState s: startStates) {
-			 uniformPriorKnowledge.put(s.getSecretData(), 1.0/startStates.size());
+		 for (int s : startStates) {
+			 uniformPriorKnowledge.put(reachStates.getSecretData(s), 1.0/startStates.length);
 		 }
 		
 		return uniformPriorKnowledge;
@@ -366,11 +406,11 @@ public class ProbModelExplicitExplorer {
 	 
 	 /**
 	  * 
-	  * @return the distribution Pr(T,h), containing trace-secret probabilities
+	  * @return traces and the distribution Pr(T,h), containing trace-secret probabilities
 	  */
-	 public Map<List<String>, Map<String, Double>> getTraceSecretDist() {
+	 public TraceStore getTraceStore() {
 		 
-		 return traceSecretDist;
+		 return traceStore;
 	 }
 	 	 
 	 /**
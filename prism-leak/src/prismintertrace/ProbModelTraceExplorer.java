@@ -0,0 +1,557 @@
+package prismintertrace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import prism.PrismException;
+
+/**
+*
+*	A class for forward (layer by layer) exploration of ProbModel.
+*	Instead of enumerating initial-to-final paths, partial paths that end in the same state,
+*	have the same trace so far and start from the same secret value are merged into a single
+*	weighted frontier entry. The result is the same distribution Pr(T, h) as computed by
+*	ProbModelExplicitExplorer.
+*	With more than one thread, each secret value is explored by its own ForkJoin task and
+*	large frontiers are split between workers.
+*	Bounded leakage of all times up to a bound is computed by a single exploration (exploreModelSteps()).
+*	If the model has cycles (other than self-loops), there may be infinitely many traces: paths that cannot
+*	reach a final state are dropped, since they have no complete trace, and the exploration stops when the
+*	probability of the remaining partial paths is at most a cutoff, which is a bound on the error of Pr(T, h).
+*	For trace sets larger than the heap, unbounded leakage can be computed with a memory limit: traces are then
+*	fingerprints instead of nodes of the trace store, and Pr(T, h) is spilled to disk by a TraceSpillStore
+*	(sequential exploration).
+*
+* @author Ali A. Noroozi
+*/
+
+public class ProbModelTraceExplorer extends ProbModelExplicitExplorer {
+
+	private TraceStore traces; // traces are represented by TraceStore nodes and secret values by their TraceStore indices
+
+	private int numThreads = 1; // number of worker threads (1: sequential exploration)
+	private static final int SPLIT_THRESHOLD = 2048; // frontiers larger than this are split between workers
+
+	public static final double DEFAULT_MASS_CUTOFF = 1e-6; // default cutoff of the probability of unexplored paths
+	private double massCutoff = DEFAULT_MASS_CUTOFF;
+	boolean cyclic = false; // true if the model has cycles other than self-loops (unbounded exploration only)
+	boolean[] reachFinal; // if cyclic, states from which a final state is reachable
+	double unexploredMass = 0; // probability of the partial paths left when the exploration stopped
+
+	private long spillMemory = 0; // bytes of trace-secret probabilities kept in the heap (0: all of them, no spilling)
+	private TraceSpillStore spillStore; // trace-secret probabilities of an exploration with spilling, or null
+
+	public ProbModelTraceExplorer(LeakModel currentModel, String initDistFileName) throws PrismException {
+
+		this(currentModel, initDistFileName, 1);
+	}
+
+	public ProbModelTraceExplorer(LeakModel currentModel, String initDistFileName, int numThreads) throws PrismException {
+
+		super(currentModel, initDistFileName);
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Forward exploration of the model to determine traces and trace-secret probabilities.
+	 * Frontier of step k contains the probability mass of paths of length k, merged on
+	 * (current state, trace so far, secret value of the initial state).
+	 *
+	 */
+	@Override
+	public void exploreModel(boolean bounded, int boundedStep) throws PrismException {
+
+		createSparseMatrix();
+		detectCycles(bounded);
+		traces = getTraceStore();
+
+		if (spillMemory > 0 && !bounded) {
+			exploreSpilling();
+			return;
+		}
+
+		Map<FrontierEntry, Double> frontier = initialFrontier();
+
+		// trace-secret probabilities: trace node -> Pr(T, h) indexed by secret values
+		Map<Integer, double[]> traceRows;
+		if (numThreads > 1)
+			traceRows = exploreParallel(frontier, bounded, boundedStep);
+		else
+			traceRows = exploreFrontier(frontier, bounded, boundedStep);
+
+		for (Map.Entry<Integer, double[]> e : traceRows.entrySet())
+			traces.addProbs(e.getKey(), e.getValue());
+
+		return;
+	}
+
+	/**
+	 * Forward exploration of the model for all times t = 0, ..., numSteps-1 at once: the frontier of step t 
+	 * holds the paths of exactly t transitions, so its trace-secret probabilities are added to the trace store 
+	 * as the traces of time t, before it is extended to step t+1.
+	 *
+	 */
+	@Override
+	public void exploreModelSteps(int numSteps) throws PrismException {
+
+		createSparseMatrix();
+		detectCycles(true);
+		traces = getTraceStore();
+		stepStarts = new int[numSteps + 1];
+
+		Map<FrontierEntry, Double> frontier = initialFrontier();
+
+		ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+		try {
+			for (int step = 0; step < numSteps; step++) {
+
+				stepStarts[step] = traces.getNumTraces();
+				for (Map.Entry<FrontierEntry, Double> e : frontier.entrySet())
+					traces.addProb(e.getKey().trace, e.getKey().secret, e.getValue());
+
+				if (step == numSteps - 1)
+					break;
+
+				if (pool == null) {
+					Map<FrontierEntry, Double> nextFrontier = new HashMap<>();
+					for (Map.Entry<FrontierEntry, Double> e : frontier.entrySet())
+						expandSuccessors(e.getKey(), e.getValue(), true, nextFrontier);
+					frontier = nextFrontier;
+				}
+				else {
+					// large layers are split between workers, as in exploreParallel()
+					List<Map.Entry<FrontierEntry, Double>> entries = new ArrayList<>(frontier.entrySet());
+					LayerTask layer = new LayerTask(entries, 0, entries.size(), true, false);
+					pool.invoke(layer);
+					frontier = layer.nextFrontier;
+				}
+			}
+		}
+		finally {
+			if (pool != null)
+				pool.shutdown();
+		}
+		stepStarts[numSteps] = traces.getNumTraces();
+
+		return;
+	}
+
+	/**
+	 * Determine whether the exploration has to deal with cycles
+	 *
+	 */
+	void detectCycles(boolean bounded) {
+
+		cyclic = !bounded && transitions.hasCycles();
+		reachFinal = cyclic ? transitions.canReachFinal() : null;
+		unexploredMass = 0;
+	}
+
+	/**
+	 * Set the cutoff of the probability of unexplored paths, which is used if the model has cycles
+	 *
+	 */
+	public void setMassCutoff(double massCutoff) {
+
+		this.massCutoff = massCutoff;
+	}
+
+	/**
+	 *
+	 * @return cutoff of the probability of unexplored paths
+	 */
+	public double getMassCutoff() {
+
+		return massCutoff;
+	}
+
+	/**
+	 * Keep at most spillMemory bytes of trace-secret probabilities in the heap, and spill the others to disk
+	 * (0: no spilling). It is used by unbounded exploration only.
+	 *
+	 */
+	public void setSpillMemory(long spillMemory) {
+
+		this.spillMemory = spillMemory;
+	}
+
+	/**
+	 *
+	 * @return trace-secret probabilities of an exploration with spilling (null: they are in the trace store)
+	 */
+	public TraceSpillStore getSpillStore() {
+
+		return spillStore;
+	}
+
+	/**
+	 *
+	 * @return true if the model has cycles other than self-loops (after an unbounded exploration)
+	 */
+	public boolean hasCycles() {
+
+		return cyclic;
+	}
+
+	/**
+	 *
+	 * @return probability of the partial paths which were not explored, since the model has cycles
+	 */
+	public double getUnexploredMass() {
+
+		return unexploredMass;
+	}
+
+	/**
+	 *
+	 * @return total probability of the entries of frontier
+	 */
+	private static double frontierMass(Map<?, Double> frontier) {
+
+		double mass = 0;
+		for (double m : frontier.values())
+			mass += m;
+		return mass;
+	}
+
+	/**
+	 *
+	 * @return frontier of step 0, containing the initial states
+	 */
+	private Map<FrontierEntry, Double> initialFrontier() {
+
+		Map<FrontierEntry, Double> frontier = new HashMap<>();
+		for (int s : startStates) {
+			int trace = traces.extend(TraceStore.EMPTY_TRACE, reachStates.getPublicClass(s));
+			FrontierEntry entry = new FrontierEntry(s, trace, traces.getSecretIndex(reachStates.getSecretData(s)));
+			frontier.merge(entry, initialProb(s), Double::sum);
+		}
+		return frontier;
+	}
+
+	/**
+	 * Explore the model layer by layer, starting from frontier
+	 *
+	 * @return trace-secret probabilities of complete paths
+	 */
+	private Map<Integer, double[]> exploreFrontier(Map<FrontierEntry, Double> frontier, boolean bounded, int boundedStep) {
+
+		Map<Integer, double[]> traceRows = new HashMap<>();
+
+		int step = 0;
+		while (!frontier.isEmpty()) {
+
+			Map<FrontierEntry, Double> nextFrontier = new HashMap<>();
+			for (Map.Entry<FrontierEntry, Double> e : frontier.entrySet())
+				expandEntry(e.getKey(), e.getValue(), bounded, bounded && step == boundedStep, nextFrontier, traceRows);
+
+			frontier = nextFrontier;
+			step++;
+
+			if (cyclic) {
+				double mass = frontierMass(frontier);
+				if (mass <= massCutoff) {
+					unexploredMass = mass;
+					break;
+				}
+			}
+		}
+
+		return traceRows;
+	}
+
+	/**
+	 * Explore the model layer by layer as exploreFrontier(), where traces are fingerprints and trace-secret probabilities 
+	 * of complete paths are added to a TraceSpillStore, which spills them to disk
+	 *
+	 */
+	private void exploreSpilling() throws PrismException {
+
+		spillStore = new TraceSpillStore(traces.getNumSecrets(), spillMemory, null);
+
+		Map<SpillEntry, Double> frontier = new HashMap<>();
+		for (int s : startStates) {
+			long trace = TraceSpillStore.fingerprint(TraceSpillStore.EMPTY_FINGERPRINT, reachStates.getPublicClass(s));
+			frontier.merge(new SpillEntry(s, trace, traces.getSecretIndex(reachStates.getSecretData(s))), initialProb(s), Double::sum);
+		}
+
+		while (!frontier.isEmpty()) {
+
+			Map<SpillEntry, Double> nextFrontier = new HashMap<>();
+			for (Map.Entry<SpillEntry, Double> e : frontier.entrySet()) {
+				SpillEntry entry = e.getKey();
+				if (isFinalState(entry.state)) {
+					spillStore.add(entry.trace, entry.secret, e.getValue());
+					continue;
+				}
+				// successors, as in expandSuccessors()
+				for (int k = transitions.rowStart(entry.state); k < transitions.rowEnd(entry.state); k++) {
+					int ps = transitions.getColumn(k);
+					if (ps == entry.state || (cyclic && !reachFinal[ps]))
+						continue;
+					long trace = TraceSpillStore.fingerprint(entry.trace, reachStates.getPublicClass(ps));
+					nextFrontier.merge(new SpillEntry(ps, trace, entry.secret), e.getValue() * transitions.getProbability(k), Double::sum);
+				}
+			}
+			frontier = nextFrontier;
+
+			if (cyclic) {
+				double mass = frontierMass(frontier);
+				if (mass <= massCutoff) {
+					unexploredMass = mass;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Explore the model using a ForkJoin pool of numThreads workers. Paths starting from different secret values
+	 * are never merged, so each secret value is explored by its own task, with its own trace-secret probabilities.
+	 *
+	 * @return trace-secret probabilities of complete paths
+	 */
+	private Map<Integer, double[]> exploreParallel(Map<FrontierEntry, Double> frontier, boolean bounded, int boundedStep) {
+
+		Map<Integer, Map<FrontierEntry, Double>> secretFrontiers = new HashMap<>();
+		for (Map.Entry<FrontierEntry, Double> e : frontier.entrySet())
+			secretFrontiers.computeIfAbsent(e.getKey().secret, k -> new HashMap<>()).put(e.getKey(), e.getValue());
+
+		// the cutoff of unexplored paths is shared between the tasks
+		List<SecretTask> tasks = new ArrayList<>();
+		for (Map<FrontierEntry, Double> secretFrontier : secretFrontiers.values())
+			tasks.add(new SecretTask(secretFrontier, bounded, boundedStep, massCutoff / secretFrontiers.size()));
+
+		// merge the results of the tasks
+		Map<Integer, double[]> traceRows = new HashMap<>();
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (SecretTask task : tasks)
+				pool.execute(task);
+			for (SecretTask task : tasks) {
+				mergeDist(traceRows, task.join());
+				unexploredMass += task.unexploredMass;
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+
+		return traceRows;
+	}
+
+	/**
+	 * Expand a frontier entry: a complete path (bounded: path of boundedStep transitions, unbounded: path to a final state)
+	 * is added to traceRows, otherwise its successors are added to nextFrontier
+	 *
+	 */
+	private void expandEntry(FrontierEntry entry, double mass, boolean bounded, boolean boundReached, 
+			Map<FrontierEntry, Double> nextFrontier, Map<Integer, double[]> traceRows) {
+
+		if ((!bounded && isFinalState(entry.state)) || boundReached)
+			traceRows.computeIfAbsent(entry.trace, k -> new double[traces.getNumSecrets()])[entry.secret] += mass;
+		else
+			expandSuccessors(entry, mass, bounded, nextFrontier);
+	}
+
+	/**
+	 * Add the successors of a frontier entry to nextFrontier
+	 *
+	 */
+	private void expandSuccessors(FrontierEntry entry, double mass, boolean bounded, Map<FrontierEntry, Double> nextFrontier) {
+
+		for (int k = transitions.rowStart(entry.state); k < transitions.rowEnd(entry.state); k++) {
+			int ps = transitions.getColumn(k);
+			// self-loops of non-final states are ignored, as in explorePathsNonRecur()
+			if (!bounded && ps == entry.state)
+				continue;
+			// paths that never reach a final state have no complete trace
+			if (cyclic && !reachFinal[ps])
+				continue;
+
+			FrontierEntry next = new FrontierEntry(ps, traces.extend(entry.trace, reachStates.getPublicClass(ps)), entry.secret);
+			nextFrontier.merge(next, mass * transitions.getProbability(k), Double::sum);
+		}
+	}
+
+	/**
+	 * Add trace-secret probabilities of from to to
+	 *
+	 */
+	private static void mergeDist(Map<Integer, double[]> to, Map<Integer, double[]> from) {
+
+		for (Map.Entry<Integer, double[]> e : from.entrySet()) {
+			double[] probs = to.get(e.getKey());
+			if (probs == null)
+				to.put(e.getKey(), e.getValue());
+			else
+				for (int h = 0; h < probs.length; h++)
+					probs[h] += e.getValue()[h];
+		}
+	}
+
+	/**
+	 * A task exploring the paths starting from the initial states of a single secret value
+	 */
+	private final class SecretTask extends RecursiveTask<Map<Integer, double[]>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Map<FrontierEntry, Double> frontier;
+		private final boolean bounded;
+		private final int boundedStep;
+		private final double massCutoff;
+
+		double unexploredMass = 0;
+
+		SecretTask(Map<FrontierEntry, Double> frontier, boolean bounded, int boundedStep, double massCutoff) {
+			this.frontier = frontier;
+			this.bounded = bounded;
+			this.boundedStep = boundedStep;
+			this.massCutoff = massCutoff;
+		}
+
+		@Override
+		protected Map<Integer, double[]> compute() {
+
+			Map<Integer, double[]> traceRows = new HashMap<>();
+			Map<FrontierEntry, Double> current = frontier;
+
+			int step = 0;
+			while (!current.isEmpty()) {
+				List<Map.Entry<FrontierEntry, Double>> entries = new ArrayList<>(current.entrySet());
+				LayerTask layer = new LayerTask(entries, 0, entries.size(), bounded, bounded && step == boundedStep);
+				layer.invoke();
+
+				mergeDist(traceRows, layer.traceRows);
+				current = layer.nextFrontier;
+				step++;
+
+				if (cyclic) {
+					double mass = frontierMass(current);
+					if (mass <= massCutoff) {
+						unexploredMass = mass;
+						break;
+					}
+				}
+			}
+
+			return traceRows;
+		}
+	}
+
+	/**
+	 * A task expanding entries [from, to) of a frontier. Large ranges are split into two subtasks,
+	 * so that the layers of a secret value with many paths are shared between workers.
+	 */
+	private final class LayerTask extends RecursiveTask<Void> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Map.Entry<FrontierEntry, Double>> entries;
+		private final int from, to;
+		private final boolean bounded, boundReached;
+
+		Map<FrontierEntry, Double> nextFrontier = new HashMap<>();
+		Map<Integer, double[]> traceRows = new HashMap<>();
+
+		LayerTask(List<Map.Entry<FrontierEntry, Double>> entries, int from, int to, boolean bounded, boolean boundReached) {
+			this.entries = entries;
+			this.from = from;
+			this.to = to;
+			this.bounded = bounded;
+			this.boundReached = boundReached;
+		}
+
+		@Override
+		protected Void compute() {
+
+			if (to - from <= SPLIT_THRESHOLD) {
+				for (int i = from; i < to; i++)
+					expandEntry(entries.get(i).getKey(), entries.get(i).getValue(), bounded, boundReached, nextFrontier, traceRows);
+				return null;
+			}
+
+			int mid = (from + to) >>> 1;
+			LayerTask left = new LayerTask(entries, from, mid, bounded, boundReached);
+			LayerTask right = new LayerTask(entries, mid, to, bounded, boundReached);
+			left.fork();
+			right.compute();
+			left.join();
+
+			// merge the smaller result into the larger one
+			nextFrontier = left.nextFrontier.size() >= right.nextFrontier.size() ? left.nextFrontier : right.nextFrontier;
+			Map<FrontierEntry, Double> other = nextFrontier == left.nextFrontier ? right.nextFrontier : left.nextFrontier;
+			for (Map.Entry<FrontierEntry, Double> e : other.entrySet())
+				nextFrontier.merge(e.getKey(), e.getValue(), Double::sum);
+
+			traceRows = left.traceRows;
+			mergeDist(traceRows, right.traceRows);
+			return null;
+		}
+	}
+
+	/**
+	 * A frontier entry: current state, node of the trace so far and index of the secret value of the initial state
+	 */
+	private static final class FrontierEntry {
+
+		final int state;
+		final int trace;
+		final int secret;
+
+		FrontierEntry(int state, int trace, int secret) {
+			this.state = state;
+			this.trace = trace;
+			this.secret = secret;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof FrontierEntry))
+				return false;
+			FrontierEntry e = (FrontierEntry) o;
+			return state == e.state && trace == e.trace && secret == e.secret;
+		}
+
+		@Override
+		public int hashCode() {
+			return (state * 31 + trace) * 31 + secret;
+		}
+	}
+
+	/**
+	 * A frontier entry of an exploration with spilling: current state, fingerprint of the trace so far and index 
+	 * of the secret value of the initial state
+	 */
+	private static final class SpillEntry {
+
+		final int state;
+		final long trace;
+		final int secret;
+
+		SpillEntry(int state, long trace, int secret) {
+			this.state = state;
+			this.trace = trace;
+			this.secret = secret;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SpillEntry))
+				return false;
+			SpillEntry e = (SpillEntry) o;
+			return state == e.state && trace == e.trace && secret == e.secret;
+		}
+
+		@Override
+		public int hashCode() {
+			return (state * 31 + Long.hashCode(trace)) * 31 + secret;
+		}
+	}
+
+}
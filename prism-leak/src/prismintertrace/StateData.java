@@ -0,0 +1,73 @@
+package prismintertrace;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import parser.State;
+import parser.VarList;
+import parser.ast.Declaration;
+
+/**
+*
+*	Public and secret data of states given by their variable values, as in StateTable: the values of the
+*	observable (secret) variables joined with "-". It is used by the explorers which generate states from
+*	the model description, and by the symbolic computation of final leakage, which have no table of reachable states.
+*
+* @author Ali A. Noroozi
+*/
+
+public class StateData {
+
+	// observable (public) and secret variables, as indices in the VarList
+	private final int[] publicVars;
+	private final int[] secretVars;
+
+	public StateData(VarList varList) {
+
+		List<Integer> pub = new ArrayList<>();
+		List<Integer> sec = new ArrayList<>();
+		for (int v = 0; v < varList.getNumVars(); v++) {
+			int observabilityType = varList.getDeclaration(v).getObservabilityType();
+			if (observabilityType == Declaration.OBSERVABILITY_OBSERVABLE)
+				pub.add(v);
+			if (observabilityType == Declaration.OBSERVABILITY_SECERT)
+				sec.add(v);
+		}
+		publicVars = pub.stream().mapToInt(Integer::intValue).toArray();
+		secretVars = sec.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 *
+	 * @return public data of state s
+	 */
+	public String getPublicData(State s) {
+
+		return dataString(publicVars, s);
+	}
+
+	/**
+	 *
+	 * @return secret data of state s
+	 */
+	public String getSecretData(State s) {
+
+		return dataString(secretVars, s);
+	}
+
+	/**
+	 *
+	 * @return values of vars in state s joined with "-"
+	 */
+	private static String dataString(int[] vars, State s) {
+
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < vars.length; i++) {
+			if (i > 0)
+				data.append('-');
+			data.append(s.varValues[vars[i]]);
+		}
+		return data.toString();
+	}
+
+}
@@ -0,0 +1,270 @@
+package prismintertrace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import parser.VarList;
+import parser.ast.Declaration;
+import parser.type.TypeInt;
+
+/**
+*
+*	A columnar table of the reachable states of a model, indexed by state number.
+*	For each observable and secret variable, the values of all states are kept in an int[].
+*	States with the same values of observable (secret) variables have the same dense public (secret) class,
+*	whose public (secret) data, the values of the variables joined with "-", is built only once.
+*	The table is filled by StateListMTBDD.getStateTable(), directly from the MTBDD/ODD traversal, or by LeakModel
+*	from the states list of an explicit model.
+*
+* @author Ali A. Noroozi
+*/
+
+public class StateTable {
+
+	private final int numStates;
+
+	// observable (public) and secret variables, as indices in the VarList
+	private final int[] publicVars;
+	private final int[] secretVars;
+
+	private final VarList varList;
+
+	// publicValues[i][s] (secretValues[i][s]) is the value of the i-th observable (secret) variable in state s
+	private final int[][] publicValues;
+	private final int[][] secretValues;
+
+	// classes of states: valuation key -> class, and data of each class
+	private final int[] publicClass;
+	private final int[] secretClass;
+	private final Map<Object, Integer> publicClassIndex = new HashMap<>();
+	private final Map<Object, Integer> secretClassIndex = new HashMap<>();
+	private final List<String> publicClassData = new ArrayList<>();
+	private final List<String> secretClassData = new ArrayList<>();
+
+	public StateTable(VarList varList, int numStates) {
+
+		this.varList = varList;
+		this.numStates = numStates;
+
+		List<Integer> pub = new ArrayList<>();
+		List<Integer> sec = new ArrayList<>();
+		for (int v = 0; v < varList.getNumVars(); v++) {
+			int observabilityType = varList.getDeclaration(v).getObservabilityType();
+			if (observabilityType == Declaration.OBSERVABILITY_OBSERVABLE)
+				pub.add(v);
+			if (observabilityType == Declaration.OBSERVABILITY_SECERT)
+				sec.add(v);
+		}
+		publicVars = pub.stream().mapToInt(Integer::intValue).toArray();
+		secretVars = sec.stream().mapToInt(Integer::intValue).toArray();
+
+		publicValues = new int[publicVars.length][numStates];
+		secretValues = new int[secretVars.length][numStates];
+		publicClass = new int[numStates];
+		secretClass = new int[numStates];
+	}
+
+	/**
+	 * Set the values of state s, where varValues are the values of all variables of the VarList,
+	 * encoded as in the MTBDD (i.e. integer variables are offset by their lower bound)
+	 *
+	 */
+	public void setState(int s, int[] varValues) {
+
+		for (int i = 0; i < publicVars.length; i++)
+			publicValues[i][s] = varValues[publicVars[i]] + lowOf(publicVars[i]);
+		for (int i = 0; i < secretVars.length; i++)
+			secretValues[i][s] = varValues[secretVars[i]] + lowOf(secretVars[i]);
+
+		publicClass[s] = classOf(publicVars, varValues, publicClassIndex, publicClassData);
+		secretClass[s] = classOf(secretVars, varValues, secretClassIndex, secretClassData);
+	}
+
+	private int lowOf(int v) {
+
+		return varList.getType(v) instanceof TypeInt ? varList.getLow(v) : 0;
+	}
+
+	/**
+	 *
+	 * @return class of the valuation of vars in varValues, which is added to classIndex and classData if new
+	 */
+	private int classOf(int[] vars, int[] varValues, Map<Object, Integer> classIndex, List<String> classData) {
+
+		// encoded values are packed into a long if they fit, otherwise the data string is the key
+		Object key;
+		long packed = 0;
+		int bits = 0;
+		for (int v : vars) {
+			packed = (packed << varList.getRangeLogTwo(v)) | varValues[v];
+			bits += varList.getRangeLogTwo(v);
+		}
+		key = bits < 64 ? (Object) packed : dataString(vars, varValues);
+
+		Integer c = classIndex.get(key);
+		if (c == null) {
+			c = classData.size();
+			classIndex.put(key, c);
+			classData.add(dataString(vars, varValues));
+		}
+		return c;
+	}
+
+	/**
+	 *
+	 * @return values of vars joined with "-"
+	 */
+	private String dataString(int[] vars, int[] varValues) {
+
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < vars.length; i++) {
+			if (i > 0)
+				data.append('-');
+			data.append(valueString(vars[i], varValues[vars[i]] + lowOf(vars[i])));
+		}
+		return data.toString();
+	}
+
+	private String valueString(int v, int value) {
+
+		// integer variable
+		if (varList.getType(v) instanceof TypeInt)
+			return Integer.toString(value);
+		// boolean variable
+		return Boolean.toString(value == 1);
+	}
+
+	/**
+	 *
+	 * @return number of states
+	 */
+	public int getNumStates() {
+
+		return numStates;
+	}
+
+	/**
+	 *
+	 * @return number of observable variables
+	 */
+	public int getNumObservableVars() {
+
+		return publicVars.length;
+	}
+
+	/**
+	 *
+	 * @return number of secret variables
+	 */
+	public int getNumSecretVars() {
+
+		return secretVars.length;
+	}
+
+	/**
+	 *
+	 * @return value of the i-th observable variable in state s (booleans are 0 or 1)
+	 */
+	public int getPublicValue(int s, int i) {
+
+		return publicValues[i][s];
+	}
+
+	/**
+	 *
+	 * @return value of the i-th secret variable in state s (booleans are 0 or 1)
+	 */
+	public int getSecretValue(int s, int i) {
+
+		return secretValues[i][s];
+	}
+
+	/**
+	 *
+	 * @return public class of state s
+	 */
+	public int getPublicClass(int s) {
+
+		return publicClass[s];
+	}
+
+	/**
+	 *
+	 * @return secret class of state s
+	 */
+	public int getSecretClass(int s) {
+
+		return secretClass[s];
+	}
+
+	/**
+	 *
+	 * @return number of public classes, i.e. distinct valuations of observable variables
+	 */
+	public int getNumPublicClasses() {
+
+		return publicClassData.size();
+	}
+
+	/**
+	 *
+	 * @return number of secret classes, i.e. distinct valuations of secret variables
+	 */
+	public int getNumSecretClasses() {
+
+		return secretClassData.size();
+	}
+
+	/**
+	 *
+	 * @return public data of public class c
+	 */
+	public String getPublicClassData(int c) {
+
+		return publicClassData.get(c);
+	}
+
+	/**
+	 *
+	 * @return secret data of secret class c
+	 */
+	public String getSecretClassData(int c) {
+
+		return secretClassData.get(c);
+	}
+
+	/**
+	 *
+	 * @return public data of state s, i.e. values of observable variables joined with "-"
+	 */
+	public String getPublicData(int s) {
+
+		return publicClassData.get(publicClass[s]);
+	}
+
+	/**
+	 * If varIndex is set to -1, return public data of all variables,
+	 * else return value (public data) of the observable variable in varIndex
+	 *
+	 * @return public data of state s
+	 */
+	public String getPublicData(int s, int varIndex) {
+
+		if (varIndex > -1)
+			return valueString(publicVars[varIndex], publicValues[varIndex][s]);
+
+		return getPublicData(s);
+	}
+
+	/**
+	 *
+	 * @return secret data of state s, i.e. values of secret variables joined with "-"
+	 */
+	public String getSecretData(int s) {
+
+		return secretClassData.get(secretClass[s]);
+	}
+
+}
@@ -0,0 +1,348 @@
+package prismintertrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import prism.PrismException;
+
+/**
+*
+*	A store of trace-secret probabilities Pr(T, h) for trace sets larger than the heap.
+*	Traces are identified by 64-bit fingerprints, computed incrementally by fingerprint() as traces are extended,
+*	so that no prefix tree of the traces is kept. Records (trace fingerprint, secret index, probability) are added
+*	to a buffer of at most a given number of bytes; when the buffer is full, it is sorted by fingerprint and secret,
+*	records of the same trace and secret are added up, and the result is written as a sorted run to a memory-mapped
+*	temporary file. The runs are read back by a k-way merge, which gives the row Pr(T, h) of each trace in turn,
+*	so that leakage is computed by a streaming pass over the traces.
+*	Two traces with the same fingerprint are merged: for n traces, this happens with probability about n^2 / 2^65.
+*
+* @author Ali A. Noroozi
+*/
+
+public class TraceSpillStore {
+
+	public static final long EMPTY_FINGERPRINT = 0x6a09e667f3bcc908L; // fingerprint of the empty trace
+
+	private static final int RECORD_SIZE = 20; // bytes of a record: fingerprint (long), secret (int), probability (double)
+	private static final long MAP_SIZE = (Integer.MAX_VALUE / RECORD_SIZE) * (long) RECORD_SIZE; // bytes mapped at once
+
+	private final int numSecrets;
+	private final File dir; // directory of the run files
+
+	// buffer of records, sorted and written as a run when full
+	private final long[] fingerprints;
+	private final int[] secrets;
+	private final double[] probs;
+	private int size = 0;
+
+	private final List<File> runFiles = new ArrayList<>();
+	private final List<Long> runSizes = new ArrayList<>(); // number of records of each run
+	private long numSpilled = 0; // number of records written to runs
+
+	/**
+	 * Records are buffered in at most memory bytes of the heap before they are written to a run file of dir
+	 * (null: the default temporary-file directory)
+	 */
+	public TraceSpillStore(int numSecrets, long memory, File dir) {
+
+		this.numSecrets = numSecrets;
+		this.dir = dir;
+		int capacity = (int) Math.max(1024, Math.min(Integer.MAX_VALUE - 8, memory / RECORD_SIZE));
+		fingerprints = new long[capacity];
+		secrets = new int[capacity];
+		probs = new double[capacity];
+	}
+
+	/**
+	 *
+	 * @return fingerprint of the trace of fingerprint trace extended by public data of index d
+	 */
+	public static long fingerprint(long trace, int d) {
+
+		// the finaliser of SplitMix64 spreads the bits of the trace and of d over the result
+		long z = trace * 0x9e3779b97f4a7c15L + d + 1;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Add prob to Pr(T, h), where T is the trace of fingerprint trace
+	 *
+	 */
+	public void add(long trace, int h, double prob) throws PrismException {
+
+		if (size == fingerprints.length)
+			spill();
+		fingerprints[size] = trace;
+		secrets[size] = h;
+		probs[size] = prob;
+		size++;
+	}
+
+	/**
+	 *
+	 * @return number of runs written to files
+	 */
+	public int getNumRuns() {
+
+		return runFiles.size();
+	}
+
+	/**
+	 *
+	 * @return number of records written to files
+	 */
+	public long getNumSpilled() {
+
+		return numSpilled;
+	}
+
+	/**
+	 * Sort the buffer, and write its records, with those of the same trace and secret added up, to a new run file
+	 *
+	 */
+	private void spill() throws PrismException {
+
+		int n = sortBuffer();
+		try {
+			File file = File.createTempFile("prism-leak-run", ".bin", dir);
+			file.deleteOnExit();
+			runFiles.add(file);
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				long bytes = (long) n * RECORD_SIZE;
+				for (long pos = 0; pos < bytes; pos += MAP_SIZE) {
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, pos, Math.min(MAP_SIZE, bytes - pos));
+					for (int i = (int) (pos / RECORD_SIZE); buffer.hasRemaining(); i++)
+						buffer.putLong(fingerprints[i]).putInt(secrets[i]).putDouble(probs[i]);
+				}
+			}
+		} catch (IOException e) {
+			throw new PrismException("File I/O error writing a run of traces: " + e.getMessage());
+		}
+		runSizes.add((long) n);
+		numSpilled += n;
+		size = 0;
+	}
+
+	/**
+	 * Sort the buffer by fingerprint and secret, and add up the records of the same trace and secret
+	 *
+	 * @return number of records left at the start of the buffer
+	 */
+	private int sortBuffer() {
+
+		sort(0, size - 1);
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			if (n > 0 && fingerprints[n - 1] == fingerprints[i] && secrets[n - 1] == secrets[i]) {
+				probs[n - 1] += probs[i];
+				continue;
+			}
+			fingerprints[n] = fingerprints[i];
+			secrets[n] = secrets[i];
+			probs[n] = probs[i];
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Quicksort of records lo, ..., hi of the buffer
+	 *
+	 */
+	private void sort(int lo, int hi) {
+
+		while (hi - lo > 16) {
+			int mid = (lo + hi) >>> 1;
+			long pf = fingerprints[mid];
+			int ps = secrets[mid];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (compare(i, pf, ps) < 0)
+					i++;
+				while (compare(j, pf, ps) > 0)
+					j--;
+				if (i <= j)
+					swap(i++, j--);
+			}
+			// recurse into the smaller part, so that the stack depth is logarithmic
+			if (j - lo < hi - i) {
+				sort(lo, j);
+				lo = i;
+			}
+			else {
+				sort(i, hi);
+				hi = j;
+			}
+		}
+		for (int i = lo + 1; i <= hi; i++)
+			for (int j = i; j > lo && compare(j, fingerprints[j - 1], secrets[j - 1]) < 0; j--)
+				swap(j, j - 1);
+	}
+
+	private int compare(int i, long fingerprint, int secret) {
+
+		int c = Long.compare(fingerprints[i], fingerprint);
+		return c != 0 ? c : Integer.compare(secrets[i], secret);
+	}
+
+	private void swap(int i, int j) {
+
+		long f = fingerprints[i];
+		fingerprints[i] = fingerprints[j];
+		fingerprints[j] = f;
+		int s = secrets[i];
+		secrets[i] = secrets[j];
+		secrets[j] = s;
+		double p = probs[i];
+		probs[i] = probs[j];
+		probs[j] = p;
+	}
+
+	/**
+	 * Visitor of the rows of the traces
+	 */
+	public interface RowVisitor {
+
+		/**
+		 * row is Pr(T, h) of a trace T, indexed by secret values. It is reused for the next trace.
+		 */
+		void visit(double[] row);
+	}
+
+	/**
+	 * Visit the row Pr(T, h) of each trace, by a k-way merge of the runs and of the records of the buffer.
+	 * The store can be visited several times.
+	 *
+	 * @return number of traces
+	 */
+	public long visitRows(RowVisitor visitor) throws PrismException {
+
+		// the buffer is sorted in place, and merged as one more run
+		size = sortBuffer();
+
+		PriorityQueue<Run> queue = new PriorityQueue<>();
+		List<FileChannel> channels = new ArrayList<>();
+		long numTraces = 0;
+		try {
+			for (int r = 0; r < runFiles.size(); r++) {
+				FileChannel channel = FileChannel.open(runFiles.get(r).toPath(), StandardOpenOption.READ);
+				channels.add(channel);
+				Run run = new Run(channel, runSizes.get(r));
+				if (run.next())
+					queue.add(run);
+			}
+			Run buffered = new Run(null, size);
+			if (buffered.next())
+				queue.add(buffered);
+
+			double[] row = new double[numSecrets];
+			long trace = 0;
+			boolean empty = true;
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				if (!empty && run.fingerprint != trace) {
+					visitor.visit(row);
+					numTraces++;
+					Arrays.fill(row, 0);
+				}
+				trace = run.fingerprint;
+				empty = false;
+				row[run.secret] += run.prob;
+				if (run.next())
+					queue.add(run);
+			}
+			if (!empty) {
+				visitor.visit(row);
+				numTraces++;
+			}
+		} catch (IOException e) {
+			throw new PrismException("File I/O error reading a run of traces: " + e.getMessage());
+		} finally {
+			for (FileChannel channel : channels)
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// the file is deleted anyway
+				}
+		}
+		return numTraces;
+	}
+
+	/**
+	 * Delete the run files
+	 *
+	 */
+	public void close() {
+
+		for (File file : runFiles)
+			file.delete();
+		runFiles.clear();
+		runSizes.clear();
+	}
+
+	/**
+	 * A sorted run, read record by record from a memory-mapped file, or from the buffer if channel is null
+	 */
+	private final class Run implements Comparable<Run> {
+
+		private final FileChannel channel;
+		private final long numRecords;
+		private long index = 0; // records read so far
+		private MappedByteBuffer buffer; // mapped part of the file
+
+		long fingerprint;
+		int secret;
+		double prob;
+
+		Run(FileChannel channel, long numRecords) {
+
+			this.channel = channel;
+			this.numRecords = numRecords;
+		}
+
+		/**
+		 * Read the next record
+		 *
+		 * @return false if there are no more records
+		 */
+		boolean next() throws IOException {
+
+			if (index == numRecords)
+				return false;
+			if (channel == null) {
+				int i = (int) index;
+				fingerprint = fingerprints[i];
+				secret = secrets[i];
+				prob = probs[i];
+			}
+			else {
+				if (buffer == null || !buffer.hasRemaining()) {
+					long pos = index * RECORD_SIZE;
+					buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_SIZE, numRecords * RECORD_SIZE - pos));
+				}
+				fingerprint = buffer.getLong();
+				secret = buffer.getInt();
+				prob = buffer.getDouble();
+			}
+			index++;
+			return true;
+		}
+
+		@Override
+		public int compareTo(Run r) {
+
+			int c = Long.compare(fingerprint, r.fingerprint);
+			return c != 0 ? c : Integer.compare(secret, r.secret);
+		}
+	}
+
+}
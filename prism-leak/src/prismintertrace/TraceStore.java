@@ -0,0 +1,330 @@
+package prismintertrace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+*
+*	A store of traces and trace-secret probabilities Pr(T, h).
+*	Each distinct public data is interned into an int, and traces are nodes of a hash-consed prefix tree
+*	of these ints, so that equal traces are the same node and common prefixes are stored once.
+*	Secret values are interned into dense ints, and Pr(T, h) of each complete trace T is kept in a double[] row
+*	indexed by secret values.
+*	Traces can be extended by several threads at once; probabilities are added by a single thread.
+*
+* @author Ali A. Noroozi
+*/
+
+public class TraceStore {
+
+	public static final int EMPTY_TRACE = -1; // node of the empty trace
+
+	// interned public data
+	private final Map<String, Integer> dataIndex = new ConcurrentHashMap<>();
+	private final List<String> data = new ArrayList<>();
+
+	// prefix tree: node i is the trace of node parent[i] extended by data.get(dataOf[i]), and has length length[i]
+	private final Map<Long, Integer> children = new ConcurrentHashMap<>(); // (parent node, public data index) -> child node
+	private int numNodes = 0;
+	private int[] parent = new int[1024];
+	private int[] dataOf = new int[1024];
+	private int[] length = new int[1024];
+
+	// interned secret values
+	private final Map<String, Integer> secretIndex = new HashMap<>();
+	private final List<String> secrets = new ArrayList<>();
+
+	// complete traces: trace t is node traceNode[t], and rows.get(t)[h] is Pr(T=t, h=secrets.get(h))
+	private int[] rowOf = new int[1024]; // row of each node (-1 if the node is not a complete trace)
+	private int numTraces = 0;
+	private int[] traceNode = new int[1024];
+	private final List<double[]> rows = new ArrayList<>();
+
+	/**
+	 * A store of traces only, without secret values
+	 */
+	public TraceStore() {
+
+		this(Collections.<String>emptyList());
+	}
+
+	/**
+	 * A store of traces and their joint probabilities with secretValues
+	 */
+	public TraceStore(Collection<String> secretValues) {
+
+		for (String h : secretValues)
+			if (!secretIndex.containsKey(h)) {
+				secretIndex.put(h, secrets.size());
+				secrets.add(h);
+			}
+		Arrays.fill(rowOf, -1);
+	}
+
+	/**
+	 *
+	 * @return node of the trace of node parentNode extended by publicData
+	 */
+	public int extend(int parentNode, String publicData) {
+
+		return extend(parentNode, internData(publicData));
+	}
+
+	/**
+	 * d is an index returned by internData(), or any other int if traces are not converted back to public data 
+	 * (by getTrace() and getLastData())
+	 *
+	 * @return node of the trace of node parentNode extended by public data of index d
+	 */
+	public int extend(int parentNode, int d) {
+
+		// existing nodes are looked up without locking, so that parallel explorers only synchronise on new nodes
+		Integer child = children.get(childKey(parentNode, d));
+		if (child == null)
+			child = addNode(parentNode, d);
+		return child;
+	}
+
+	/**
+	 *
+	 * @return index of publicData, which is interned if not already there
+	 */
+	public int internData(String publicData) {
+
+		Integer d = dataIndex.get(publicData);
+		if (d == null)
+			d = addData(publicData);
+		return d;
+	}
+
+	private static long childKey(int parentNode, int d) {
+
+		return ((long) parentNode << 32) | (d & 0xffffffffL);
+	}
+
+	private synchronized int addData(String publicData) {
+
+		Integer d = dataIndex.get(publicData);
+		if (d == null) {
+			d = data.size();
+			data.add(publicData);
+			dataIndex.put(publicData, d);
+		}
+		return d;
+	}
+
+	private synchronized int addNode(int parentNode, int d) {
+
+		long key = childKey(parentNode, d);
+		Integer child = children.get(key);
+		if (child != null)
+			return child;
+
+		if (numNodes == parent.length) {
+			int capacity = 2 * numNodes;
+			parent = Arrays.copyOf(parent, capacity);
+			dataOf = Arrays.copyOf(dataOf, capacity);
+			length = Arrays.copyOf(length, capacity);
+			rowOf = Arrays.copyOf(rowOf, capacity);
+			Arrays.fill(rowOf, numNodes, capacity, -1);
+		}
+		int node = numNodes;
+		parent[node] = parentNode;
+		dataOf[node] = d;
+		length[node] = parentNode == EMPTY_TRACE ? 1 : length[parentNode] + 1;
+		numNodes++;
+
+		children.put(key, node);
+		return node;
+	}
+
+	/**
+	 *
+	 * @return number of elements of the trace of node
+	 */
+	public int getLength(int node) {
+
+		return node == EMPTY_TRACE ? 0 : length[node];
+	}
+
+	/**
+	 *
+	 * @return node of the trace of node without its last element
+	 */
+	public int getParent(int node) {
+
+		return parent[node];
+	}
+
+	/**
+	 *
+	 * @return index of the last element of the trace of node
+	 */
+	public int getLastDataIndex(int node) {
+
+		return dataOf[node];
+	}
+
+	/**
+	 *
+	 * @return last element of the trace of node
+	 */
+	public String getLastData(int node) {
+
+		return data.get(dataOf[node]);
+	}
+
+	/**
+	 *
+	 * @return the trace of node
+	 */
+	public List<String> getTrace(int node) {
+
+		String[] trace = new String[getLength(node)];
+		for (int n = node; n != EMPTY_TRACE; n = parent[n])
+			trace[length[n] - 1] = data.get(dataOf[n]);
+		return Arrays.asList(trace);
+	}
+
+	/**
+	 *
+	 * @return true if the trace of node a is a prefix of the trace of node b
+	 */
+	public boolean isPrefix(int a, int b) {
+
+		int lengthA = getLength(a);
+		if (lengthA > getLength(b))
+			return false;
+
+		int n = b;
+		while (getLength(n) > lengthA)
+			n = parent[n];
+		return n == a;
+	}
+
+	/**
+	 *
+	 * @return number of nodes of the prefix tree, i.e. number of distinct trace prefixes
+	 */
+	public int getNumNodes() {
+
+		return numNodes;
+	}
+
+	/**
+	 *
+	 * @return number of secret values
+	 */
+	public int getNumSecrets() {
+
+		return secrets.size();
+	}
+
+	/**
+	 *
+	 * @return index of secret value h (-1 if h is not a secret value of the store)
+	 */
+	public int getSecretIndex(String h) {
+
+		Integer index = secretIndex.get(h);
+		return index == null ? -1 : index;
+	}
+
+	/**
+	 *
+	 * @return secret value of index h
+	 */
+	public String getSecret(int h) {
+
+		return secrets.get(h);
+	}
+
+	/**
+	 * Add prob to Pr(T, h), where T is the trace of node
+	 *
+	 */
+	public void addProb(int node, int h, double prob) {
+
+		row(node)[h] += prob;
+	}
+
+	/**
+	 * Add probabilities of probs, indexed by secret values, to Pr(T, h), where T is the trace of node.
+	 * If T has no probabilities yet, probs itself becomes the row of T.
+	 *
+	 */
+	public void addProbs(int node, double[] probs) {
+
+		if (rowOf[node] == -1) {
+			addRow(node, probs);
+			return;
+		}
+		double[] row = rows.get(rowOf[node]);
+		for (int h = 0; h < probs.length; h++)
+			row[h] += probs[h];
+	}
+
+	private double[] row(int node) {
+
+		if (rowOf[node] == -1)
+			addRow(node, new double[secrets.size()]);
+		return rows.get(rowOf[node]);
+	}
+
+	private void addRow(int node, double[] row) {
+
+		if (numTraces == traceNode.length)
+			traceNode = Arrays.copyOf(traceNode, 2 * numTraces);
+		traceNode[numTraces] = node;
+		rowOf[node] = numTraces;
+		rows.add(row);
+		numTraces++;
+	}
+
+	/**
+	 *
+	 * @return number of complete traces, i.e. traces with a Pr(T, h) row
+	 */
+	public int getNumTraces() {
+
+		return numTraces;
+	}
+
+	/**
+	 *
+	 * @return node of complete trace t
+	 */
+	public int getTraceNode(int t) {
+
+		return traceNode[t];
+	}
+
+	/**
+	 *
+	 * @return Pr(T=t, h) of complete trace t, indexed by secret values. The row may be updated in place.
+	 */
+	public double[] getRow(int t) {
+
+		return rows.get(t);
+	}
+
+	/**
+	 *
+	 * @return the non-zero entries of row as a map from secret values to probabilities
+	 */
+	public Map<String, Double> rowToMap(double[] row) {
+
+		Map<String, Double> dist = new HashMap<>();
+		for (int h = 0; h < row.length; h++)
+			if (row[h] != 0)
+				dist.put(secrets.get(h), row[h]);
+		return dist;
+	}
+
+}
@@ -2,47 +2,50 @@ package prismod;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Stack;
 
 import parser.VarList;
 import parser.ast.Declaration;
 import prism.PrismException;
 import prism.PrismLog;
-import prism.ProbModel;
-import prismintertrace.ExplicitState;
+import prismintertrace.LeakModel;
+import prismintertrace.StateTable;
 
 public class ODChecker {
 
 	
-	ProbModel probModel;
+	LeakModel leakModel;
 	ProbModelExplicitExplorerOD expModel;
 	int numObservableVars = 0;
 	
+	TraceAutomaton classAutomaton; // automaton of public data
+	List<Integer> classInitialStates; // deterministic states of the first initial state of each public class, if condition 2 holds
+	
+	private boolean result2; // condition 2 holds
+	private Boolean result1 = null; // condition 1 holds, or null if it is not checked
+	
 	// logs
 	private PrismLog mainLog = null;
 	
-	public ODChecker(ProbModel probModel, PrismLog mainLog) throws PrismException {
+	public ODChecker(LeakModel leakModel, PrismLog mainLog) throws PrismException {
 		
 		this.mainLog = mainLog;
-		this.probModel = probModel;
+		this.leakModel = leakModel;
 		this.numObservableVars = determineNumObservableVars();
 		if(numObservableVars == 0)
 			throw new PrismException("There should be at least one observable variable!");
 		
 		// explore traces and compute trace probabilities and final state secret distributions
-		this.expModel = new ProbModelExplicitExplorerOD(probModel, numObservableVars);
+		this.expModel = new ProbModelExplicitExplorerOD(leakModel, numObservableVars);
 
 		mainLog.println("\nChecking Observational Determinism condition 2 ...");
-		boolean result2 = checkODCondition2();
+		result2 = checkODCondition2();
 		mainLog.println("Observational Determinism condition 2: "+result2);
     	
     	if (result2) {	
     		mainLog.println("\nChecking Observational Determinism condition 1 ...");
-	    	boolean result1 = checkODCondition1();
+	    	result1 = checkODCondition1();
 	    	mainLog.println("Observational Determinism condition 1: "+result1);
 	   	} else {
 	  		mainLog.println("\nObservational Determinism condition 2 does not hold, so there is "
@@ -52,197 +55,144 @@ public class ODChecker {
 		
 	}
 	
+	/**
+	 * Condition 1: for each observable variable, the stutter-free traces of the variable are totally ordered 
+	 * by the prefix relation, i.e. in the automaton of the variable, the initial states have the same value and
+	 * no deterministic state reachable from them has successors by two different values.
+	 * The automaton of a variable is built on the deterministic states of the automaton of public data, 
+	 * so the states explored for condition 2 are not explored again. 
+	 * 
+	 */
     public boolean checkODCondition1() throws PrismException {
 		
-		
-		Stack<Long> path  = new Stack<Long>();   // the current path
-	    
-	    boolean result = true;
-	    long state_num;
-	    String publicData = "";
-	    
-	    // one list of witnesses for each observable variable and one witness for each initial value of the observable variable
-	    List<List<String>> witnesses = new ArrayList<>();
+    	StateTable states = expModel.reachStates;
+    	TraceAutomaton automaton = getClassAutomaton();
+    	
+    	// if condition 2 holds, traces of the first initial state of each public class are the traces of the others
+    	List<Integer> initials = classInitialStates;
+    	if (initials == null) {
+    		initials = new ArrayList<>();
+    		for (int s : expModel.startStates)
+    			initials.add(automaton.getState(s));
+    	}
+    	
+    	// value of each observable variable in each public class
+    	int[][] classValues = new int[numObservableVars][states.getNumPublicClasses()];
+    	for(int s=0; s < states.getNumStates(); s++)
+    		for(int i=0; i < numObservableVars; i++)
+    			classValues[i][states.getPublicClass(s)] = states.getPublicValue(s, i);
+    	
 	    for(int i=0; i < numObservableVars; i++) {
-//	    	witnesses.add(new HashMap<>());
-	    	witnesses.add(new ArrayList<String>());
-//	    	for(ExplicitState s: expModel.startStates) {
-//	    		publicData = s.getPublicData(i);
-//	    		witnesses.get(i).put(publicData, new ArrayList<String>());
-//	    	}
-	    }
 	    	
-	    
-		for (ExplicitState s : expModel.startStates) {
-			state_num = s.getStateNumber();
-			result = allPathsCondition1(state_num, path, witnesses);
-			if(!result)
-				return false;
-		}
+	    	TraceAutomaton varAutomaton = new TraceAutomaton(automaton, classValues[i]);
+	    	
+	    	// initial states which have complete paths should start traces with the same value
+	    	List<Integer> starts = new ArrayList<>();
+	    	for (int d : initials)
+	    		if (automaton.getLabel(d) != -1) {
+	    			if (!starts.isEmpty() && classValues[i][automaton.getLabel(d)] != classValues[i][automaton.getLabel(starts.get(0))])
+	    				return false;
+	    			starts.add(d);
+	    		}
+	    	
+	    	int d = varAutomaton.getState(starts.stream().mapToInt(Integer::intValue).toArray());
+	    	if (!varAutomaton.isChain(d))
+	    		return false;
+	    }
 		
     	return true;
 	}
 	
+	/**
+	 * Condition 2: initial states with the same public data have the same set of stutter-free traces.
+	 * Trace sets are compared by language equivalence in the automaton of public data, where each
+	 * initial state is only compared with the first initial state of its public class. For the first pair
+	 * with different trace sets, two traces which tell them apart are printed as a counterexample.
+	 * 
+	 */
 	public boolean checkODCondition2() throws PrismException {
 	    
-	    long state_num, s1, s2;
-	    String s1_public, s2_public;
-		
-		// set of all traces (stutter steps removed) for each initial state
-		Map<Long, Set<List<String>>> allTraces = new HashMap<>();
-				
-		Stack<Long> path  = new Stack<Long>();   // the current path
-		for (ExplicitState s : expModel.startStates) {
-			state_num = s.getStateNumber();	
-			allTraces.put(state_num, new HashSet<>());
-			allPathsCondition2(state_num, path, allTraces);
-		}
+    	StateTable states = expModel.reachStates;
+    	TraceAutomaton automaton = getClassAutomaton();
 		
-		// check condition 2
-		for (int i=0; i<expModel.startStates.size(); i++) { // create all pairs of initial states
-			s1 = expModel.startStates.get(i).getStateNumber();	
-			for (int j=i+1; j<expModel.startStates.size(); j++) {
-				s2 = expModel.startStates.get(j).getStateNumber();
-				
-				if (s1 != s2) {
-					s1_public = expModel.startStates.get(i).getPublicData(-1);
-					s2_public = expModel.startStates.get(j).getPublicData(-1); 
-					if (s1_public.equals(s2_public) && !allTraces.get(s1).equals(allTraces.get(s2)))
-						return false;
-				}
+		// first initial state of each public class
+		Map<Integer, Integer> classStates = new HashMap<>();
+		for (int s : expModel.startStates) {
+			Integer first = classStates.putIfAbsent(states.getPublicClass(s), s);
+			if (first == null)
+				continue;
+			
+			// stop at the first pair of initial states with different traces
+			List<List<Integer>> traces = automaton.distinguishingTraces(automaton.getState(first), automaton.getState(s));
+			if (traces != null) {
+				mainLog.println("Counterexample: initial states " + states.getSecretData(first) + " and " 
+						+ states.getSecretData(s) + " (secret data) have different stutter-free traces");
+				mainLog.println("  " + traceData(states, states.getPublicClass(first), traces.get(0)));
+				mainLog.println("  " + traceData(states, states.getPublicClass(s), traces.get(1)));
+				return false;
 			}
 		}
+		
+		classInitialStates = new ArrayList<>();
+		for (int s : classStates.values())
+			classInitialStates.add(automaton.getState(s));
     	return true;
 	} 
+	
+	/**
+	 * 
+	 * @return the automaton of public data, which is shared by both conditions
+	 */
+	private TraceAutomaton getClassAutomaton() {
 		
-	// use DFS to find all paths starting from v
-    private boolean allPathsCondition1(long v, Stack<Long> path, List<List<String>> witnesses) {
-
-    	boolean result;
-    	long iniState;
-    	String iniStatePublicData;
-    	List<String> trace, witness;
-    	
-        // add state number v to current path from the initial state
-        path.push(v);
-
-        // found a path
-        if (expModel.isFinalState(v)) {
-        	
-        	for(int i=0; i < numObservableVars; i++) { 
-	        	trace = expModel.trace(path, i);
-	        	iniState = path.get(0);
-	        	iniStatePublicData = expModel.getPublicData(iniState, i);
-	        	witness = witnesses.get(i);//.get(iniStatePublicData);
-	        	// Remove stuttering steps from trace
-	        	trace = removeStutterData(trace);
-	        	if (trace.size() <= witness.size()) {
-	        		if (!isPrefix(trace, witness))
-	        			return false;
-		        	}
-	        	else {
-	        		if (!isPrefix(witness, trace))
-	        			return false;
-	        		else
-		        		{
-//		        			witnesses.get(i).clear();
-		        			witnesses.set(i, trace);
-		        		}
-	        	}  
-        	}	
-        }
-        
-        // consider all successors that would continue path with repeating a state
-        else {
-            for (long w : expModel.post(v)) {
-//                if (!path.contains(w)) { 
-                	result = allPathsCondition1(w, path, witnesses);
-	               	if (!result)
-	               		return false;
-//                }
-            }
-        }
-
-        // done exploring from v, so remove from path
-        path.pop();
-        
-        return true;
-    }
-    
-    // use DFS to find all paths starting from v
-    private void allPathsCondition2(long v, Stack<Long> path, Map<Long, Set<List<String>>> allTraces) {
-    	
-        // add state number v to current path from the initial state
-        path.push(v);
-
-        // found a path
-        if (expModel.isFinalState(v)) {
-        	
-        	List<String> trace = expModel.trace(path, -1);
-        	long iniState = path.get(0);
-        	// Remove stuttering steps from trace
-        	trace = removeStutterData(trace);
-        	allTraces.get(iniState).add(trace);
-    	
-        }
-        
-        // consider all successors that would continue path with repeating a state
-        else {
-            for (long w : expModel.post(v)) {
-//                if (!path.contains(w))  
-                	allPathsCondition2(w, path, allTraces);
-            }
-        }
-
-        // done exploring from v, so remove from path
-        path.pop();
-        
-        return;
-    }
-
-    /**
-     * 
-     * @param trace_a
-     * @param trace_b
-     * @return true if trace_a is prefix of trace_b
-     */
-	public boolean isPrefix(List<String> trace_a, List<String> trace_b) {
-		
-		if(trace_a.size() <= trace_b.size()) {
-			
-			for(int i=0; i < trace_a.size(); i++) 
-				if(!trace_a.get(i).equals(trace_b.get(i)))
-					return false;
-			
-			return true;
+		if (classAutomaton == null) {
+	    	StateTable states = expModel.reachStates;
+	    	int[] publicClasses = new int[states.getNumStates()];
+	    	for(int s=0; s < publicClasses.length; s++)
+	    		publicClasses[s] = states.getPublicClass(s);
+	    	classAutomaton = new TraceAutomaton(expModel.transitions, publicClasses, expModel.transitions.canReachFinal());
 		}
+		return classAutomaton;
+	}
+	
+	/**
+	 * 
+	 * @return public data of the trace which starts in public class c and reads the public classes of trace
+	 */
+	private String traceData(StateTable states, int c, List<Integer> trace) {
 		
-		return false;
+		if (trace == null)
+			return "(no complete path)";
+		
+		List<String> data = new ArrayList<>();
+		data.add(states.getPublicClassData(c));
+		for (int l : trace)
+			data.add(states.getPublicClassData(l));
+		return data.toString();
 	}
 	
 	/**
-	 * Removes stutter data of the trace 
 	 * 
-	 * @param trace
-	 * @return
+	 * @return true if condition 2 holds
 	 */
-	public List<String> removeStutterData(List<String> trace){
-		List<String> new_trace = new ArrayList<>();
-		String data = trace.get(0);
-		new_trace.add(data);
-		for(String d: trace) {
-			if(!d.equals(data)) {
-				data = d;
-				new_trace.add(data);
-			}
-		}
-		return new_trace;
+	public boolean getCondition2() {
+		
+		return result2;
+	}
+	
+	/**
+	 * 
+	 * @return true if condition 1 holds, or null if it is not checked, since condition 2 does not hold
+	 */
+	public Boolean getCondition1() {
+		
+		return result1;
 	}
 	
 	public int determineNumObservableVars() {
 		
 		int num = 0;
-		VarList varList = probModel.getVarList();
+		VarList varList = leakModel.getVarList();
 		int j = varList.getNumVars();
 		int observabilityType;
 		
@@ -11,17 +11,13 @@ import java.util.Set;
 import java.util.Stack;
 import java.util.TreeMap;
 
-import jdd.JDDNode;
-import jdd.JDDVars;
-import odd.ODDNode;
 import parser.VarList;
 import parser.ast.Declaration;
 import parser.type.TypeInt;
 import prism.PrismException;
-import prism.ProbModel;
-import prism.StateListMTBDD;
-import prismintertrace.ExplicitState;
-import sparse.PrismSparse;
+import prismintertrace.LeakModel;
+import prismintertrace.LeakTransitionMatrix;
+import prismintertrace.StateTable;
 
 /**
 *
@@ -32,21 +28,17 @@ import sparse.PrismSparse;
 
 public class ProbModelExplicitExplorerOD {
 	
-	private ProbModel currentModel = null;
-	List<ExplicitState> reachStates; // set of reachable states
-	List<ExplicitState> startStates; // set of initial states
+	private LeakModel currentModel = null;
+	StateTable reachStates; // table of reachable states
+	int[] startStates; // numbers of initial states
 	int numObservableVars;
 	
-	JDDNode matrix;
-	String name;
-	JDDVars rows;
-	JDDVars cols;
-	ODDNode odd;
+	LeakTransitionMatrix transitions; // transition matrix of the model
 	
 //	Map<Long, Set<List<String>>> allVarsIniTraces; // all traces of an initial state - temporary variable to print traces
 //	List<Set<List<String>>> varsListTraces;
 	
-	public ProbModelExplicitExplorerOD(ProbModel currentModel, int numObservableVars) throws PrismException {
+	public ProbModelExplicitExplorerOD(LeakModel currentModel, int numObservableVars) throws PrismException {
 		
 		this.currentModel = currentModel;
 		this.reachStates = getStates();
@@ -55,47 +47,35 @@ public class ProbModelExplicitExplorerOD {
 		assert numObservableVars > 0: "There should be at least one observable variable!";
 		this.numObservableVars = numObservableVars;
 		
-		matrix = currentModel.getTrans();
-		name = currentModel.getTransSymbol();
-		rows = currentModel.getAllDDRowVars();
-		cols = currentModel.getAllDDColVars();
-		odd = currentModel.getODD();
-				
-		double res = PrismSparse.PS_CreateSparseMatrix(matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
-		if (res == -2) {
-			throw new PrismException("Out of memory building transition matrix");
-		}
+		transitions = currentModel.getTransitions();
 		
-//      PrismSparse.PS_FreeSparseMatrix(matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
 	}
 
 	 /**
 	  * 
-	  * @return the explicit set of reachable states 
+	  * @return the table of reachable states 
 	  */
-	public List<ExplicitState> getStates() {
+	public StateTable getStates() {
 		 
-		StateListMTBDD states = (StateListMTBDD) currentModel.getReachableStates();
-		return states.getExplicitStates();
+		return currentModel.getStates();
 	}
 
 	 /**
 	  * 
-	  * @return the explicit set of initial states 
+	  * @return numbers of initial states 
 	  */
-	public List<ExplicitState> getInitialStates() {
+	public int[] getInitialStates() {
 		 
-		StateListMTBDD start = (StateListMTBDD) currentModel.getStartStates();
-		return start.getExplicitStates();
+		return currentModel.getInitialStates();
 	}
 	 
 	 /**
-	  * Note: Make sure s is less than reachStates.size()
+	  * Note: Make sure s is less than reachStates.getNumStates()
 	  * @return successor states of s. If s has a self-loop, it is included in post(s)
 	  */
 	public int[] post(long s) {
 		
-		return PrismSparse.PS_SuccessorStates((int) s, matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
+		return transitions.post((int) s);
 	}
 	 
 	 /**
@@ -104,7 +84,7 @@ public class ProbModelExplicitExplorerOD {
 	  */
 	public boolean isFinalState(long s) {
 		 
-		return PrismSparse.isFinalState((int) s, matrix, name, rows, cols, odd);
+		return transitions.isFinalState((int) s);
 	}
 	 
 	 /**
@@ -113,7 +93,7 @@ public class ProbModelExplicitExplorerOD {
 	  */
 	public double getTransitionProb(long i, long j) {
 		 
-		return PrismSparse.PS_GetTransitionProb((int) i, (int) j, matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
+		return transitions.getTransitionProb((int) i, (int) j);
 	}
 	 
 	 /**
@@ -156,7 +136,7 @@ public class ProbModelExplicitExplorerOD {
 	 */
 	public String getPublicData(long s, int varIndex) {
 		
-		return reachStates.get((int) s).getPublicData(varIndex);
+		return reachStates.getPublicData((int) s, varIndex);
 	}
 	
 	public int getNumObservableVars() {
@@ -0,0 +1,383 @@
+package prismod;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import prismintertrace.LeakTransitionMatrix;
+
+/**
+*
+*	The transition graph of a model as an automaton over public data, whose words are the stutter-free traces
+*	of paths ending in final states. A transition to a state with the same label (public data) is a stutter step,
+*	i.e. an epsilon-move, and a transition to a state with a different label reads that label.
+*	States from which no final state is reachable are left out, since they have no complete path.
+*	The automaton is determinised on the fly: a deterministic state is a set of states with the same label,
+*	closed under stutter steps. Deterministic states are only built when they are reached from the states being
+*	checked, so the automaton is usually much smaller than the full subset construction.
+*	An automaton can also be built on the deterministic states of another automaton, with their labels projected,
+*	e.g. to the value of one observable variable. Its traces are the projections of the traces of the other automaton,
+*	so the other automaton's work (and memoised states) is reused, instead of starting again from the model.
+*
+* @author Ali A. Noroozi
+*/
+
+public class TraceAutomaton {
+
+	private final Graph graph; // transitions, labels (public data) and final states of the states
+
+	// deterministic states: sets of states, acceptance and successors by label
+	private final Map<StateSet, Integer> index = new HashMap<>();
+	private final List<int[]> sets = new ArrayList<>();
+	private final List<Boolean> accepting = new ArrayList<>();
+	private final List<Map<Integer, Integer>> successors = new ArrayList<>(); // null until computed
+	private final List<int[]> successorStates = new ArrayList<>(); // values of successors, null until computed
+
+	private final BitSet visited = new BitSet(); // scratch set for closures
+
+	/**
+	 * label is the label (public data) of each state, and productive tells if a final state is reachable from a state
+	 */
+	public TraceAutomaton(LeakTransitionMatrix transitions, int[] label, boolean[] productive) {
+
+		this.graph = new Graph() {
+			public int numSuccessors(int s) { return transitions.rowEnd(s) - transitions.rowStart(s); }
+			public int successor(int s, int k) { return transitions.getColumn(transitions.rowStart(s) + k); }
+			public int label(int s) { return label[s]; }
+			public boolean isFinal(int s) { return transitions.isFinalState(s); }
+			public boolean isProductive(int s) { return productive[s]; }
+		};
+	}
+
+	/**
+	 * States are the deterministic states of base, and the label of a state is project[l], where l is its label in base
+	 */
+	public TraceAutomaton(TraceAutomaton base, int[] project) {
+
+		this.graph = new Graph() {
+			public int numSuccessors(int d) { return base.getSuccessorStates(d).length; }
+			public int successor(int d, int k) { return base.getSuccessorStates(d)[k]; }
+			public int label(int d) { return project[base.getLabel(d)]; }
+			public boolean isFinal(int d) { return base.isAccepting(d); }
+			public boolean isProductive(int d) { return base.sets.get(d).length > 0; }
+		};
+	}
+
+	/**
+	 * states should have the same label
+	 *
+	 * @return deterministic state of states and the states reachable from them by stutter steps
+	 */
+	public int getState(int... states) {
+
+		List<Integer> closure = new ArrayList<>();
+		Deque<Integer> stack = new ArrayDeque<>();
+		for (int s : states)
+			if (graph.isProductive(s) && !visited.get(s)) {
+				visited.set(s);
+				stack.push(s);
+			}
+
+		while (!stack.isEmpty()) {
+			int s = stack.pop();
+			closure.add(s);
+			for (int k = 0; k < graph.numSuccessors(s); k++) {
+				int t = graph.successor(s, k);
+				if (graph.label(t) == graph.label(s) && graph.isProductive(t) && !visited.get(t)) {
+					visited.set(t);
+					stack.push(t);
+				}
+			}
+		}
+
+		int[] set = new int[closure.size()];
+		for (int i = 0; i < set.length; i++) {
+			set[i] = closure.get(i);
+			visited.clear(set[i]);
+		}
+		Arrays.sort(set);
+
+		StateSet key = new StateSet(set);
+		Integer d = index.get(key);
+		if (d == null) {
+			d = sets.size();
+			index.put(key, d);
+			sets.add(set);
+			boolean acc = false;
+			for (int s : set)
+				acc |= graph.isFinal(s);
+			accepting.add(acc);
+			successors.add(null);
+			successorStates.add(null);
+		}
+		return d;
+	}
+
+	/**
+	 *
+	 * @return true if deterministic state d contains a final state, i.e. it accepts the empty (rest of the) trace
+	 */
+	public boolean isAccepting(int d) {
+
+		return accepting.get(d);
+	}
+
+	/**
+	 *
+	 * @return successors of deterministic state d, by the label they read (labels are sorted)
+	 */
+	public Map<Integer, Integer> getSuccessors(int d) {
+
+		Map<Integer, Integer> succ = successors.get(d);
+		if (succ != null)
+			return succ;
+
+		// states reached from d by reading each label
+		Map<Integer, List<Integer>> targets = new TreeMap<>();
+		for (int s : sets.get(d))
+			for (int k = 0; k < graph.numSuccessors(s); k++) {
+				int t = graph.successor(s, k);
+				if (graph.label(t) != graph.label(s) && graph.isProductive(t))
+					targets.computeIfAbsent(graph.label(t), l -> new ArrayList<>()).add(t);
+			}
+
+		succ = new TreeMap<>();
+		for (Map.Entry<Integer, List<Integer>> e : targets.entrySet())
+			succ.put(e.getKey(), getState(e.getValue().stream().mapToInt(Integer::intValue).toArray()));
+		successors.set(d, succ);
+		successorStates.set(d, succ.values().stream().mapToInt(Integer::intValue).toArray());
+		return succ;
+	}
+
+	private int[] getSuccessorStates(int d) {
+
+		getSuccessors(d);
+		return successorStates.get(d);
+	}
+
+	/**
+	 *
+	 * @return label of the states of deterministic state d, or -1 if d is empty
+	 */
+	public int getLabel(int d) {
+
+		int[] set = sets.get(d);
+		return set.length == 0 ? -1 : graph.label(set[0]);
+	}
+
+	/**
+	 *
+	 * @return number of deterministic states built so far
+	 */
+	public int getNumStates() {
+
+		return sets.size();
+	}
+
+	/**
+	 * Language equivalence of deterministic states (Hopcroft and Karp): pairs of states that should accept
+	 * the same traces are merged by union-find, and their successors by each label are compared in turn.
+	 *
+	 * @return true if deterministic states d1 and d2 accept the same traces
+	 */
+	public boolean equivalent(int d1, int d2) {
+
+		return distinguishingTraces(d1, d2) == null;
+	}
+
+	/**
+	 * Explore pairs of deterministic states of d1 and d2 in lockstep (breadth-first), reading the same labels,
+	 * and stop at the first pair which accepts different traces. Deterministic states are built only as far as
+	 * the exploration goes, so a violation near the initial states is found without building the rest.
+	 *
+	 * @return null if d1 and d2 accept the same traces, else a shortest trace accepted by d1 and a trace accepted
+	 * by d2 which share a prefix and then differ (a trace is null if its state accepts no trace at all)
+	 */
+	public List<List<Integer>> distinguishingTraces(int d1, int d2) {
+
+		Map<Integer, Integer> parent = new HashMap<>();
+		// explored pairs, with the pair they are reached from and the label read
+		List<int[]> pairs = new ArrayList<>();
+		List<Integer> from = new ArrayList<>();
+		List<Integer> read = new ArrayList<>();
+		union(parent, d1, d2);
+		pairs.add(new int[] { d1, d2 });
+		from.add(-1);
+		read.add(-1);
+
+		for (int p = 0; p < pairs.size(); p++) {
+			int[] pair = pairs.get(p);
+			Map<Integer, Integer> succ1 = getSuccessors(pair[0]);
+			Map<Integer, Integer> succ2 = getSuccessors(pair[1]);
+
+			// successors contain productive states only, so they accept some trace: the labels read should be the same
+			if (isAccepting(pair[0]) != isAccepting(pair[1]) || !succ1.keySet().equals(succ2.keySet())) {
+
+				// common prefix of the traces, read from the initial pair
+				List<Integer> prefix = new ArrayList<>();
+				for (int q = p; from.get(q) >= 0; q = from.get(q))
+					prefix.add(0, read.get(q));
+
+				// a label read by one state and not the other, or else the state which accepts the prefix
+				Integer label = null;
+				for (int l : succ1.keySet())
+					if (!succ2.containsKey(l))
+						label = l;
+				for (int l : succ2.keySet())
+					if (label == null && !succ1.containsKey(l))
+						label = l;
+
+				List<List<Integer>> traces = new ArrayList<>();
+				for (int i = 0; i < 2; i++) {
+					Map<Integer, Integer> succ = i == 0 ? succ1 : succ2;
+					List<Integer> rest = label != null && succ.containsKey(label)
+							? shortestTrace(label, succ.get(label)) : shortestTrace(null, pair[i]);
+					if (rest == null)
+						traces.add(null);
+					else {
+						rest.addAll(0, prefix);
+						traces.add(rest);
+					}
+				}
+				return traces;
+			}
+
+			for (Map.Entry<Integer, Integer> e : succ1.entrySet()) {
+				int t1 = e.getValue();
+				int t2 = succ2.get(e.getKey());
+				if (find(parent, t1) != find(parent, t2)) {
+					union(parent, t1, t2);
+					pairs.add(new int[] { t1, t2 });
+					from.add(p);
+					read.add(e.getKey());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * If first is not null, the trace starts by reading first, which leads to deterministic state d
+	 *
+	 * @return a shortest trace from deterministic state d to acceptance, or null if d accepts no trace
+	 */
+	private List<Integer> shortestTrace(Integer first, int d) {
+
+		Map<Integer, Integer> from = new HashMap<>(); // deterministic state it is reached from
+		Map<Integer, Integer> read = new HashMap<>(); // label read to reach it
+		Deque<Integer> queue = new ArrayDeque<>();
+		from.put(d, -1);
+		queue.add(d);
+		while (!queue.isEmpty()) {
+			int q = queue.poll();
+			if (isAccepting(q)) {
+				List<Integer> trace = new ArrayList<>();
+				for (; q != d; q = from.get(q))
+					trace.add(0, read.get(q));
+				if (first != null)
+					trace.add(0, first);
+				return trace;
+			}
+			for (Map.Entry<Integer, Integer> e : getSuccessors(q).entrySet())
+				if (!from.containsKey(e.getValue())) {
+					from.put(e.getValue(), q);
+					read.put(e.getValue(), e.getKey());
+					queue.add(e.getValue());
+				}
+		}
+		return null;
+	}
+
+	/**
+	 *
+	 * @return true if the traces accepted by deterministic state d are totally ordered by the prefix relation,
+	 * i.e. no state reachable from d has successors by two different labels
+	 */
+	public boolean isChain(int d) {
+
+		BitSet seen = new BitSet();
+		Deque<Integer> stack = new ArrayDeque<>();
+		seen.set(d);
+		stack.push(d);
+		while (!stack.isEmpty()) {
+			Map<Integer, Integer> succ = getSuccessors(stack.pop());
+			if (succ.size() > 1)
+				return false;
+			for (int t : succ.values())
+				if (!seen.get(t)) {
+					seen.set(t);
+					stack.push(t);
+				}
+		}
+		return true;
+	}
+
+	private static int find(Map<Integer, Integer> parent, int d) {
+
+		int root = d;
+		while (parent.containsKey(root))
+			root = parent.get(root);
+		// path compression
+		while (d != root) {
+			int next = parent.get(d);
+			parent.put(d, root);
+			d = next;
+		}
+		return root;
+	}
+
+	private static void union(Map<Integer, Integer> parent, int d1, int d2) {
+
+		int r1 = find(parent, d1);
+		int r2 = find(parent, d2);
+		if (r1 != r2)
+			parent.put(r1, r2);
+	}
+
+	/**
+	 * Transitions, labels and final states of the states an automaton is built on
+	 */
+	private interface Graph {
+
+		int numSuccessors(int s);
+
+		int successor(int s, int k);
+
+		int label(int s);
+
+		boolean isFinal(int s);
+
+		boolean isProductive(int s);
+	}
+
+	/**
+	 * A sorted set of states, used as the key of a deterministic state
+	 */
+	private static final class StateSet {
+
+		final int[] states;
+		final int hash;
+
+		StateSet(int[] states) {
+			this.states = states;
+			this.hash = Arrays.hashCode(states);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof StateSet && Arrays.equals(states, ((StateSet) o).states);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+}
@@ -406,6 +406,28 @@ public class ModulesFileModelGenerator implements ModelGenerator
 		}
 	}
 
+	/**
+	 * Create a partial-order reduction of the model (a DTMC), for the current values of constants.
+	 */
+	public PartialOrderReduction createPartialOrderReduction() throws PrismException
+	{
+		if (varList == null) {
+			throw new PrismException("Model has undefined constants");
+		}
+		return new PartialOrderReduction(modulesFile, varList);
+	}
+
+	/**
+	 * Create a symmetry reduction of the model (a DTMC), for the current values of constants.
+	 */
+	public SymmetryReduction createSymmetryReduction() throws PrismException
+	{
+		if (varList == null) {
+			throw new PrismException("Model has undefined constants");
+		}
+		return new SymmetryReduction(modulesFile, varList);
+	}
+
 	// Local utility methods
 	
 	/**
@@ -0,0 +1,190 @@
+package simulator;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import parser.State;
+import parser.VarList;
+import parser.ast.Command;
+import parser.ast.Declaration;
+import parser.ast.Expression;
+import parser.ast.ExpressionBinaryOp;
+import parser.ast.ExpressionUnaryOp;
+import parser.ast.ModulesFile;
+import parser.ast.Update;
+import parser.ast.Updates;
+import prism.ModelType;
+import prism.PrismException;
+import prism.PrismLangException;
+
+/**
+*
+*	Partial-order reduction of DTMCs built from PRISM models, with singleton ample sets: in a state where some
+*	unsynchronised command c is ample, only the transitions of c are explored, instead of the (uniformly chosen)
+*	transitions of all enabled commands. Interleavings of independent commands which do not change observable
+*	variables are then explored in a single order.
+*	A command c is ample in a state if:
+*	- it writes no observable variable (it is invisible), and
+*	- it writes no variable read by the guard of another command, so taking it enables or disables no other command
+*	  and the uniform choice among the other enabled commands is the same before and after c is taken, and
+*	- every other command which is dependent on c (one of them writes a variable the other reads or writes) is
+*	  dead: its guard has a conjunct which is false in the state and only reads variables that no command writes.
+*	Model construction adds the cycle condition: c is only used if all its successors are new states.
+*	Then c commutes with every command taken before it, so the reduced DTMC has the same stutter-free traces of
+*	observable variables, with the same probabilities for each initial state, and the same final states.
+*	It does not preserve traces with stutter steps (the number of steps of a path changes).
+*
+* @author Ali A. Noroozi
+*/
+
+public class PartialOrderReduction {
+
+	private final Command[] commands; // all commands of the model, module by module
+	private final boolean[] candidate; // commands which may be ample in some state
+	private final int[][] dependents; // commands dependent on each candidate
+	private final Expression[][] constants; // conjuncts of the guard of each command which only read constant variables
+
+	public PartialOrderReduction(ModulesFile modulesFile, VarList varList) throws PrismException {
+
+		if (modulesFile.getModelType() != ModelType.DTMC)
+			throw new PrismException("Partial-order reduction is only supported for DTMCs");
+
+		List<Command> list = new ArrayList<>();
+		for (int m = 0; m < modulesFile.getNumModules(); m++)
+			for (int k = 0; k < modulesFile.getModule(m).getNumCommands(); k++)
+				list.add(modulesFile.getModule(m).getCommand(k));
+		commands = list.toArray(new Command[0]);
+		int n = commands.length;
+
+		// variables read (by the guard) and written by each command, and variables written by some command
+		BitSet[] reads = new BitSet[n];
+		BitSet[] guardReads = new BitSet[n];
+		BitSet[] writes = new BitSet[n];
+		BitSet written = new BitSet();
+		for (int c = 0; c < n; c++) {
+			reads[c] = new BitSet();
+			writes[c] = new BitSet();
+			guardReads[c] = new BitSet();
+			addVars(commands[c].getGuard(), varList, guardReads[c]);
+			reads[c].or(guardReads[c]);
+			Updates updates = commands[c].getUpdates();
+			for (int i = 0; i < updates.getNumUpdates(); i++) {
+				if (updates.getProbability(i) != null)
+					addVars(updates.getProbability(i), varList, reads[c]);
+				Update update = updates.getUpdate(i);
+				for (int j = 0; j < update.getNumElements(); j++) {
+					addVars(update.getExpression(j), varList, reads[c]);
+					writes[c].set(varList.getIndex(update.getVar(j)));
+				}
+			}
+			written.or(writes[c]);
+		}
+
+		constants = new Expression[n][];
+		for (int x = 0; x < n; x++) {
+			List<Expression> constantConjuncts = new ArrayList<>();
+			for (Expression conjunct : conjuncts(commands[x].getGuard())) {
+				BitSet vars = new BitSet();
+				addVars(conjunct, varList, vars);
+				if (!vars.intersects(written))
+					constantConjuncts.add(conjunct);
+			}
+			constants[x] = constantConjuncts.toArray(new Expression[0]);
+		}
+
+		candidate = new boolean[n];
+		dependents = new int[n][];
+		for (int c = 0; c < n; c++) {
+			boolean visible = false;
+			for (int v = writes[c].nextSetBit(0); v >= 0; v = writes[c].nextSetBit(v + 1))
+				visible |= varList.getDeclaration(v).getObservabilityType() == Declaration.OBSERVABILITY_OBSERVABLE;
+			if (visible || commands[c].getSynchIndex() != 0)
+				continue;
+			// a command which may enable another command changes the probability of the choices of later states
+			boolean enabling = false;
+			for (int x = 0; x < n; x++)
+				enabling |= x != c && writes[c].intersects(guardReads[x]);
+			if (enabling)
+				continue;
+
+			List<Integer> deps = new ArrayList<>();
+			candidate[c] = true;
+			for (int x = 0; x < n && candidate[c]; x++) {
+				if (x == c || !(writes[c].intersects(reads[x]) || writes[c].intersects(writes[x]) || writes[x].intersects(reads[c])))
+					continue;
+				deps.add(x);
+				// x is never dead, so c is never ample
+				candidate[c] = constants[x].length > 0;
+			}
+			dependents[c] = deps.stream().mapToInt(Integer::intValue).toArray();
+		}
+	}
+
+	/**
+	 * The choices of a state are numbered as by Updater: unsynchronised commands, module by module in the order
+	 * of the model, come first.
+	 *
+	 * @return index of the choice of an ample command of state s, or -1 if there is none
+	 */
+	public int getAmpleChoice(State s) throws PrismLangException {
+
+		int choice = 0;
+		for (int c = 0; c < commands.length; c++) {
+			if (commands[c].getSynchIndex() != 0 || !commands[c].getGuard().evaluateBoolean(s))
+				continue;
+			if (candidate[c] && isAmple(c, s))
+				return choice;
+			choice++;
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @return true if every command dependent on candidate c is dead in state s
+	 */
+	private boolean isAmple(int c, State s) throws PrismLangException {
+
+		for (int x : dependents[c]) {
+			boolean dead = false;
+			for (Expression conjunct : constants[x])
+				if (!conjunct.evaluateBoolean(s)) {
+					dead = true;
+					break;
+				}
+			if (!dead)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return conjuncts of expression guard
+	 */
+	private static List<Expression> conjuncts(Expression guard) {
+
+		List<Expression> list = new ArrayList<>();
+		if (guard instanceof ExpressionUnaryOp && ((ExpressionUnaryOp) guard).getOperator() == ExpressionUnaryOp.PARENTH)
+			list.addAll(conjuncts(((ExpressionUnaryOp) guard).getOperand()));
+		else if (Expression.isAnd(guard)) {
+			list.addAll(conjuncts(((ExpressionBinaryOp) guard).getOperand1()));
+			list.addAll(conjuncts(((ExpressionBinaryOp) guard).getOperand2()));
+		}
+		else
+			list.add(guard);
+		return list;
+	}
+
+	/**
+	 * Add the indices of the variables of expression e to vars
+	 *
+	 */
+	private static void addVars(Expression e, VarList varList, BitSet vars) throws PrismLangException {
+
+		for (String name : e.getAllVars())
+			vars.set(varList.getIndex(name));
+	}
+
+}
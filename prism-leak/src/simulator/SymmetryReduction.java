@@ -0,0 +1,315 @@
+package simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import parser.State;
+import parser.VarList;
+import parser.ast.Declaration;
+import parser.ast.Module;
+import parser.ast.ModulesFile;
+import parser.ast.Update;
+import parser.ast.Updates;
+import prism.ModelType;
+import prism.PrismException;
+
+/**
+*
+*	Symmetry reduction of DTMCs built from PRISM models with renamed copies of modules, e.g. replicated threads or
+*	voters. A group is a module with its renamed copies; the renaming of a copy maps the variables of the module to
+*	those of the copy. During model construction, the copies of a group in a target state are sorted by the values
+*	of their variables, so that states which only differ by a permutation of the copies are built once.
+*	To keep leakage exact, only permutations which fix public and secret data are used:
+*	- a group is only reduced if its copies have no observable variables, and their secret variables are never
+*	  written, and swapping any two adjacent copies maps the commands of every module to those of its image;
+*	- only copies with the same values of their secret variables are permuted.
+*	Then each target is replaced by a state with the same public data, secret data and future behaviour, and
+*	initial states are kept as they are, so Pr(T, h) and leakage are unchanged. A target which would become a
+*	self-loop of its source is kept as it is, since self-loops of states are treated as stutter steps.
+*
+* @author Ali A. Noroozi
+*/
+
+public class SymmetryReduction {
+
+	private static final Pattern TOKEN = Pattern.compile("[A-Za-z_][A-Za-z_0-9]*|\\S");
+
+	private final List<String> groupNames = new ArrayList<>(); // names of the modules of the groups
+	private final List<int[][]> groups = new ArrayList<>(); // variable indices of each copy of each group
+	private final List<int[]> groupSecrets = new ArrayList<>(); // positions of secret variables in the copies
+
+	public SymmetryReduction(ModulesFile modulesFile, VarList varList) throws PrismException {
+
+		if (modulesFile.getModelType() != ModelType.DTMC)
+			throw new PrismException("Symmetry reduction is only supported for DTMCs");
+
+		// variables written by some command
+		BitSet written = new BitSet();
+		for (int m = 0; m < modulesFile.getNumModules(); m++) {
+			Module module = modulesFile.getModule(m);
+			for (int c = 0; c < module.getNumCommands(); c++) {
+				Updates updates = module.getCommand(c).getUpdates();
+				for (int i = 0; i < updates.getNumUpdates(); i++) {
+					Update update = updates.getUpdate(i);
+					for (int j = 0; j < update.getNumElements(); j++)
+						written.set(varList.getIndex(update.getVar(j)));
+				}
+			}
+		}
+
+		for (int m = 0; m < modulesFile.getNumModules(); m++) {
+			Module base = modulesFile.getModule(m);
+			if (base.getBaseModule() != null)
+				continue;
+			List<Integer> copies = new ArrayList<>();
+			copies.add(m);
+			for (int k = 0; k < modulesFile.getNumModules(); k++)
+				if (base.getName().equals(modulesFile.getModule(k).getBaseModule()))
+					copies.add(k);
+			if (copies.size() > 1) {
+				int[][] vars = copyVars(modulesFile, varList, copies);
+				if (vars != null && isSymmetric(modulesFile, varList, copies, vars, written)) {
+					groupNames.add(base.getName());
+					groups.add(vars);
+					List<Integer> secrets = new ArrayList<>();
+					for (int x = 0; x < vars[0].length; x++)
+						if (varList.getDeclaration(vars[0][x]).getObservabilityType() == Declaration.OBSERVABILITY_SECERT)
+							secrets.add(x);
+					groupSecrets.add(secrets.stream().mapToInt(Integer::intValue).toArray());
+				}
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return number of groups of modules which are reduced
+	 */
+	public int getNumGroups() {
+
+		return groups.size();
+	}
+
+	/**
+	 *
+	 * @return description of the groups which are reduced, e.g. "voter1 (3 copies)"
+	 */
+	public String getGroupsString() {
+
+		StringBuilder s = new StringBuilder();
+		for (int g = 0; g < groups.size(); g++)
+			s.append(g > 0 ? ", " : "").append(groupNames.get(g)).append(" (").append(groups.get(g).length).append(" copies)");
+		return s.toString();
+	}
+
+	/**
+	 *
+	 * @return state s with the copies of each group, among those with the same secret values, sorted by their values
+	 */
+	public State getCanonicalState(State s) {
+
+		Object[] values = null;
+		for (int g = 0; g < groups.size(); g++) {
+			int[][] vars = groups.get(g);
+			int[] secrets = groupSecrets.get(g);
+			boolean[] done = new boolean[vars.length];
+			for (int k = 0; k < vars.length; k++) {
+				if (done[k])
+					continue;
+				// copies with the same secret values as copy k
+				List<Integer> block = new ArrayList<>();
+				for (int l = k; l < vars.length; l++)
+					if (!done[l] && sameValues(s, vars[k], vars[l], secrets)) {
+						block.add(l);
+						done[l] = true;
+					}
+				if (block.size() == 1)
+					continue;
+				Object[][] tuples = new Object[block.size()][];
+				for (int b = 0; b < tuples.length; b++) {
+					int[] copy = vars[block.get(b)];
+					tuples[b] = new Object[copy.length];
+					for (int x = 0; x < copy.length; x++)
+						tuples[b][x] = s.varValues[copy[x]];
+				}
+				Arrays.sort(tuples, SymmetryReduction::compare);
+				for (int b = 0; b < tuples.length; b++) {
+					int[] copy = vars[block.get(b)];
+					for (int x = 0; x < copy.length; x++) {
+						if (s.varValues[copy[x]].equals(tuples[b][x]) && values == null)
+							continue;
+						if (values == null)
+							values = s.varValues.clone();
+						values[copy[x]] = tuples[b][x];
+					}
+				}
+			}
+		}
+		if (values == null)
+			return s;
+		State canonical = new State(values.length);
+		canonical.varValues = values;
+		return canonical;
+	}
+
+	private static boolean sameValues(State s, int[] copy1, int[] copy2, int[] positions) {
+
+		for (int x : positions)
+			if (!s.varValues[copy1[x]].equals(s.varValues[copy2[x]]))
+				return false;
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int compare(Object[] tuple1, Object[] tuple2) {
+
+		for (int x = 0; x < tuple1.length; x++) {
+			int c = ((Comparable<Object>) tuple1[x]).compareTo(tuple2[x]);
+			if (c != 0)
+				return c;
+		}
+		return 0;
+	}
+
+	/**
+	 * The renaming of each copy is found by comparing its commands with those of the base module: they are
+	 * the same, except for the names of renamed variables. Local variables are renamed in order of declaration.
+	 *
+	 * @return indices of the variables of each copy, in the order of those of the base module, or null if the
+	 * renamings are not injective or two copies share a renamed variable
+	 */
+	private static int[][] copyVars(ModulesFile modulesFile, VarList varList, List<Integer> copies) {
+
+		Module base = modulesFile.getModule(copies.get(0));
+		List<Map<String, String>> renamings = new ArrayList<>();
+		Set<String> domain = new LinkedHashSet<>(); // renamed variables of the base module
+		for (int k = 1; k < copies.size(); k++) {
+			Module copy = modulesFile.getModule(copies.get(k));
+			if (copy.getNumCommands() != base.getNumCommands() || copy.getNumDeclarations() != base.getNumDeclarations())
+				return null;
+			Map<String, String> renaming = new HashMap<>();
+			for (int d = 0; d < base.getNumDeclarations(); d++)
+				if (!addRename(renaming, base.getDeclaration(d).getName(), copy.getDeclaration(d).getName()))
+					return null;
+			for (int c = 0; c < base.getNumCommands(); c++) {
+				List<String> tokens = tokens(base.getCommand(c).toString());
+				List<String> copyTokens = tokens(copy.getCommand(c).toString());
+				if (tokens.size() != copyTokens.size())
+					return null;
+				for (int t = 0; t < tokens.size(); t++) {
+					String name = tokens.get(t), copyName = copyTokens.get(t);
+					if (name.equals(copyName))
+						continue;
+					// anything but a variable which differs, e.g. a constant or an action, breaks the symmetry
+					if (!varList.exists(name) || !varList.exists(copyName) || !addRename(renaming, name, copyName))
+						return null;
+				}
+			}
+			renamings.add(renaming);
+			domain.addAll(renaming.keySet());
+		}
+
+		int[][] vars = new int[copies.size()][domain.size()];
+		BitSet used = new BitSet();
+		for (int k = 0; k < copies.size(); k++) {
+			int x = 0;
+			for (String name : domain) {
+				String copyName = k == 0 ? name : renamings.get(k - 1).getOrDefault(name, name);
+				int v = varList.getIndex(copyName);
+				// a variable which is not renamed in some copy is shared
+				if (used.get(v))
+					return null;
+				used.set(v);
+				vars[k][x++] = v;
+			}
+		}
+		return vars;
+	}
+
+	/**
+	 * Add name -> copyName to renaming
+	 *
+	 * @return false if it contradicts renaming, or renaming is then not injective
+	 */
+	private static boolean addRename(Map<String, String> renaming, String name, String copyName) {
+
+		String old = renaming.get(name);
+		if (old != null)
+			return old.equals(copyName);
+		if (renaming.containsValue(copyName))
+			return false;
+		renaming.put(name, copyName);
+		return true;
+	}
+
+	/**
+	 *
+	 * @return true if permutations of the copies with variables vars preserve leakage, as described above
+	 */
+	private static boolean isSymmetric(ModulesFile modulesFile, VarList varList, List<Integer> copies, int[][] vars,
+			BitSet written) {
+
+		for (int x = 0; x < vars[0].length; x++) {
+			for (int[] copy : vars) {
+				int v = copy[x];
+				int obs = varList.getDeclaration(v).getObservabilityType();
+				if (obs == Declaration.OBSERVABILITY_OBSERVABLE || (obs == Declaration.OBSERVABILITY_SECERT && written.get(v)))
+					return false;
+				int v0 = vars[0][x];
+				if (varList.getDeclaration(v0).getObservabilityType() != obs || !varList.getType(v0).equals(varList.getType(v))
+						|| varList.getLow(v0) != varList.getLow(v) || varList.getHigh(v0) != varList.getHigh(v))
+					return false;
+			}
+		}
+
+		// adjacent transpositions generate all permutations of the copies
+		for (int k = 0; k + 1 < copies.size(); k++) {
+			Map<String, String> swap = new HashMap<>();
+			for (int x = 0; x < vars[k].length; x++) {
+				swap.put(varList.getName(vars[k][x]), varList.getName(vars[k + 1][x]));
+				swap.put(varList.getName(vars[k + 1][x]), varList.getName(vars[k][x]));
+			}
+			for (int m = 0; m < modulesFile.getNumModules(); m++) {
+				int image = m == copies.get(k) ? copies.get(k + 1) : m == copies.get(k + 1) ? copies.get(k) : m;
+				if (!commandStrings(modulesFile.getModule(m), swap).equals(commandStrings(modulesFile.getModule(image), null)))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return sorted commands of module, with variables renamed by swap (if not null)
+	 */
+	private static List<String> commandStrings(Module module, Map<String, String> swap) {
+
+		List<String> list = new ArrayList<>();
+		for (int c = 0; c < module.getNumCommands(); c++) {
+			StringBuilder s = new StringBuilder();
+			for (String token : tokens(module.getCommand(c).toString()))
+				s.append(swap == null ? token : swap.getOrDefault(token, token)).append(' ');
+			list.add(s.toString());
+		}
+		list.sort(null);
+		return list;
+	}
+
+	private static List<String> tokens(String s) {
+
+		List<String> list = new ArrayList<>();
+		Matcher matcher = TOKEN.matcher(s);
+		while (matcher.find())
+			list.add(matcher.group());
+		return list;
+	}
+
+}
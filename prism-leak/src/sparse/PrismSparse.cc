@@ -426,27 +426,43 @@ JNIEXPORT void __jlongpointer JNICALL Java_sparse_NDSparseMatrix_PS_1DeleteNDSpa
 // PRISM-Leak stuff
 //----------------------------------------------------------------------------------------------
 
-// sparse matrix
-RMSparseMatrix *rmsm11 = NULL;
-CMSRSparseMatrix *cmsrsm11 = NULL;
-
-// flags
-bool compact_tr;
-
-int n, nnz;
-double *non_zeros;
-unsigned char *row_counts;
-int *row_starts;
-bool use_counts;
-unsigned int *cols;
-double *dist;
-int dist_shift;
-int dist_mask;
-int *h, *l;
-int i;
-
-
-JNIEXPORT jint JNICALL Java_sparse_PrismSparse_PS_1CreateSparseMatrix
+// sparse matrix used by the leak explorers. Each call to PS_CreateSparseMatrix builds a new
+// one and returns a handle (pointer) to it, so several matrices can be used at the same time
+struct LeakSparseMatrix
+{
+	RMSparseMatrix *rmsm;		// "row major" version
+	CMSRSparseMatrix *cmsrsm;	// "compact msr" version
+	bool compact_tr;
+	int n;				// num states
+	int *l, *h;			// transitions of state i are in positions l[i], ..., h[i]-1
+	
+	LeakSparseMatrix() : rmsm(NULL), cmsrsm(NULL), compact_tr(false), n(0), l(NULL), h(NULL) {}
+	
+	~LeakSparseMatrix()
+	{
+		if (rmsm) delete rmsm;
+		if (cmsrsm) delete cmsrsm;
+		if (l) delete[] l;
+		if (h) delete[] h;
+	}
+	
+	// target state of the transition in position j
+	int col(int j)
+	{
+		return compact_tr ? (int)(cmsrsm->cols[j] >> cmsrsm->dist_shift) : (int)rmsm->cols[j];
+	}
+	
+	// probability of the transition in position j
+	double prob(int j)
+	{
+		return compact_tr ? cmsrsm->dist[(int)(cmsrsm->cols[j] & cmsrsm->dist_mask)] : rmsm->non_zeros[j];
+	}
+};
+
+#define jlong_to_LeakSparseMatrix(x)	(LeakSparseMatrix *)jlong_to_ptr(x)
+
+// build a sparse matrix and return a handle to it (0 if out of memory)
+JNIEXPORT jlong __jlongpointer JNICALL Java_sparse_PrismSparse_PS_1CreateSparseMatrix
 (
 JNIEnv *env,
 jclass cls,
@@ -464,136 +480,83 @@ jlong __jlongpointer od	// odd
 	DdNode **cvars = jlong_to_DdNode_array(cv);	// col vars
 	ODDNode *odd = jlong_to_ODDNode(od);
 
-	// sparse matrix
-	rmsm11 = NULL;
-	cmsrsm11 = NULL;
+	LeakSparseMatrix *lsm = NULL;
+	unsigned char *row_counts;
+	bool use_counts;
+	int i;
 
 	// exception handling around whole function
 	try {
 	
+	lsm = new LeakSparseMatrix();
+	
 	// build sparse matrix
 	// if requested, try and build a "compact" version
-	compact_tr = true;
-	cmsrsm11 = NULL;
-	if (compact) cmsrsm11 = build_cmsr_sparse_matrix(ddman, matrix, rvars, cvars, num_rvars, odd);
-	if (cmsrsm11 != NULL) {
-		n = cmsrsm11->n;
-		nnz = cmsrsm11->nnz;
+	lsm->compact_tr = true;
+	if (compact) lsm->cmsrsm = build_cmsr_sparse_matrix(ddman, matrix, rvars, cvars, num_rvars, odd);
+	if (lsm->cmsrsm != NULL) {
+		lsm->n = lsm->cmsrsm->n;
+		row_counts = lsm->cmsrsm->row_counts;
+		use_counts = lsm->cmsrsm->use_counts;
 	}
 	// if not or if it wasn't possible, built a normal one
 	else {
-		compact_tr = false;
-		rmsm11 = build_rm_sparse_matrix(ddman, matrix, rvars, cvars, num_rvars, odd);
-		n = rmsm11->n;
-		nnz = rmsm11->nnz;
-	}
-	
-	// first get data structure info
-	if (!compact_tr) {
-		non_zeros = rmsm11->non_zeros;
-		row_counts = rmsm11->row_counts;
-		row_starts = (int *)rmsm11->row_counts;
-		use_counts = rmsm11->use_counts;
-		cols = rmsm11->cols;
-	} else {
-		row_counts = cmsrsm11->row_counts;
-		row_starts = (int *)cmsrsm11->row_counts;
-		use_counts = cmsrsm11->use_counts;
-		cols = cmsrsm11->cols;
-		dist = cmsrsm11->dist;
-		dist_shift = cmsrsm11->dist_shift;
-		dist_mask = cmsrsm11->dist_mask;
+		lsm->compact_tr = false;
+		lsm->rmsm = build_rm_sparse_matrix(ddman, matrix, rvars, cvars, num_rvars, odd);
+		lsm->n = lsm->rmsm->n;
+		row_counts = lsm->rmsm->row_counts;
+		use_counts = lsm->rmsm->use_counts;
 	}
 
-    // then traverse data structure
-    
-    h = new int[n];
-    l = new int[n];
-    h[0] = 0;
-	for (i = 0; i < n; i++) {
-	if (!use_counts) { l[i] = row_starts[i]; h[i] = row_starts[i+1]; }
+	// then compute the range of transitions of each state
+	int *row_starts = (int *)row_counts;
+	lsm->h = new int[lsm->n];
+	lsm->l = new int[lsm->n];
+	for (i = 0; i < lsm->n; i++) {
+		if (!use_counts) { lsm->l[i] = row_starts[i]; lsm->h[i] = row_starts[i+1]; }
 		else {
-            if (i==0) {
-                l[0] = 0;
-                h[0] = row_counts[0]; 
-            }
-            else{
-                l[i] = h[i-1]; 
-                h[i] = h[i-1] + row_counts[i]; 
-            }
-        }
+			lsm->l[i] = (i == 0) ? 0 : lsm->h[i-1];
+			lsm->h[i] = lsm->l[i] + row_counts[i];
+		}
 	}
-    
 
-    // catch exceptions: return (undocumented) error code for memout
+	// catch exceptions: return null handle for memout
 	} catch (std::bad_alloc e) {
-		return -2;
+		if (lsm) delete lsm;
+		return 0;
 	}
     
-    return 0;
+	return ptr_to_jlong(lsm);
 }
 
-JNIEXPORT jint JNICALL Java_sparse_PrismSparse_PS_1FreeSparseMatrix
+JNIEXPORT void JNICALL Java_sparse_PrismSparse_PS_1FreeSparseMatrix
 (
 JNIEnv *env,
 jclass cls,
-jlong __jlongpointer m,	// matrix
-jstring na,		// matrix name
-jlong __jlongpointer rv,	// row vars
-jint num_rvars,
-jlong __jlongpointer cv,	// col vars
-jint num_cvars,
-jlong __jlongpointer od	// odd
+jlong __jlongpointer sm	// sparse matrix handle
 )
 {
-    // free memory
-	if (rmsm11) delete rmsm11;
-	if (cmsrsm11) delete cmsrsm11;
-    if (h) delete h;
-    if (l) delete l;
-    if (non_zeros) delete non_zeros;
-    if (row_counts) delete row_counts;
-    if (row_starts) delete row_starts;
-    if (cols) delete cols;
-    if (dist) delete dist;    
-
-    return 0;
+	LeakSparseMatrix *lsm = jlong_to_LeakSparseMatrix(sm);
+	if (lsm) delete lsm;
 }
 
-
 JNIEXPORT jdouble JNICALL Java_sparse_PrismSparse_PS_1GetTransitionProb
 (
 JNIEnv *env,
 jclass cls,
+jlong __jlongpointer sm,	// sparse matrix handle
 jint src,
-jint dst,
-jlong __jlongpointer m,	// matrix
-jstring na,		// matrix name
-jlong __jlongpointer rv,	// row vars
-jint num_rvars,
-jlong __jlongpointer cv,	// col vars
-jint num_cvars,
-jlong __jlongpointer od	// odd
+jint dst
 )
 {
-    // traverse data structure
-	int j, c = 0;
-    double d = -1;
-    for (j = l[src]; j < h[src]; j++) {
-	    // "row major" version
-	    if (!compact_tr) {
-		    c = cols[j];
-		    d = non_zeros[j];
-	    }
-	    // "compact msr" version
-	    else {
-		    c = (int)(cols[j] >> dist_shift);
-		    d = dist[(int)(cols[j] & dist_mask)];
-	    }
-        if ( c == dst)
-            return d;		    
-    }
-    return -1;
+	LeakSparseMatrix *lsm = jlong_to_LeakSparseMatrix(sm);
+	
+	// traverse data structure
+	for (int j = lsm->l[src]; j < lsm->h[src]; j++) {
+		if (lsm->col(j) == dst)
+			return lsm->prob(j);
+	}
+	return -1;
 }
 
 // return successor states of src. Succesor states of src contain src itself, if it has a self-loop
@@ -601,39 +564,20 @@ JNIEXPORT jintArray JNICALL Java_sparse_PrismSparse_PS_1SuccessorStates
 (
 JNIEnv *env,
 jclass cls,
-jint src,
-jlong __jlongpointer m,	// matrix
-jstring na,		// matrix name
-jlong __jlongpointer rv,	// row vars
-jint num_rvars,
-jlong __jlongpointer cv,	// col vars
-jint num_cvars,
-jlong __jlongpointer od	// odd
+jlong __jlongpointer sm,	// sparse matrix handle
+jint src
 )
 {
-    // traverse data structure
-	int j, c;
-    double d = -1;
-    int succ_size = h[src] - l[src];
-    jintArray result = env->NewIntArray(succ_size);
-    jint *succ = env->GetIntArrayElements(result, NULL);
-
-    int k = 0;
-    for (j = l[src]; j < h[src]; j++) {
-	    // "row major" version
-	    if (!compact_tr) {
-		    c = cols[j];
-		    d = non_zeros[j];
-	    }
-	    // "compact msr" version
-	    else {
-		    c = (int)(cols[j] >> dist_shift);
-		    d = dist[(int)(cols[j] & dist_mask)];
-	    }
-        succ[k] = c; k++;
-    }
-    env->ReleaseIntArrayElements(result, succ, NULL);
-    return result;
+	LeakSparseMatrix *lsm = jlong_to_LeakSparseMatrix(sm);
+	
+	// traverse data structure
+	int succ_size = lsm->h[src] - lsm->l[src];
+	jintArray result = env->NewIntArray(succ_size);
+	jint *succ = env->GetIntArrayElements(result, NULL);
+	for (int k = 0; k < succ_size; k++)
+		succ[k] = lsm->col(lsm->l[src] + k);
+	env->ReleaseIntArrayElements(result, succ, 0);
+	return result;
 }
 
 // a state is considered final, if it has no successor or the only successor is itself
@@ -641,36 +585,70 @@ JNIEXPORT jboolean JNICALL Java_sparse_PrismSparse_PS_1isFinalState
 (
 JNIEnv *env,
 jclass cls,
-jint src,
-jlong __jlongpointer m,	// matrix
-jstring na,		// matrix name
-jlong __jlongpointer rv,	// row vars
-jint num_rvars,
-jlong __jlongpointer cv,	// col vars
-jint num_cvars,
-jlong __jlongpointer od	// odd
+jlong __jlongpointer sm,	// sparse matrix handle
+jint src
 )
 {
-    // traverse data structure
-	int j, c;
-    int succ_size = h[src] - l[src];
-    if (succ_size == 1) {
-        j = l[src];
-        // "row major" version
-	    if (!compact_tr) {
-		    c = cols[j];
-	    }
-	    // "compact msr" version
-	    else {
-		    c = (int)(cols[j] >> dist_shift);
-	    }
-        if ( c == src)
-            return true;		    
-    }
-    
-    if (succ_size == 0) return true;
+	LeakSparseMatrix *lsm = jlong_to_LeakSparseMatrix(sm);
+	
+	int succ_size = lsm->h[src] - lsm->l[src];
+	if (succ_size == 0) return true;
+	if (succ_size == 1 && lsm->col(lsm->l[src]) == src) return true;
+	return false;
+}
+
+JNIEXPORT jint JNICALL Java_sparse_PrismSparse_PS_1GetNumStates
+(
+JNIEnv *env,
+jclass cls,
+jlong __jlongpointer sm	// sparse matrix handle
+)
+{
+	LeakSparseMatrix *lsm = jlong_to_LeakSparseMatrix(sm);
+	return lsm->n;
+}
+
+JNIEXPORT jint JNICALL Java_sparse_PrismSparse_PS_1GetNumTransitions
+(
+JNIEnv *env,
+jclass cls,
+jlong __jlongpointer sm	// sparse matrix handle
+)
+{
+	LeakSparseMatrix *lsm = jlong_to_LeakSparseMatrix(sm);
+	return (lsm->n > 0) ? lsm->h[lsm->n-1] : 0;
+}
+
+// copy the whole sparse matrix into java arrays: transitions of state s are in positions row_starts[s], ..., row_starts[s+1]-1 of cols/probs
+JNIEXPORT void JNICALL Java_sparse_PrismSparse_PS_1ExportSparseMatrix
+(
+JNIEnv *env,
+jclass cls,
+jlong __jlongpointer sm,	// sparse matrix handle
+jintArray rs,	// row starts (output)
+jintArray cs,	// columns (output)
+jdoubleArray ps	// probabilities (output)
+)
+{
+	LeakSparseMatrix *lsm = jlong_to_LeakSparseMatrix(sm);
+	int r, j, num_trans;
+	jint *row_starts_out = env->GetIntArrayElements(rs, NULL);
+	jint *cols_out = env->GetIntArrayElements(cs, NULL);
+	jdouble *probs_out = env->GetDoubleArrayElements(ps, NULL);
+
+	num_trans = (lsm->n > 0) ? lsm->h[lsm->n-1] : 0;
+	for (r = 0; r < lsm->n; r++) row_starts_out[r] = lsm->l[r];
+	row_starts_out[lsm->n] = num_trans;
+
+	// traverse data structure
+	for (j = 0; j < num_trans; j++) {
+		cols_out[j] = lsm->col(j);
+		probs_out[j] = lsm->prob(j);
+	}
 
-    return false;
+	env->ReleaseIntArrayElements(rs, row_starts_out, 0);
+	env->ReleaseIntArrayElements(cs, cols_out, 0);
+	env->ReleaseDoubleArrayElements(ps, probs_out, 0);
 }
 
 //------------------------------------------------------------------------------
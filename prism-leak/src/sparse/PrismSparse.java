@@ -707,25 +707,39 @@ public class PrismSparse
 	// PRISM-Leak stuff
 	//----------------------------------------------------------------------------------------------
 
-	// create sparse matrix
-	public static native int PS_CreateSparseMatrix(long matrix, String name, long rv, int nrv, long cv, int ncv, long odd);
-	public static native int PS_FreeSparseMatrix(long matrix, String name, long rv, int nrv, long cv, int ncv, long odd);
+	// create sparse matrix and return a handle to it (0 if out of memory). 
+	// Each call creates a new matrix, which must be released with PS_FreeSparseMatrix
+	public static native long PS_CreateSparseMatrix(long matrix, String name, long rv, int nrv, long cv, int ncv, long odd);
+	public static native void PS_FreeSparseMatrix(long sm);
 
 	// get transition probability between two states i and j
-	public static native double PS_GetTransitionProb(int i, int j, long matrix, String name, long rv, int nrv, long cv, int ncv, long odd);
+	public static native double PS_GetTransitionProb(long sm, int i, int j);
 	
 	// get successor states of state i. Successor states of i contain i itself, if it has a self-loop
-	public static native int[] PS_SuccessorStates(int i, long matrix, String name, long rv, int nrv, long cv, int ncv, long odd);
+	public static native int[] PS_SuccessorStates(long sm, int i);
 	
 	// return true if state i is final
-	public static native boolean PS_isFinalState(int i, long matrix, String name, long rv, int nrv, long cv, int ncv, long odd);
+	public static native boolean PS_isFinalState(long sm, int i);
+	
+	// get number of states (rows) and number of transitions (non-zeros) of the sparse matrix
+	public static native int PS_GetNumStates(long sm);
+	public static native int PS_GetNumTransitions(long sm);
+	
+	// copy the whole sparse matrix, in row-major order, into rowStarts (of size numStates+1), cols and probs (of size numTransitions)
+	public static native void PS_ExportSparseMatrix(long sm, int[] rowStarts, int[] cols, double[] probs);
 
 	/**
-	 * A state is considered final, if it has no successor or the only successor is itself
+	 * Create a sparse matrix for the transition matrix (MTBDD) and return a handle to it.
+	 * Building the matrix traverses the MTBDD using the shared CUDD manager, so it is serialised;
+	 * once built, matrices are independent of each other and of CUDD.
 	 */
-	public static boolean isFinalState(int i, JDDNode matrix, String name, JDDVars rows, JDDVars cols, ODDNode odd) {
+	public static synchronized long createSparseMatrix(JDDNode matrix, String name, JDDVars rows, JDDVars cols, ODDNode odd) throws PrismException {
 		
-		return PS_isFinalState(i, matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
+		long sm = PS_CreateSparseMatrix(matrix.ptr(), name, rows.array(), rows.n(), cols.array(), cols.n(), odd.ptr());
+		if (sm == 0) {
+			throw new PrismException("Out of memory building transition matrix");
+		}
+		return sm;
 	}
 	//----------------------------------------------------------------------------------------------
 }